@@ -21,23 +21,25 @@
 package info.martinmarinov.dvbdriver;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Date;
 
+import info.martinmarinov.drivers.tools.io.TsRecorder;
 import info.martinmarinov.dvbservice.tools.TsDumpFileUtils;
 
 class DataHandler extends Thread {
+    private final static int READ_SIZE = 64 * 1024;
+    private final static long MAX_SEGMENT_BYTES = 1024L * 1024 * 1024; // well below the 4 GiB FAT limit
+
     private final DvbFrontendActivity dvbFrontendActivity;
-    private final Object recordingLock = new Object();
     private final InputStream is;
 
-    private boolean recording = false;
-    private File file;
-    private FileOutputStream fos;
-    private int recordedSize = 0;
+    // The UI thread only asks for a recording to start or stop, this thread creates the recorder
+    // and has it closed in the background, so the UI never waits for the storage
+    private volatile Date recordingStart; // null when not recording
+    private Date recorderStart;
+    private TsRecorder recorder;
 
     private long readB = 0;
     private long currFreq;
@@ -68,20 +70,21 @@ class DataHandler extends Thread {
     @Override
     public void run() {
         try {
-            long nextUpdate = System.currentTimeMillis() + 1_000;
-            byte[] b = new byte[1024];
+            long lastUpdate = System.currentTimeMillis();
+            byte[] b = new byte[READ_SIZE];
             while (!isInterrupted()) {
 
                 int read = is.read(b);
                 if (read > 0) {
-                    synchronized (recordingLock) {
-                        if (recording) {
-                            fos.write(b, 0, read);
-                            recordedSize += read;
-                        }
+                    Date start = recordingStart;
+                    if (start != recorderStart) {
+                        if (recorder != null) closeInBackground(recorder);
+                        recorder = start == null ? null : createRecorder(start);
+                        recorderStart = start;
                     }
+                    if (recorder != null) recorder.write(b, 0, read);
 
-                    readB += b.length;
+                    readB += read;
                 } else {
                     try {
                         Thread.sleep(100);
@@ -91,14 +94,16 @@ class DataHandler extends Thread {
                     continue;
                 }
 
-                if (System.currentTimeMillis() > nextUpdate) {
-                    nextUpdate = System.currentTimeMillis() + 1_000;
-                    if (recording) {
-                        dvbFrontendActivity.announceRecorded(file, recordedSize);
+                long now = System.currentTimeMillis();
+                if (now - lastUpdate >= 1_000) {
+                    if (recorder != null) {
+                        File segment = recorder.getCurrentSegment();
+                        if (segment != null) dvbFrontendActivity.announceRecorded(segment, recorder.getBytesReceived());
                     } else {
-                        dvbFrontendActivity.announceBitRate(readB);
+                        dvbFrontendActivity.announceBitRate(readB * 1000.0 / (now - lastUpdate));
                     }
                     readB = 0;
+                    lastUpdate = now;
                 }
             }
         } catch (IOException e) {
@@ -106,32 +111,46 @@ class DataHandler extends Thread {
                 throw new RuntimeException(e);
             }
         } finally {
-            try {
-                if (fos != null) fos.close();
-            } catch (IOException ignored) {
-            }
+            recordingStart = null;
+            if (recorder != null) closeInBackground(recorder);
+            recorder = null;
         }
     }
 
     boolean isRecording() {
-        return recording;
+        return recordingStart != null;
     }
 
-    void startRecording() throws FileNotFoundException {
-        synchronized (recordingLock) {
-            file = TsDumpFileUtils.getFor(dvbFrontendActivity.getApplicationContext(), currFreq, currBandwidth, new Date());
-            fos = new FileOutputStream(file, false);
-            recordedSize = 0;
-            recording = true;
-        }
+    void startRecording() {
+        recordingStart = new Date();
     }
 
-    void stopRecording() throws IOException {
-        synchronized (recordingLock) {
-            recording = false;
-            fos.close();
-            fos = null;
-            file = null;
-        }
+    /** Returns straight away, the data still buffered is written out in the background */
+    void stopRecording() {
+        recordingStart = null;
+    }
+
+    private TsRecorder createRecorder(final Date start) {
+        return new TsRecorder(new TsRecorder.SegmentNamer() {
+            @Override
+            public File getSegmentFile(int index) {
+                // segments after the first one are named after the time they start
+                Date date = index == 0 ? start : new Date();
+                return TsDumpFileUtils.getFor(dvbFrontendActivity.getApplicationContext(), currFreq, currBandwidth, date);
+            }
+        }, MAX_SEGMENT_BYTES, TsRecorder.NO_LIMIT);
+    }
+
+    private void closeInBackground(final TsRecorder recorder) {
+        new Thread("Close recording") {
+            @Override
+            public void run() {
+                try {
+                    recorder.close();
+                } catch (IOException e) {
+                    dvbFrontendActivity.handleException(e);
+                }
+            }
+        }.start();
     }
 }
@@ -33,7 +33,6 @@ import android.widget.TextView;
 import androidx.fragment.app.FragmentActivity;
 
 import java.io.File;
-import java.io.IOException;
 
 import info.martinmarinov.drivers.DeliverySystem;
 
@@ -115,14 +114,10 @@ public class DvbFrontendActivity extends FragmentActivity {
 
         btnDumpTs.setOnClickListener(v -> {
             DataHandler dataHandler = deviceController.getDataHandler();
-            try {
-                if (dataHandler.isRecording()) {
-                    dataHandler.stopRecording();
-                } else {
-                    dataHandler.startRecording();
-                }
-            } catch (IOException e) {
-                handleException(e);
+            if (dataHandler.isRecording()) {
+                dataHandler.stopRecording();
+            } else {
+                dataHandler.startRecording();
             }
             btnDumpTs.setText(dataHandler.isRecording() ? R.string.dump_stop : R.string.dump);
         });
@@ -192,7 +187,7 @@ public class DvbFrontendActivity extends FragmentActivity {
     }
 
 
-    void announceRecorded(final File file, final int recordedSize) {
+    void announceRecorded(final File file, final long recordedSize) {
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
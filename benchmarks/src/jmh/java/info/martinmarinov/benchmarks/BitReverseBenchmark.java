@@ -0,0 +1,69 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import info.martinmarinov.drivers.tools.BitReverse;
+
+/** Table lookups of BitReverse, as used for every register access of the R820T tuner **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BitReverseBenchmark {
+    private final static int VALUES = 1024;
+
+    private final byte[] bytes = new byte[VALUES];
+    private final int[] ints = new int[VALUES];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        random.nextBytes(bytes);
+        for (int i = 0; i < VALUES; i++) ints[i] = random.nextInt();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int bitRev8() {
+        int sum = 0;
+        for (byte b : bytes) sum += BitReverse.bitRev8(b);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int bitRev32() {
+        int sum = 0;
+        for (int i : ints) sum += BitReverse.bitRev32(i);
+        return sum;
+    }
+}
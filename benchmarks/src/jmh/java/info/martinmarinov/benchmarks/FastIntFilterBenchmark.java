@@ -0,0 +1,88 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import info.martinmarinov.drivers.tools.FastIntFilter;
+
+/**
+ * Lookup cost of FastIntFilter as done by DvbDemux for every TS packet, on its own and while
+ * another thread keeps changing the PIDs.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FastIntFilterBenchmark {
+    private final static int PACKETS = 4096;
+
+    private final FastIntFilter filter = new FastIntFilter(0x1fff);
+    private final int[] packetPids = new int[PACKETS];
+    private final int[] serviceA = {0, 0x10, 0x11, 0x12, 0x14, 0x100, 0x101, 0x102};
+    private final int[] serviceB = {0, 0x10, 0x11, 0x12, 0x14, 0x200, 0x201, 0x202};
+    private int updates = 0;
+
+    @Setup
+    public void setUp() {
+        // a mux carrying a few services, the wanted ones are a fraction of the packets
+        Random random = new Random(42);
+        for (int i = 0; i < PACKETS; i++) {
+            int service = random.nextInt(6);
+            packetPids[i] = random.nextInt(20) == 0 ? random.nextInt(0x20) : 0x100 * (service + 1) + random.nextInt(3);
+        }
+        filter.setFilter(serviceA);
+    }
+
+    @Benchmark
+    @Group("lookup")
+    @OperationsPerInvocation(PACKETS)
+    public void lookup(Blackhole blackhole) {
+        for (int pid : packetPids) blackhole.consume(filter.isFiltered(pid));
+    }
+
+    @Benchmark
+    @Group("lookupDuringUpdates")
+    @GroupThreads(1)
+    @OperationsPerInvocation(PACKETS)
+    public void lookupWhileUpdating(Blackhole blackhole) {
+        for (int pid : packetPids) blackhole.consume(filter.isFiltered(pid));
+    }
+
+    @Benchmark
+    @Group("lookupDuringUpdates")
+    @GroupThreads(1)
+    public void update() {
+        filter.setFilter((updates++ & 1) == 0 ? serviceB : serviceA);
+    }
+}
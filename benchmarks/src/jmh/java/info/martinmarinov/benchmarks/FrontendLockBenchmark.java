@@ -0,0 +1,119 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import info.martinmarinov.drivers.tools.FrontendLock;
+import info.martinmarinov.drivers.tools.ThrowingCallable;
+import info.martinmarinov.drivers.tools.ThrowingRunnable;
+
+/**
+ * How long tunes and PID filter updates take to get through FrontendLock. The hardware is
+ * simulated by parking for about as long as the I2C traffic of a tune and of a status read.
+ *
+ * A tune polled from several threads should take at most one read longer than an unloaded one,
+ * and a PID filter update should not wait for a running tune at all.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrontendLockBenchmark {
+    private final static long TUNE_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private final static long READ_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private final static long PID_UPDATE_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final FrontendLock frontendLock = new FrontendLock();
+    private final FrontendLock.LastValue<Integer> lastValue = new FrontendLock.LastValue<>();
+
+    private final ThrowingRunnable<RuntimeException> tuneOperation = new ThrowingRunnable<RuntimeException>() {
+        @Override
+        public void run() {
+            LockSupport.parkNanos(TUNE_NANOS);
+        }
+    };
+
+    private final ThrowingCallable<Integer, RuntimeException> reader = new ThrowingCallable<Integer, RuntimeException>() {
+        @Override
+        public Integer call() {
+            LockSupport.parkNanos(READ_NANOS);
+            return 1;
+        }
+    };
+
+    private final ThrowingRunnable<RuntimeException> pidUpdate = new ThrowingRunnable<RuntimeException>() {
+        @Override
+        public void run() {
+            LockSupport.parkNanos(PID_UPDATE_NANOS);
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        // so reads during a tune have a last value to fall back to
+        frontendLock.read(lastValue, reader);
+    }
+
+    @Benchmark
+    @Group("unloaded")
+    public void unloadedTune() {
+        frontendLock.tune(tuneOperation);
+    }
+
+    @Benchmark
+    @Group("polled")
+    @GroupThreads(1)
+    public void polledTune() {
+        frontendLock.tune(tuneOperation);
+    }
+
+    @Benchmark
+    @Group("polled")
+    @GroupThreads(4)
+    public int poll() {
+        return frontendLock.read(lastValue, reader);
+    }
+
+    @Benchmark
+    @Group("pidUpdates")
+    @GroupThreads(1)
+    public void tuneWithPidUpdates() {
+        frontendLock.tune(tuneOperation);
+    }
+
+    @Benchmark
+    @Group("pidUpdates")
+    @GroupThreads(1)
+    public boolean pidUpdate() {
+        return frontendLock.streamControl(pidUpdate);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import info.martinmarinov.drivers.ts.Crc32Mpeg;
+
+/**
+ * Generates a transport stream that looks like a DVB-T mux to the demux, with the imperfections
+ * that come with a real tuner on a real USB bus.
+ *
+ * Each service has a PMT, a video and an audio PID, the video carrying weight times the packets of
+ * the audio. The PAT and the PMTs are repeated every psiInterval packets and all PIDs have correct
+ * continuity counters. On top of that, null packets, packets with the TEI flag set and runs of
+ * random garbage in front of packets can be mixed in at the given rates.
+ */
+public class TsGenerator {
+    public final static int PACKET_SIZE = 188;
+    public final static int NULL_PID = 0x1FFF;
+
+    private int services = 4;
+    private int videoWeight = 8;
+    private int psiInterval = 500;
+    private double nullRatio = 0.0;
+    private double teiRate = 0.0;
+    private double garbageRate = 0.0;
+    private long seed = 42;
+
+    public TsGenerator services(int services) {
+        this.services = services;
+        return this;
+    }
+
+    public TsGenerator videoWeight(int videoWeight) {
+        this.videoWeight = videoWeight;
+        return this;
+    }
+
+    public TsGenerator psiInterval(int psiInterval) {
+        this.psiInterval = psiInterval;
+        return this;
+    }
+
+    public TsGenerator nullRatio(double nullRatio) {
+        this.nullRatio = nullRatio;
+        return this;
+    }
+
+    public TsGenerator teiRate(double teiRate) {
+        this.teiRate = teiRate;
+        return this;
+    }
+
+    public TsGenerator garbageRate(double garbageRate) {
+        this.garbageRate = garbageRate;
+        return this;
+    }
+
+    public TsGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public static int pmtPid(int service) {
+        return 0x100 * (service + 1);
+    }
+
+    public static int videoPid(int service) {
+        return pmtPid(service) + 1;
+    }
+
+    public static int audioPid(int service) {
+        return pmtPid(service) + 2;
+    }
+
+    /** PIDs a player of the service needs, as it would set them on the filter **/
+    public static int[] servicePids(int service) {
+        return new int[] {0, 0x10, 0x11, pmtPid(service), videoPid(service), audioPid(service)};
+    }
+
+    /** Generates the given number of packets, plus any garbage **/
+    public byte[] generate(int packets) {
+        Random random = new Random(seed);
+        int[] cc = new int[0x2000];
+        int[] esPids = new int[services * (videoWeight + 1)];
+        for (int s = 0, p = 0; s < services; s++) {
+            for (int i = 0; i < videoWeight; i++) esPids[p++] = videoPid(s);
+            esPids[p++] = audioPid(s);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(packets * (PACKET_SIZE + 1));
+        byte[] packet = new byte[PACKET_SIZE];
+        int psiPending = 0;
+        for (int i = 0; i < packets; i++) {
+            if (random.nextDouble() < garbageRate) {
+                byte[] garbage = new byte[1 + random.nextInt(400)];
+                random.nextBytes(garbage);
+                out.write(garbage, 0, garbage.length);
+            }
+
+            if (i % psiInterval == 0) psiPending = services + 1;
+            if (psiPending > 0) {
+                psiPending--;
+                if (psiPending == services) {
+                    sectionPacket(packet, 0, cc[0]++, pat());
+                } else {
+                    int service = services - 1 - psiPending;
+                    sectionPacket(packet, pmtPid(service), cc[pmtPid(service)]++, pmt(service));
+                }
+            } else if (random.nextDouble() < nullRatio) {
+                Arrays.fill(packet, (byte) 0xFF);
+                header(packet, NULL_PID, 0, false);
+            } else {
+                int pid = esPids[random.nextInt(esPids.length)];
+                random.nextBytes(packet);
+                header(packet, pid, cc[pid]++, random.nextInt(50) == 0);
+            }
+
+            if (random.nextDouble() < teiRate) packet[1] |= 0x80;
+            out.write(packet, 0, PACKET_SIZE);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] pat() {
+        byte[] body = new byte[4 * services];
+        for (int s = 0; s < services; s++) {
+            putShort(body, 4 * s, s + 1);
+            putShort(body, 4 * s + 2, 0xE000 | pmtPid(s));
+        }
+        return section(0x00, 1, body);
+    }
+
+    private static byte[] pmt(int service) {
+        byte[] body = {
+                (byte) (0xE0 | (videoPid(service) >> 8)), (byte) videoPid(service), // PCR PID
+                (byte) 0xF0, 0, // no program info
+                0x02, (byte) (0xE0 | (videoPid(service) >> 8)), (byte) videoPid(service), (byte) 0xF0, 0,
+                0x03, (byte) (0xE0 | (audioPid(service) >> 8)), (byte) audioPid(service), (byte) 0xF0, 0,
+        };
+        return section(0x02, service + 1, body);
+    }
+
+    private static byte[] section(int tableId, int tableIdExtension, byte[] body) {
+        int sectionLength = 5 + body.length + 4;
+        byte[] section = new byte[3 + sectionLength];
+        section[0] = (byte) tableId;
+        putShort(section, 1, 0xB000 | sectionLength);
+        putShort(section, 3, tableIdExtension);
+        section[5] = (byte) 0xC1; // version 0, current
+        System.arraycopy(body, 0, section, 8, body.length);
+        int crc = Crc32Mpeg.compute(section, 0, section.length - 4);
+        putShort(section, section.length - 4, crc >>> 16);
+        putShort(section, section.length - 2, crc);
+        return section;
+    }
+
+    private static void sectionPacket(byte[] packet, int pid, int cc, byte[] section) {
+        Arrays.fill(packet, (byte) 0xFF);
+        header(packet, pid, cc, true);
+        packet[4] = 0; // pointer field
+        System.arraycopy(section, 0, packet, 5, section.length);
+    }
+
+    private static void header(byte[] packet, int pid, int cc, boolean payloadUnitStart) {
+        packet[0] = 0x47;
+        packet[1] = (byte) ((payloadUnitStart ? 0x40 : 0) | (pid >> 8));
+        packet[2] = (byte) pid;
+        packet[3] = (byte) (0x10 | (cc & 0x0F)); // payload only
+    }
+
+    private static void putShort(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >> 8);
+        buf[offset + 1] = (byte) value;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import info.martinmarinov.drivers.ts.TsPacketSync;
+
+/**
+ * Cost per 188 byte packet of finding the packets in what comes from USB, for a clean stream
+ * and for streams where runs of garbage have been inserted in front of some packets.
+ * The noise benchmark is the cost per byte of searching when there is nothing to lock on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TsPacketSyncBenchmark {
+    private final static int PACKETS = 8192;
+    private final static int CHUNK_SIZE = 16 * 1024; // about what a USB transfer brings in
+    private final static int NOISE_BYTES = 1024 * 1024;
+
+    @Param({"0", "0.001", "0.05"})
+    public double garbageRate; // chance of a run of garbage in front of a packet
+
+    private byte[] stream;
+    private byte[] noise;
+    private TsPacketSync sync;
+    private long checksum; // keeps the packets from being optimised away
+
+    @Setup
+    public void setUp() throws IOException {
+        stream = new TsGenerator().garbageRate(garbageRate).generate(PACKETS);
+
+        Random random = new Random(42);
+        noise = new byte[NOISE_BYTES];
+        random.nextBytes(noise);
+
+        sync = new TsPacketSync(new TsPacketSync.PacketSink() {
+            @Override
+            public void packet(byte[] buf, int offset) {
+                checksum += buf[offset + 2];
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public long sync() throws IOException {
+        for (int pos = 0; pos < stream.length; pos += CHUNK_SIZE) {
+            sync.feed(stream, pos, Math.min(CHUNK_SIZE, stream.length - pos));
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NOISE_BYTES)
+    public long searchNoise() throws IOException {
+        sync.reset();
+        for (int pos = 0; pos < noise.length; pos += CHUNK_SIZE) {
+            sync.feed(noise, pos, Math.min(CHUNK_SIZE, noise.length - pos));
+        }
+        return sync.getBytesSkipped();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import info.martinmarinov.benchmarks.TsGenerator;
+import info.martinmarinov.drivers.tools.io.TsPipe;
+
+/**
+ * What the data pump pays per packet in DvbDemux.consume, from finding the packets to writing
+ * the wanted ones out, with the filter set to a single service or letting the full mux through.
+ * The integrity check is also measured on its own. It lives in this package to get to the
+ * package private parts of the demux.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DvbDemuxBenchmark {
+    private final static int PACKETS = 16384;
+    private final static int CHUNK_SIZE = 16 * 1024; // about what a USB transfer brings in
+
+    @Param({"service", "fullMux"})
+    public String filter;
+
+    @Param({"0", "0.001"})
+    public double teiRate;
+
+    private byte[] stream;
+    private byte[][] chunks; // consume always starts at the beginning of the buffer, as it does for USB transfers
+    private DvbDemux demux;
+
+    @Setup
+    public void setUp() {
+        stream = new TsGenerator().nullRatio(0.1).teiRate(teiRate).generate(PACKETS);
+        chunks = new byte[(stream.length + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = Arrays.copyOfRange(stream, i * CHUNK_SIZE, Math.min(stream.length, (i + 1) * CHUNK_SIZE));
+        }
+        demux = DvbDemux.DvbDmxSwfilter(new DiscardingPipe());
+        if (filter.equals("fullMux")) {
+            demux.disablePidFilter();
+        } else {
+            demux.setPidFilter(TsGenerator.servicePids(0));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        demux.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public void consume() throws IOException {
+        for (byte[] chunk : chunks) demux.consume(chunk, chunk.length);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public int checkSequenceIntegrity() {
+        int errors = 0;
+        for (int offset = 0; offset < stream.length; offset += TsGenerator.PACKET_SIZE) {
+            int pid = ((stream[offset + 1] & 0x1F) << 8) | (stream[offset + 2] & 0xFF);
+            if (!demux.checkSequenceIntegrity(pid, stream, offset)) errors++;
+        }
+        return errors;
+    }
+
+    /** Throws away what the demux writes, so only the demux itself is measured **/
+    private static class DiscardingPipe implements TsPipe {
+        private final InputStream inputStream = new ByteArrayInputStream(new byte[0]);
+        private final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        @Override
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
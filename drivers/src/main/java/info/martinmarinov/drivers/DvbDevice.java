@@ -23,21 +23,42 @@ package info.martinmarinov.drivers;
 import androidx.annotation.NonNull;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
+import info.martinmarinov.drivers.tools.RetryPolicy;
+import info.martinmarinov.drivers.tools.SignalHistory;
+import info.martinmarinov.drivers.tools.io.StreamingMode;
+import info.martinmarinov.drivers.tools.io.StreamingStats;
+import info.martinmarinov.drivers.tools.io.TimeShiftBuffer;
+import info.martinmarinov.drivers.ts.ServiceModel;
 import info.martinmarinov.usbxfer.ByteSource;
 
 import static info.martinmarinov.drivers.DvbException.ErrorCode.BAD_API_USAGE;
 
 public abstract class DvbDevice implements Closeable {
     private final DvbDemux dvbDemux;
+    private final SignalHistory signalHistory = new SignalHistory();
+    private final Object pidFilterLock = new Object();
+    private final ServiceSelector serviceSelector = new ServiceSelector(this, pidFilterLock);
 
     private DataPump dataPump;
+    private DvbRecording.FileNamer recordingNamer;
+    private File timeShiftDirectory;
+    private long timeShiftBytes = 0;
+    private volatile TimeShiftBuffer timeShift;
+    private volatile StreamingMode streamingMode = StreamingMode.LOW_LATENCY;
+    private volatile StreamingStats streamingStats = new StreamingStats();
+    private volatile long tunedFrequency;
+    private volatile long tunedBandwidth;
 
     protected DvbDevice(DvbDemux dvbDemux) {
         this.dvbDemux = dvbDemux;
+        if (dvbDemux != null) dvbDemux.setServiceModelListener(serviceSelector);
     }
 
     public abstract void open() throws DvbException;
@@ -61,23 +82,217 @@ public abstract class DvbDevice implements Closeable {
 
     public final void tune(long freqHz, long bandwidthHz, @NonNull DeliverySystem deliverySystem) throws DvbException {
         tuneTo(freqHz, bandwidthHz, deliverySystem);
-        if (dvbDemux != null) dvbDemux.reset();
+        tunedFrequency = freqHz;
+        tunedBandwidth = bandwidthHz;
+        if (dvbDemux != null) dvbDemux.retune();
     }
 
     public int readDroppedUsbFps() throws DvbException {
         return dvbDemux.getDroppedUsbFps();
     }
 
+    /** Monotonic counter of dropped frames, unlike readDroppedUsbFps this doesn't reset on reading **/
+    public long readDroppedUsbFrames() throws DvbException {
+        return dvbDemux.getDroppedUsbFrames();
+    }
+
+    /** Monotonic counter of packets received from the hardware, before software PID filtering **/
+    public long readReceivedPackets() {
+        return dvbDemux.getReceivedPackets();
+    }
+
+    /** Traffic per PID in the mux since the last tune, up to maxCount PIDs not smaller than fromPid ordered by PID **/
+    public List<PidStats> readPidStats(int fromPid, int maxCount) {
+        return dvbDemux.getPidStats(fromPid, maxCount);
+    }
+
+    /**
+     * Live model of the programs in the mux and their PIDs, empty until the PAT is received after a tune.
+     * It is built from the packets that make it through the hardware PID filter, so it is only complete
+     * while the PAT, PMT, SDT and NIT PIDs are requested or the filter is disabled.
+     */
+    public ServiceModel getServiceModel() {
+        return dvbDemux.getServiceModel();
+    }
+
+    /** Where PID filtering happens and how much USB bandwidth that saves **/
+    public PidFilterStatus readPidFilterStatus() throws DvbException {
+        return new PidFilterStatus(false, 0, 0, 0, 0, 0, 0);
+    }
+
+    /** While true, status reads may return the last known values rather than fresh ones **/
+    public boolean isTuneInProgress() {
+        return false;
+    }
+
+    /** Whether any status read made by this thread since the last call returned a last known value rather than a fresh one, clears it **/
+    public boolean takeStaleStatusReads() {
+        return false;
+    }
+
+    /** Retry statistics of the control operations, so flaky ones can be spotted **/
+    public List<RetryPolicy> getRetryPolicies() {
+        return Collections.emptyList();
+    }
+
+    public SignalHistory getSignalHistory() {
+        return signalHistory;
+    }
+
     public void setPidFilter(int... pids) throws DvbException {
+        synchronized (pidFilterLock) {
+            serviceSelector.clear();
+            applyPidFilter(pids);
+        }
+    }
+
+    public void disablePidFilter() throws DvbException {
+        synchronized (pidFilterLock) {
+            serviceSelector.clear();
+            applyPidFilterDisabled();
+        }
+    }
+
+    /**
+     * Only let through the PIDs of a program, they are resolved from the PAT and PMT and kept up to date
+     * as the tables change. Until the PMT is received, only the PSI PIDs are let through.
+     * A later call to setPidFilter or disablePidFilter cancels the selection.
+     *
+     * @return true if the PIDs of the program were already known and are in place
+     */
+    public boolean setService(int programNumber) throws DvbException {
+        synchronized (pidFilterLock) {
+            ServiceModel.Program program = getServiceModel().getProgram(programNumber);
+            boolean resolved = program != null && program.getPmtVersion() >= 0;
+            // apply what is known right away rather than waiting for the selector thread
+            applyPidFilter(getServiceModel().getServicePids(programNumber));
+            serviceSelector.select(programNumber);
+            return resolved;
+        }
+    }
+
+    /**
+     * Turn the output into a single program transport stream: the PAT only lists the program and
+     * its PMT PID only carries its PMT. This doesn't change the PID filter, see setService for that.
+     *
+     * @param dropNullPackets drop stuffing packets
+     * @param dropUnreferencedPids drop packets of PIDs that are not in the PMT of the program, even if they pass the PID filter
+     */
+    public void setSptsRemux(int programNumber, boolean dropNullPackets, boolean dropUnreferencedPids) {
+        dvbDemux.setSptsRemux(programNumber, dropNullPackets, dropUnreferencedPids);
+    }
+
+    public void disableSptsRemux() {
+        dvbDemux.disableSptsRemux();
+    }
+
+    /** Where startRecording puts the files **/
+    public void setRecordingNamer(DvbRecording.FileNamer recordingNamer) {
+        this.recordingNamer = recordingNamer;
+    }
+
+    /**
+     * Record the stream to files while it is being streamed, without it going through the reader of
+     * the transport stream. While recording the whole mux is received from the device, the PID filter
+     * only applies to what the reader gets.
+     *
+     * @param programNumbers programs to record each to its own single program stream, none for the full mux
+     */
+    public void startRecording(int... programNumbers) throws DvbException {
+        if (recordingNamer == null) throw new DvbException(BAD_API_USAGE, "No place to record to");
+        synchronized (pidFilterLock) {
+            if (dvbDemux.getRecording() != null) throw new DvbException(BAD_API_USAGE, "Already recording");
+            DvbRecording recording = dvbDemux.startRecording(recordingNamer, tunedFrequency, tunedBandwidth, programNumbers);
+            try {
+                applyRecordingFilter(true);
+            } catch (DvbException e) {
+                dvbDemux.stopRecording();
+                closeRecording(recording);
+                throw e;
+            }
+        }
+    }
+
+    /** Stop recording and wait for the files to be written out, does nothing if not recording **/
+    public void stopRecording() throws DvbException {
+        DvbRecording recording;
+        synchronized (pidFilterLock) {
+            recording = dvbDemux.stopRecording();
+            if (recording == null) return;
+            applyRecordingFilter(false);
+        }
+        closeRecording(recording);
+    }
+
+    /** @return the running recording or null */
+    public DvbRecording getRecording() {
+        return dvbDemux.getRecording();
+    }
+
+    /** Where the time shift ring is kept, see setTimeShift **/
+    public void setTimeShiftDirectory(File timeShiftDirectory) {
+        this.timeShiftDirectory = timeShiftDirectory;
+    }
+
+    /**
+     * Keep the last part of the stream on disk so the reader can pause and go back, see TimeShiftBuffer.
+     * Takes effect when the next transport stream is started.
+     *
+     * @param bytes size of the ring, 0 to read the stream live
+     */
+    public void setTimeShift(long bytes) throws DvbException {
+        if (bytes != 0 && timeShiftDirectory == null) throw new DvbException(BAD_API_USAGE, "No place for the time shift buffer");
+        if (bytes < 0) throw new DvbException(BAD_API_USAGE, "Negative time shift size " + bytes);
+        timeShiftBytes = bytes;
+    }
+
+    /** @return the time shift buffer of the running stream or null if it is live */
+    public TimeShiftBuffer getTimeShift() {
+        return timeShift;
+    }
+
+    /**
+     * How the transport stream should be sent to the client, see StreamingMode.
+     * Takes effect when the next transport stream is started.
+     */
+    public void setStreamingMode(StreamingMode streamingMode) {
+        this.streamingMode = streamingMode;
+    }
+
+    public StreamingMode getStreamingMode() {
+        return streamingMode;
+    }
+
+    /** @return where the sender of the current or last transport stream keeps its counters */
+    public StreamingStats getStreamingStats() {
+        return streamingStats;
+    }
+
+    /** Devices with a hardware PID filter need to let the full mux through while recording **/
+    protected void applyRecordingFilter(boolean recording) throws DvbException {
+    }
+
+    private static void closeRecording(DvbRecording recording) throws DvbException {
+        try {
+            recording.close();
+        } catch (IOException e) {
+            throw new DvbException(DvbException.ErrorCode.IO_EXCEPTION, e);
+        }
+    }
+
+    protected void applyPidFilter(int... pids) throws DvbException {
         dvbDemux.setPidFilter(pids);
     }
 
-    public void disablePidFilter()throws DvbException {
+    protected void applyPidFilterDisabled() throws DvbException {
         dvbDemux.disablePidFilter();
     }
 
     @Override
     public void close() throws IOException {
+        serviceSelector.close();
+        DvbRecording recording = dvbDemux == null ? null : dvbDemux.stopRecording();
+        if (recording != null) recording.close();
         while (dataPump != null && dataPump.isAlive()) {
             dataPump.interrupt();
             try {
@@ -85,13 +300,30 @@ public abstract class DvbDevice implements Closeable {
             } catch (InterruptedException ignored) {}
         }
         dvbDemux.close();
+        TimeShiftBuffer timeShift = this.timeShift;
+        if (timeShift != null) timeShift.close();
     }
 
     public InputStream getTransportStream(StreamCallback streamCallback) throws DvbException {
         if (dataPump != null && dataPump.isAlive()) throw new DvbException(BAD_API_USAGE, "Data stream is still running. Please close the input stream first to start a new one");
+
+        TimeShiftBuffer timeShift = null;
+        if (timeShiftBytes != 0) {
+            try {
+                timeShift = new TimeShiftBuffer(timeShiftDirectory, timeShiftBytes);
+            } catch (IOException e) {
+                throw new DvbException(DvbException.ErrorCode.IO_EXCEPTION, e);
+            }
+        }
+        this.timeShift = timeShift;
+        streamingStats = new StreamingStats();
+
         dataPump = new DataPump(streamCallback);
         dataPump.start();
-        return dvbDemux.getInputStream();
+        if (timeShift == null) return dvbDemux.getInputStream();
+
+        timeShift.start(dvbDemux.getInputStream());
+        return timeShift.getInputStream();
     }
 
     public interface StreamCallback {
@@ -132,6 +364,7 @@ public abstract class DvbDevice implements Closeable {
                 tsSource.open();
 
                 dvbDemux.reset();
+                dvbDemux.requestPsiPreRoll(); // so the reader doesn't have to wait for the next PAT and PMT
                 while (!isInterrupted()) {
                     try {
                         tsSource.readNext(dvbDemux);
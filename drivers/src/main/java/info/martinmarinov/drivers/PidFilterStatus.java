@@ -0,0 +1,92 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package info.martinmarinov.drivers;
+
+public class PidFilterStatus {
+    private final boolean hardwareFiltering;
+    private final int hardwareSlots;
+    private final int hardwareSlotsInUse;
+    private final long hardwareSlotWrites;
+    private final long usbBytesPerSecond;
+    private final long fullMuxBytesPerSecond;
+    private final long failedWrites;
+
+    public PidFilterStatus(boolean hardwareFiltering, int hardwareSlots, int hardwareSlotsInUse, long hardwareSlotWrites, long usbBytesPerSecond, long fullMuxBytesPerSecond, long failedWrites) {
+        this.hardwareFiltering = hardwareFiltering;
+        this.hardwareSlots = hardwareSlots;
+        this.hardwareSlotsInUse = hardwareSlotsInUse;
+        this.hardwareSlotWrites = hardwareSlotWrites;
+        this.usbBytesPerSecond = usbBytesPerSecond;
+        this.fullMuxBytesPerSecond = fullMuxBytesPerSecond;
+        this.failedWrites = failedWrites;
+    }
+
+    /** False if the full mux is sent over USB and filtered in software only **/
+    public boolean isHardwareFiltering() {
+        return hardwareFiltering;
+    }
+
+    public int getHardwareSlots() {
+        return hardwareSlots;
+    }
+
+    public int getHardwareSlotsInUse() {
+        return hardwareSlotsInUse;
+    }
+
+    /** Number of hardware PID slots written since the device was opened **/
+    public long getHardwareSlotWrites() {
+        return hardwareSlotWrites;
+    }
+
+    public long getUsbBytesPerSecond() {
+        return usbBytesPerSecond;
+    }
+
+    /** Last measured rate of the full mux, 0 if it was never received unfiltered **/
+    public long getFullMuxBytesPerSecond() {
+        return fullMuxBytesPerSecond;
+    }
+
+    /** Number of times writing the hardware filter failed and the full mux was let through instead **/
+    public long getFailedWrites() {
+        return failedWrites;
+    }
+
+    public long getUsbBytesSavedPerSecond() {
+        if (!hardwareFiltering || fullMuxBytesPerSecond <= usbBytesPerSecond) return 0;
+        return fullMuxBytesPerSecond - usbBytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "PidFilterStatus{" +
+                "hardwareFiltering=" + hardwareFiltering +
+                ", hardwareSlots=" + hardwareSlots +
+                ", hardwareSlotsInUse=" + hardwareSlotsInUse +
+                ", hardwareSlotWrites=" + hardwareSlotWrites +
+                ", usbBytesPerSecond=" + usbBytesPerSecond +
+                ", fullMuxBytesPerSecond=" + fullMuxBytesPerSecond +
+                ", failedWrites=" + failedWrites +
+                '}';
+    }
+}
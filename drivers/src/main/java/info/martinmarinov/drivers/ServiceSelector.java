@@ -0,0 +1,132 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers;
+
+import android.util.Log;
+
+import info.martinmarinov.drivers.ts.PsiParser;
+import info.martinmarinov.drivers.ts.ServiceModel;
+
+/**
+ * Keeps the PID filter in sync with the PIDs of a selected program as the PAT and PMT
+ * announce them, so a client can zap by program number in a single request.
+ *
+ * Model changes are reported on the data pump thread, which mustn't block on the hardware, so
+ * the filter is applied from a worker thread that only runs while a program is selected.
+ */
+class ServiceSelector implements PsiParser.ModelListener {
+    private final static String TAG = ServiceSelector.class.getSimpleName();
+    private final static int NONE = -1;
+
+    private final DvbDevice dvbDevice;
+    private final Object pidFilterLock;
+
+    // guarded by this
+    private int programNumber = NONE;
+    private boolean dirty = false;
+    private Thread worker;
+
+    /** @param pidFilterLock held by anyone changing the PID filter, so an explicit filter is never overwritten by a stale selection */
+    ServiceSelector(DvbDevice dvbDevice, Object pidFilterLock) {
+        this.dvbDevice = dvbDevice;
+        this.pidFilterLock = pidFilterLock;
+    }
+
+    synchronized void select(int programNumber) {
+        this.programNumber = programNumber;
+        dirty = true;
+        if (worker == null) {
+            worker = new Worker();
+            worker.start();
+        }
+        notifyAll();
+    }
+
+    /** Call with the PID filter lock held before setting the filter explicitly **/
+    synchronized void clear() {
+        programNumber = NONE;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onModelChanged(ServiceModel model) {
+        if (programNumber == NONE) return;
+        dirty = true;
+        notifyAll();
+    }
+
+    void close() {
+        Thread thread;
+        synchronized (this) {
+            programNumber = NONE;
+            thread = worker;
+            worker = null;
+        }
+        if (thread == null) return;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Returns NONE once nothing is selected, in which case the worker has to exit
+    private synchronized int awaitChange() throws InterruptedException {
+        while (!dirty && programNumber != NONE) wait();
+        dirty = false;
+        if (programNumber == NONE && worker == Thread.currentThread()) worker = null; // a new selection starts a new worker
+        return programNumber;
+    }
+
+    private synchronized boolean isSelected(int programNumber) {
+        return this.programNumber == programNumber;
+    }
+
+    private class Worker extends Thread {
+        @Override
+        public void run() {
+            setName(ServiceSelector.class.getSimpleName());
+            try {
+                while (!isInterrupted()) {
+                    int selected = awaitChange();
+                    if (selected == NONE) break;
+
+                    synchronized (pidFilterLock) {
+                        if (!isSelected(selected)) continue;
+                        int[] pids = dvbDevice.getServiceModel().getServicePids(selected);
+                        try {
+                            dvbDevice.applyPidFilter(pids);
+                        } catch (DvbException e) {
+                            Log.w(TAG, "Cannot set PIDs of program " + selected + ": " + e.getMessage());
+                        }
+                    }
+                }
+            } catch (InterruptedException ignored) {
+                // closing
+            } finally {
+                synchronized (ServiceSelector.this) {
+                    if (worker == this) worker = null;
+                }
+            }
+        }
+    }
+}
@@ -21,11 +21,13 @@
 package info.martinmarinov.drivers.file;
 
 import android.content.res.Resources;
+import android.util.Log;
 import androidx.annotation.NonNull;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import info.martinmarinov.drivers.DeviceFilter;
 import info.martinmarinov.drivers.DvbCapabilities;
@@ -37,6 +39,8 @@ import info.martinmarinov.drivers.R;
 import info.martinmarinov.drivers.tools.SetUtils;
 import info.martinmarinov.usbxfer.ByteSource;
 import info.martinmarinov.drivers.tools.io.ThrottledTsSource;
+import info.martinmarinov.drivers.tools.io.NativePipe;
+import info.martinmarinov.drivers.ts.TsIndex;
 import info.martinmarinov.drivers.DeliverySystem;
 
 import static info.martinmarinov.drivers.DvbException.ErrorCode.CANNOT_OPEN_USB;
@@ -44,28 +48,80 @@ import static info.martinmarinov.drivers.DvbException.ErrorCode.CANNOT_OPEN_USB;
 /**
  * This is a DvbDevice that can be used for debugging purposes.
  * It takes a file and streams it as if it is a stream coming from a real USB device.
+ *
+ * Once the random access index of the file is loaded, or built in the background if the file
+ * doesn't have one, playback can be moved to any point in time with seekTo.
  */
 public class DvbFileDevice extends DvbDevice {
+    private final static String TAG = DvbFileDevice.class.getSimpleName();
     private final static DvbCapabilities CAPABILITIES = new DvbCapabilities(174000000L, 862000000L, 166667L, SetUtils.setOf(DeliverySystem.values()));
 
     private final Resources resources;
     private final File file;
     private final long freq;
     private final long bandwidth;
+    private final double playbackSpeed;
+
+    private final AtomicBoolean indexing = new AtomicBoolean(); // set from the start of indexing until it fails
 
     private boolean isTuned = false;
+    private volatile TsIndex index;
+    private volatile ThrottledTsSource source;
 
     public DvbFileDevice(Resources resources, File file, long freq, long bandwidth) {
-        super(DvbDemux.DvbDmxSwfilter());
+        this(resources, file, freq, bandwidth, 1.0);
+    }
+
+    /** @param playbackSpeed relative to the broadcast, ThrottledTsSource.UNTHROTTLED for as fast as possible */
+    public DvbFileDevice(Resources resources, File file, long freq, long bandwidth, double playbackSpeed) {
+        super(DvbDemux.DvbDmxSwfilter(new NativePipe()));
         this.resources = resources;
         this.file = file;
         this.freq = freq;
         this.bandwidth = bandwidth;
+        this.playbackSpeed = playbackSpeed;
     }
 
     @Override
     public void open() throws DvbException {
         if (!file.canRead()) throw new DvbException(CANNOT_OPEN_USB, new IOException());
+
+        // one indexing task per device however many times it's opened, a failed one is retried on the next open
+        if (indexing.compareAndSet(false, true)) {
+            Thread indexer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        index = TsIndex.loadOrBuild(file);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Cannot index " + file + ": " + e.getMessage());
+                        indexing.set(false);
+                    }
+                }
+            }, "TsIndex");
+            indexer.setDaemon(true);
+            indexer.start();
+        }
+    }
+
+    /**
+     * Continue playback from the last random access point at or before timeMs into the file.
+     *
+     * @return false if the index isn't ready yet or the stream isn't playing
+     */
+    public boolean seekTo(long timeMs) {
+        TsIndex index = this.index;
+        ThrottledTsSource source = this.source;
+        if (index == null || source == null || index.size() == 0) return false;
+
+        source.requestSeek(index.getOffset(timeMs));
+        return true;
+    }
+
+    /** @return how long the file plays for in ms or -1 if the index isn't ready yet */
+    public long getDurationMs() {
+        TsIndex index = this.index;
+        return index == null ? -1 : index.getDurationMs();
     }
 
     @Override
@@ -106,7 +162,8 @@ public class DvbFileDevice extends DvbDevice {
 
     @Override
     protected ByteSource createTsSource() {
-        return new ThrottledTsSource(file);
+        source = new ThrottledTsSource(file, playbackSpeed);
+        return source;
     }
 
     @Override
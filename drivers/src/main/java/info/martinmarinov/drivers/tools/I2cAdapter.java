@@ -20,6 +20,8 @@
 
 package info.martinmarinov.drivers.tools;
 
+import java.util.Locale;
+
 import info.martinmarinov.drivers.DvbException;
 
 import static info.martinmarinov.drivers.tools.I2cAdapter.I2cMessage.I2C_M_RD;
@@ -27,7 +29,15 @@ import static info.martinmarinov.drivers.tools.I2cAdapter.I2cMessage.I2C_M_TEN;
 
 public abstract class I2cAdapter {
     private final Object lock = new Object();
-    private final static int RETRIES = 10;
+
+    // Each attempt holds the bus on its own, retries back off without blocking other transfers
+    private final RetryPolicy retryPolicy = RetryPolicy.builder("i2c")
+            .maxRetries(9)
+            .backoff(1, 2.0, 20)
+            .jitter(0.5)
+            .deadlineMs(250)
+            .circuitBreaker(5, 5_000)
+            .build();
 
     public void transfer(int addr, int flags, byte[] buf) throws DvbException {
        transfer(addr, flags, buf, buf.length);
@@ -57,18 +67,20 @@ public abstract class I2cAdapter {
         transfer(addr, I2C_M_TEN | I2C_M_RD, buf, count);
     }
 
-    private void transfer(I2cMessage ... messages) throws DvbException {
-        synchronized (lock) {
-            for (int i = 0; i < RETRIES; i++) {
-                try {
-                    if (masterXfer(messages) == messages.length) {
-                        return;
-                    }
-                } catch (DvbException e) {
-                    if (i == RETRIES - 1) throw e;
+    private void transfer(final I2cMessage ... messages) throws DvbException {
+        retryPolicy.run(messages[0], new ThrowingRunnable<DvbException>() {
+            @Override
+            public void run() throws DvbException {
+                synchronized (lock) {
+                    // Only failures are retried, a short count is a deliberately skipped read
+                    masterXfer(messages);
                 }
             }
-        }
+        });
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
     }
 
     protected abstract int masterXfer(I2cMessage[] messages) throws DvbException;
@@ -96,18 +108,45 @@ public abstract class I2cAdapter {
             this.buf = buf;
             this.len = len;
         }
+
+        // Used as the key of retry statistics, the first byte written is usually the register
+        @Override
+        public String toString() {
+            if ((flags & I2C_M_RD) != 0 || len == 0) return String.format(Locale.US, "addr 0x%02x read", addr);
+            return String.format(Locale.US, "addr 0x%02x reg 0x%02x", addr, buf[0] & 0xFF);
+        }
     }
 
+    /**
+     * Opens the demod's I2C repeater so the tuner behind it can be reached. Scopes nest and the
+     * gate is only toggled by the outermost one, so drivers can group a whole tuner sequence
+     * under a single open gate even if the individual tuner operations open it themselves.
+     */
     public static abstract class I2GateControl {
+        private int openScopes = 0;
+        private long toggles = 0;
+
         protected abstract void i2cGateCtrl(boolean enable) throws DvbException;
 
         public synchronized void runInOpenGate(ThrowingRunnable<DvbException> r) throws DvbException {
-            try {
+            if (openScopes == 0) {
+                toggles++;
                 i2cGateCtrl(true);
+            }
+            openScopes++;
+            try {
                 r.run();
             } finally {
-                i2cGateCtrl(false);
+                if (--openScopes == 0) {
+                    toggles++;
+                    i2cGateCtrl(false);
+                }
             }
         }
+
+        /** Number of times the gate was opened or closed so far **/
+        public synchronized long getToggleCount() {
+            return toggles;
+        }
     }
 }
@@ -0,0 +1,212 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package info.martinmarinov.drivers.tools;
+
+import java.util.Arrays;
+
+import info.martinmarinov.drivers.PidFilterStatus;
+
+/**
+ * Decides whether a set of PIDs is filtered by the frontend hardware, so only they go over USB,
+ * or whether the full mux is sent and filtered in software only.
+ *
+ * Hardware filtering is used whenever the PIDs fit in the frontend's slots. Null packets are
+ * dropped first if that makes them fit. PIDs keep their slot while they stay requested, so a
+ * change only rewrites the slots that actually changed.
+ *
+ * It also keeps track of the USB packet rate so it could estimate the bandwidth that hardware
+ * filtering saves, compared to the rate last seen when the full mux was received.
+ */
+public class PidFilterPlanner {
+    public final static int FREE_SLOT = -1;
+
+    private final static int NULL_PID = 0x1FFF;
+    private final static int PACKET_SIZE = 188;
+    private final static long MIN_SAMPLE_MS = 500;
+
+    private final int[] slots;
+
+    private boolean synced = false; // whether the hardware is known to match the state here
+    private boolean slotsSynced = false; // same for the slots alone, they are kept while the full mux is let through
+    private boolean hardwareFiltering = false;
+    private long slotWrites = 0;
+    private long failedWrites = 0;
+
+    private long sampleStartPackets = -1;
+    private long sampleStartMs;
+    private long packetsPerSecond;
+    private long fullMuxPacketsPerSecond;
+
+    public PidFilterPlanner(int hardwareSlots) {
+        if (hardwareSlots < 0 || hardwareSlots > 64) throw new IllegalArgumentException("Unsupported number of slots "+hardwareSlots);
+        this.slots = new int[hardwareSlots];
+        Arrays.fill(slots, FREE_SLOT);
+    }
+
+    public static class Plan {
+        private final boolean hardware;
+        private final boolean modeChanged;
+        private final int[] slots;
+        private final long changedSlots;
+
+        private Plan(boolean hardware, boolean modeChanged, int[] slots, long changedSlots) {
+            this.hardware = hardware;
+            this.modeChanged = modeChanged;
+            this.slots = slots;
+            this.changedSlots = changedSlots;
+        }
+
+        public boolean isHardware() {
+            return hardware;
+        }
+
+        /** PID of each hardware slot or FREE_SLOT **/
+        public int[] getSlots() {
+            return slots;
+        }
+
+        /** Bit i is set if slot i needs to be written **/
+        public long getChangedSlots() {
+            return changedSlots;
+        }
+
+        public boolean needsWrite() {
+            return modeChanged || (hardware && changedSlots != 0);
+        }
+    }
+
+    public synchronized Plan plan(int... pids) {
+        if (slots.length == 0) return fullMux();
+        int[] wanted = normalize(pids);
+        if (wanted == null) return fullMux();
+
+        long changed = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != FREE_SLOT && Arrays.binarySearch(wanted, slots[i]) < 0) {
+                slots[i] = FREE_SLOT;
+                changed |= 1L << i;
+            }
+        }
+        for (int pid : wanted) {
+            if (indexOf(pid) >= 0) continue;
+            int free = indexOf(FREE_SLOT);
+            slots[free] = pid;
+            changed |= 1L << free;
+        }
+
+        boolean modeChanged = !synced || !hardwareFiltering;
+        if (!synced || !slotsSynced) changed = slots.length == 64 ? -1L : (1L << slots.length) - 1;
+        setMode(true);
+        slotsSynced = true;
+        slotWrites += Long.bitCount(changed);
+        return new Plan(true, modeChanged, slots.clone(), changed);
+    }
+
+    public synchronized Plan fullMux() {
+        boolean modeChanged = !synced || hardwareFiltering;
+        setMode(false);
+        return new Plan(false, modeChanged, slots.clone(), 0);
+    }
+
+    /** Call if the hardware may have lost its state **/
+    public synchronized void invalidate() {
+        synced = false;
+        slotsSynced = false;
+    }
+
+    /**
+     * Call if writing a plan to the hardware failed.
+     *
+     * @return the plan that lets the full mux through instead, filtering is then left to software
+     */
+    public synchronized Plan writeFailed() {
+        failedWrites++;
+        invalidate();
+        return fullMux();
+    }
+
+    /** @param receivedPackets total number of packets received over USB so far */
+    public synchronized void sampleReceivedPackets(long receivedPackets, long nowMs) {
+        if (sampleStartPackets < 0 || receivedPackets < sampleStartPackets) {
+            restartSample(receivedPackets, nowMs);
+            return;
+        }
+
+        long elapsedMs = nowMs - sampleStartMs;
+        if (elapsedMs < MIN_SAMPLE_MS) return;
+
+        packetsPerSecond = (receivedPackets - sampleStartPackets) * 1000L / elapsedMs;
+        if (!hardwareFiltering) fullMuxPacketsPerSecond = packetsPerSecond;
+        restartSample(receivedPackets, nowMs);
+    }
+
+    public synchronized PidFilterStatus getStatus() {
+        int inUse = 0;
+        for (int slot : slots) if (slot != FREE_SLOT) inUse++;
+        return new PidFilterStatus(hardwareFiltering, slots.length, hardwareFiltering ? inUse : 0, slotWrites,
+                packetsPerSecond * PACKET_SIZE, fullMuxPacketsPerSecond * PACKET_SIZE, failedWrites);
+    }
+
+    private void setMode(boolean hardware) {
+        if (hardware != hardwareFiltering) {
+            // the rate measured so far was for the other mode
+            sampleStartPackets = -1;
+        }
+        hardwareFiltering = hardware;
+        synced = true;
+    }
+
+    private void restartSample(long receivedPackets, long nowMs) {
+        sampleStartPackets = receivedPackets;
+        sampleStartMs = nowMs;
+    }
+
+    private int indexOf(int pid) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] == pid) return i;
+        }
+        return -1;
+    }
+
+    // Sorted unique PIDs that should go in the hardware slots, or null if they can't fit
+    private int[] normalize(int[] pids) {
+        int[] sorted = pids.clone();
+        Arrays.sort(sorted);
+
+        int unique = 0;
+        boolean hasNullPid = false;
+        for (int i = 0; i < sorted.length; i++) {
+            int pid = sorted[i];
+            // anything outside of the PID range, eg. 0x2000, means the full mux
+            if (pid < 0 || pid > NULL_PID) return null;
+            if (unique > 0 && sorted[unique - 1] == pid) continue;
+            if (pid == NULL_PID) hasNullPid = true;
+            sorted[unique++] = pid;
+        }
+
+        // Null packets are only padding, no point sending the full mux for them
+        if (unique > slots.length && hasNullPid) unique--;
+
+        if (unique > slots.length) return null;
+        return Arrays.copyOf(sorted, unique);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package info.martinmarinov.drivers.tools;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries an operation with exponential back off and jitter, within an overall deadline.
+ *
+ * A policy instance is the retry budget of one kind of operation (eg. tuning or reading the SNR)
+ * and it keeps statistics about it. It also acts as a circuit breaker: after a number of calls
+ * in a row that failed even after retrying, the circuit opens and for a while calls only get a
+ * single attempt, so a dead register can't stall the control plane on every poll.
+ * A successful call closes it again.
+ */
+public class RetryPolicy {
+    private final static Random RANDOM = new Random();
+
+    private final String name;
+    private final int maxRetries;
+    private final long initialDelayMs;
+    private final double multiplier;
+    private final long maxDelayMs;
+    private final double jitter;
+    private final long deadlineMs;
+    private final int breakerThreshold;
+    private final long breakerOpenMs;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong circuitTrips = new AtomicLong();
+    private final ConcurrentHashMap<String, AtomicLong> retriesPerOperation = new ConcurrentHashMap<>();
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long circuitOpenUntilNanos;
+
+    private RetryPolicy(Builder builder) {
+        this.name = builder.name;
+        this.maxRetries = builder.maxRetries;
+        this.initialDelayMs = builder.initialDelayMs;
+        this.multiplier = builder.multiplier;
+        this.maxDelayMs = builder.maxDelayMs;
+        this.jitter = builder.jitter;
+        this.deadlineMs = builder.deadlineMs;
+        this.breakerThreshold = builder.breakerThreshold;
+        this.breakerOpenMs = builder.breakerOpenMs;
+    }
+
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    public <T extends Throwable> void run(Object operation, final ThrowingRunnable<T> throwingRunnable) throws T {
+        call(operation, new ThrowingCallable<Void, T>() {
+            @Override
+            public Void call() throws T {
+                throwingRunnable.run();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @param operation identifies what is being retried in the statistics, its toString()
+     *                  is only evaluated when a retry happens
+     */
+    public <R, T extends Throwable> R call(Object operation, ThrowingCallable<R, T> throwingCallable) throws T {
+        calls.incrementAndGet();
+        long start = System.nanoTime();
+        int retriesLeft = isCircuitOpen() ? 0 : maxRetries;
+        double delayMs = initialDelayMs;
+
+        while (true) {
+            try {
+                R result = throwingCallable.call();
+                consecutiveFailures.set(0);
+                circuitOpenUntilNanos = 0;
+                return result;
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                long sleepMs = jitter(Math.min((long) delayMs, maxDelayMs));
+                long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+                if (retriesLeft-- <= 0 || elapsedMs + sleepMs > deadlineMs) {
+                    onFailure();
+                    throw e;
+                }
+
+                countRetry(operation);
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    onFailure();
+                    throw e;
+                }
+                delayMs *= multiplier;
+            }
+        }
+    }
+
+    public boolean isCircuitOpen() {
+        return circuitOpenUntilNanos != 0 && System.nanoTime() - circuitOpenUntilNanos < 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /** Calls that failed after all retries were exhausted **/
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getCircuitTrips() {
+        return circuitTrips.get();
+    }
+
+    public Map<String, Long> getRetriesPerOperation() {
+        Map<String, Long> result = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : retriesPerOperation.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": calls " + calls + ", retries " + retries + ", failures " + failures +
+                ", circuit trips " + circuitTrips + ", retries per operation " + getRetriesPerOperation();
+    }
+
+    private long jitter(long delayMs) {
+        if (jitter <= 0) return delayMs;
+        double factor = 1.0 - jitter + 2.0 * jitter * RANDOM.nextDouble();
+        return Math.round(delayMs * factor);
+    }
+
+    private void countRetry(Object operation) {
+        retries.incrementAndGet();
+        String key = operation == null ? name : operation.toString();
+        AtomicLong counter = retriesPerOperation.get(key);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = retriesPerOperation.putIfAbsent(key, newCounter);
+            if (counter == null) counter = newCounter;
+        }
+        counter.incrementAndGet();
+    }
+
+    private void onFailure() {
+        failures.incrementAndGet();
+        if (breakerThreshold > 0 && consecutiveFailures.incrementAndGet() >= breakerThreshold) {
+            consecutiveFailures.set(0);
+            circuitOpenUntilNanos = System.nanoTime() + breakerOpenMs * 1_000_000L;
+            circuitTrips.incrementAndGet();
+        }
+    }
+
+    public static class Builder {
+        private final String name;
+        private int maxRetries = 4;
+        private long initialDelayMs = 100;
+        private double multiplier = 3.0;
+        private long maxDelayMs = Long.MAX_VALUE;
+        private double jitter = 0.0;
+        private long deadlineMs = Long.MAX_VALUE;
+        private int breakerThreshold = 0;
+        private long breakerOpenMs = 0;
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /** Delay before the first retry, multiplied on each following one up to maxDelayMs **/
+        public Builder backoff(long initialDelayMs, double multiplier, long maxDelayMs) {
+            this.initialDelayMs = initialDelayMs;
+            this.multiplier = multiplier;
+            this.maxDelayMs = maxDelayMs;
+            return this;
+        }
+
+        /** Randomizes each delay by +/- the given fraction so retrying clients don't synchronize **/
+        public Builder jitter(double jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        /** No retry is started that would end after this many ms since the first attempt **/
+        public Builder deadlineMs(long deadlineMs) {
+            this.deadlineMs = deadlineMs;
+            return this;
+        }
+
+        /** After threshold failed calls in a row, calls don't retry for openMs **/
+        public Builder circuitBreaker(int threshold, long openMs) {
+            this.breakerThreshold = threshold;
+            this.breakerOpenMs = openMs;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
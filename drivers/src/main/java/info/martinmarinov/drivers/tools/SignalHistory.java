@@ -0,0 +1,222 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package info.martinmarinov.drivers.tools;
+
+import java.util.Set;
+
+import info.martinmarinov.drivers.DvbStatus;
+
+/**
+ * Fixed memory time series of the signal quality readings of a device.
+ *
+ * Every sample is folded into three tiers of min/max/avg buckets - one second, one minute
+ * and one hour wide. Each tier is a ring buffer with a fixed number of buckets, so the memory
+ * footprint is the same after a minute or after a month of uptime.
+ *
+ * A window of buckets can be exported as longs, LONGS_PER_BUCKET values per bucket:
+ *
+ * long 0: bucket start time in ms since epoch
+ * long 1: sample count (bits 48-63), SNR min, avg, max (bits 32-47, 16-31, 0-15)
+ * long 2: samples with FE_HAS_LOCK (bits 48-63), BER avg (bits 0-31)
+ * long 3: DvbStatus bits seen in any sample (bits 48-63), RF strength min, avg, max
+ * long 4: DvbStatus bits seen in all samples (bits 48-63), dropped USB fps min, avg, max
+ * long 5: BER min (bits 32-63), BER max (bits 0-31)
+ *
+ * All 16 bit values are unsigned and clamped to 0xFFFF. BER can exceed that so it gets 32 bits.
+ * DvbStatus bits are 1 << DvbStatus.ordinal()
+ */
+public class SignalHistory {
+    public final static int TIER_SECONDS = 0;
+    public final static int TIER_MINUTES = 1;
+    public final static int TIER_HOURS = 2;
+
+    public final static int LONGS_PER_BUCKET = 6;
+
+    private final static long[] TIER_RESOLUTION_MS = { 1_000L, 60_000L, 3_600_000L };
+    private final static int[] TIER_CAPACITY = {
+            3_600, // one hour of seconds
+            1_440, // one day of minutes
+            720    // 30 days of hours
+    };
+
+    private final static int SNR = 0;
+    private final static int BER = 1;
+    private final static int STRENGTH = 2;
+    private final static int DROPPED_FPS = 3;
+    private final static int METRICS = 4;
+
+    private final static int LOCK_BIT = 1 << DvbStatus.FE_HAS_LOCK.ordinal();
+
+    private final Tier[] tiers = new Tier[TIER_CAPACITY.length];
+
+    public SignalHistory() {
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i] = new Tier(TIER_RESOLUTION_MS[i], TIER_CAPACITY[i]);
+        }
+    }
+
+    public static int statusBits(Set<DvbStatus> status) {
+        int bits = 0;
+        for (DvbStatus s : status) bits |= 1 << s.ordinal();
+        return bits;
+    }
+
+    public static long getResolutionMs(int tier) {
+        return TIER_RESOLUTION_MS[tier];
+    }
+
+    public static int getTierCount() {
+        return TIER_RESOLUTION_MS.length;
+    }
+
+    public synchronized void record(long timeMs, int snr, int ber, int rfStrength, int droppedFps, int statusBits) {
+        for (Tier tier : tiers) {
+            tier.record(timeMs, snr, ber, rfStrength, droppedFps, statusBits);
+        }
+    }
+
+    /**
+     * Export buckets of a tier in the format described in the class documentation.
+     * @param tier one of the TIER_ constants
+     * @param fromMs only buckets that end after this time are exported
+     * @param out destination, needs to have space for maxBuckets * LONGS_PER_BUCKET longs after offset
+     * @param offset position in out to start writing to
+     * @param maxBuckets maximum number of buckets to export
+     * @return the number of buckets written, oldest first
+     */
+    public synchronized int read(int tier, long fromMs, long[] out, int offset, int maxBuckets) {
+        return tiers[tier].read(fromMs, out, offset, maxBuckets);
+    }
+
+    public synchronized void clear() {
+        for (Tier tier : tiers) tier.size = 0;
+    }
+
+    private static class Tier {
+        private final long resolutionMs;
+        private final int capacity;
+
+        private final long[] start;
+        private final int[] count;
+        private final int[] lockedCount;
+        private final int[] statusOr;
+        private final int[] statusAnd;
+        private final int[][] min;
+        private final int[][] max;
+        private final long[][] sum;
+
+        private int head = -1;
+        private int size = 0;
+
+        private Tier(long resolutionMs, int capacity) {
+            this.resolutionMs = resolutionMs;
+            this.capacity = capacity;
+            this.start = new long[capacity];
+            this.count = new int[capacity];
+            this.lockedCount = new int[capacity];
+            this.statusOr = new int[capacity];
+            this.statusAnd = new int[capacity];
+            this.min = new int[METRICS][capacity];
+            this.max = new int[METRICS][capacity];
+            this.sum = new long[METRICS][capacity];
+        }
+
+        private void record(long timeMs, int snr, int ber, int rfStrength, int droppedFps, int statusBits) {
+            long bucketStart = timeMs - (timeMs % resolutionMs);
+
+            // If the clock goes backwards keep accumulating into the newest bucket
+            if (size == 0 || bucketStart > start[head]) {
+                head = (head + 1) % capacity;
+                if (size < capacity) size++;
+
+                start[head] = bucketStart;
+                count[head] = 0;
+                lockedCount[head] = 0;
+                statusOr[head] = 0;
+                statusAnd[head] = statusBits;
+                for (int m = 0; m < METRICS; m++) {
+                    min[m][head] = Integer.MAX_VALUE;
+                    max[m][head] = Integer.MIN_VALUE;
+                    sum[m][head] = 0;
+                }
+            }
+
+            count[head]++;
+            if ((statusBits & LOCK_BIT) != 0) lockedCount[head]++;
+            statusOr[head] |= statusBits;
+            statusAnd[head] &= statusBits;
+            accumulate(SNR, snr);
+            accumulate(BER, ber);
+            accumulate(STRENGTH, rfStrength);
+            accumulate(DROPPED_FPS, droppedFps);
+        }
+
+        private void accumulate(int metric, int value) {
+            if (value < min[metric][head]) min[metric][head] = value;
+            if (value > max[metric][head]) max[metric][head] = value;
+            sum[metric][head] += value;
+        }
+
+        private int read(long fromMs, long[] out, int offset, int maxBuckets) {
+            int written = 0;
+            for (int i = 0; i < size && written < maxBuckets; i++) {
+                // iterate from oldest to newest
+                int slot = (head - size + 1 + i + capacity) % capacity;
+                if (start[slot] + resolutionMs <= fromMs) continue;
+
+                int n = count[slot];
+                int p = offset + written * LONGS_PER_BUCKET;
+                out[p] = start[slot];
+                out[p + 1] = pack(n, SNR, slot);
+                out[p + 2] = (u16(lockedCount[slot]) << 48) | u32(avg(BER, slot));
+                out[p + 3] = pack(statusOr[slot], STRENGTH, slot);
+                out[p + 4] = pack(statusAnd[slot], DROPPED_FPS, slot);
+                out[p + 5] = (u32(min[BER][slot]) << 32) | u32(max[BER][slot]);
+                written++;
+            }
+            return written;
+        }
+
+        private long pack(int extra, int metric, int slot) {
+            return (u16(extra) << 48) |
+                    (u16(min[metric][slot]) << 32) |
+                    (u16(avg(metric, slot)) << 16) |
+                    u16(max[metric][slot]);
+        }
+
+        private long avg(int metric, int slot) {
+            return sum[metric][slot] / count[slot];
+        }
+
+        private static long u16(long val) {
+            if (val < 0) return 0;
+            if (val > 0xFFFF) return 0xFFFF;
+            return val;
+        }
+
+        private static long u32(long val) {
+            if (val < 0) return 0;
+            if (val > 0xFFFFFFFFL) return 0xFFFFFFFFL;
+            return val;
+        }
+    }
+}
@@ -22,12 +22,11 @@ package info.martinmarinov.drivers.tools.io;
 
 import android.os.ParcelFileDescriptor;
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
-public class NativePipe implements Closeable {
+public class NativePipe implements TsPipe {
     private final InputStream inputStream;
     private final OutputStream outputStream;
 
@@ -61,10 +60,12 @@ public class NativePipe implements Closeable {
         }
     }
 
+    @Override
     public InputStream getInputStream() {
         return inputStream;
     }
 
+    @Override
     public OutputStream getOutputStream() {
         return outputStream;
     }
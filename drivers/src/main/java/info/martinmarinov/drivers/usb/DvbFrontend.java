@@ -29,6 +29,13 @@ import info.martinmarinov.drivers.DvbCapabilities;
 import info.martinmarinov.drivers.DvbException;
 import info.martinmarinov.drivers.DvbStatus;
 
+/**
+ * Locking: {@link DvbUsbDevice} serializes all calls through a {@link info.martinmarinov.drivers.tools.FrontendLock}
+ * so implementations never see a status read concurrently with {@link #setParams}. Status reads
+ * may instead be answered from the last known value while a tune is in progress.
+ * Implementations still synchronize on themselves to protect their own state from tuner callbacks
+ * and the I2C gate.
+ */
 public interface DvbFrontend {
     // TODO these capabilities contain frequency min and max which is actually determined by tuner
     DvbCapabilities getCapabilities();
@@ -44,6 +51,11 @@ public interface DvbFrontend {
     int readRfStrengthPercentage() throws DvbException;
     int readBer() throws DvbException;
     Set<DvbStatus> getStatus() throws DvbException;
-    void setPids(int ... pids) throws DvbException;
+
+    // Number of PIDs the hardware can filter, 0 if it can't filter at all
+    int getPidFilterSlots();
+    // slotPids has a PID or PidFilterPlanner.FREE_SLOT for each slot, only the slots whose bit is set
+    // in changedSlots need to be rewritten. Enables the filter if it was disabled.
+    void setPidFilterSlots(int[] slotPids, long changedSlots) throws DvbException;
     void disablePidFilter() throws DvbException;
 }
@@ -29,6 +29,8 @@ import androidx.annotation.NonNull;
 import android.util.Log;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 import info.martinmarinov.drivers.DeliverySystem;
@@ -38,8 +40,13 @@ import info.martinmarinov.drivers.DvbDemux;
 import info.martinmarinov.drivers.DvbDevice;
 import info.martinmarinov.drivers.DvbException;
 import info.martinmarinov.drivers.DvbStatus;
+import info.martinmarinov.drivers.PidFilterStatus;
 import info.martinmarinov.drivers.R;
 import info.martinmarinov.drivers.tools.Check;
+import info.martinmarinov.drivers.tools.FrontendLock;
+import info.martinmarinov.drivers.tools.I2cAdapter;
+import info.martinmarinov.drivers.tools.PidFilterPlanner;
+import info.martinmarinov.drivers.tools.RetryPolicy;
 import info.martinmarinov.drivers.tools.ThrowingCallable;
 import info.martinmarinov.drivers.tools.ThrowingRunnable;
 import info.martinmarinov.drivers.tools.UsbPermissionObtainer;
@@ -51,10 +58,8 @@ import info.martinmarinov.usbxfer.UsbHiSpeedBulk;
 import static info.martinmarinov.drivers.DvbException.ErrorCode.BAD_API_USAGE;
 import static info.martinmarinov.drivers.DvbException.ErrorCode.UNSUPPORTED_PLATFORM;
 import static info.martinmarinov.drivers.DvbException.ErrorCode.USB_PERMISSION_DENIED;
-import static info.martinmarinov.drivers.tools.Retry.retry;
 
 public abstract class DvbUsbDevice extends DvbDevice {
-    private final static int RETRIES = 4;
 
     public interface Creator {
         /**
@@ -79,8 +84,35 @@ public abstract class DvbUsbDevice extends DvbDevice {
     protected DvbFrontend frontend;
     protected DvbTuner tuner;
     protected UsbDeviceConnection usbDeviceConnection;
+    protected UsbControlEngine controlEngine;
     private AlternateUsbInterface usbInterface;
     private DvbCapabilities capabilities;
+    private PidFilterPlanner pidFilterPlanner;
+    private volatile int[] filterPids = null; // last PIDs asked for, null for the full mux
+
+    // Opening may include firmware upload so it gets a generous budget
+    private final RetryPolicy openPolicy = RetryPolicy.builder("open")
+            .maxRetries(4)
+            .backoff(100, 3.0, 2_000)
+            .jitter(0.2)
+            .deadlineMs(30_000)
+            .build();
+    private final RetryPolicy tunePolicy = RetryPolicy.builder("tune")
+            .maxRetries(4)
+            .backoff(100, 3.0, 1_000)
+            .jitter(0.2)
+            .deadlineMs(3_000)
+            .build();
+    private final RetryPolicy snrPolicy = statusPolicy("snr");
+    private final RetryPolicy rfStrengthPolicy = statusPolicy("rf strength");
+    private final RetryPolicy berPolicy = statusPolicy("ber");
+    private final RetryPolicy statusPolicy = statusPolicy("status");
+
+    private final FrontendLock frontendLock = new FrontendLock();
+    private final FrontendLock.LastValue<Integer> lastSnr = new FrontendLock.LastValue<>();
+    private final FrontendLock.LastValue<Integer> lastRfStrength = new FrontendLock.LastValue<>();
+    private final FrontendLock.LastValue<Integer> lastBer = new FrontendLock.LastValue<>();
+    private final FrontendLock.LastValue<Set<DvbStatus>> lastStatus = new FrontendLock.LastValue<>();
 
     protected DvbUsbDevice(UsbDevice usbDevice, Context context, DeviceFilter deviceFilter, DvbDemux dvbDemux) throws DvbException {
         super(dvbDemux);
@@ -97,9 +129,10 @@ public abstract class DvbUsbDevice extends DvbDevice {
             usbDeviceConnection = UsbPermissionObtainer.obtainFdFor(context, usbDevice).get();
             if (usbDeviceConnection == null)
                 throw new DvbException(USB_PERMISSION_DENIED, resources.getString(R.string.cannot_open_usb_connection));
+            controlEngine = new UsbControlEngine(usbDeviceConnection, resources);
             usbInterface = getUsbInterface();
 
-            retry(RETRIES, new ThrowingRunnable<DvbException>() {
+            openPolicy.run(null, new ThrowingRunnable<DvbException>() {
                 @Override
                 public void run() throws DvbException {
                     powerControl(true);
@@ -108,10 +141,15 @@ public abstract class DvbUsbDevice extends DvbDevice {
                     frontend = frontendAttatch();
                     capabilities = frontend.getCapabilities();
                     frontend.attatch();
+                    pidFilterPlanner = new PidFilterPlanner(frontend.getPidFilterSlots());
                     tuner = tunerAttatch();
-                    tuner.attatch();
-
-                    frontend.init(tuner);
+                    runInTunerGateScope(new ThrowingRunnable<DvbException>() {
+                        @Override
+                        public void run() throws DvbException {
+                            tuner.attatch();
+                            frontend.init(tuner);
+                        }
+                    });
                     init();
                 }
             });
@@ -126,6 +164,7 @@ public abstract class DvbUsbDevice extends DvbDevice {
     public final void close() throws IOException {
         super.close();
         if (usbDeviceConnection != null) {
+            for (RetryPolicy retryPolicy : getRetryPolicies()) Log.d(TAG, retryPolicy.toString());
             if (frontend != null) frontend.release();
             if (tuner != null) tuner.release();
 
@@ -135,6 +174,10 @@ public abstract class DvbUsbDevice extends DvbDevice {
                 e.printStackTrace();
             }
 
+            if (controlEngine != null) {
+                controlEngine.close();
+                Log.d(TAG, controlEngine.toString());
+            }
             usbDeviceConnection.close();
         }
         Log.d(TAG, "closed");
@@ -151,15 +194,83 @@ public abstract class DvbUsbDevice extends DvbDevice {
     }
 
     @Override
-    public void setPidFilter(int... pids) throws DvbException {
-        super.setPidFilter(pids);
-        frontend.setPids(pids);
+    protected void applyPidFilter(final int... pids) throws DvbException {
+        super.applyPidFilter(pids);
+        filterPids = pids.clone();
+        applyHardwarePidFilter();
+    }
+
+    @Override
+    protected void applyPidFilterDisabled() throws DvbException {
+        super.applyPidFilterDisabled();
+        filterPids = null;
+        applyHardwarePidFilter();
+    }
+
+    @Override
+    protected void applyRecordingFilter(boolean recording) throws DvbException {
+        // writeHardwarePidFilter picks the full mux while recording
+        applyHardwarePidFilter();
+    }
+
+    /**
+     * Brings the hardware PID filter in line with the current request. The plan is made and written
+     * under the frontend lock so concurrent updates can't reorder planner state and register writes.
+     * While a tune is running this returns straight away and the filter is written once it is done.
+     */
+    private void applyHardwarePidFilter() throws DvbException {
+        Check.notNull(pidFilterPlanner, "Frontend not initialized");
+        frontendLock.streamControl(new ThrowingRunnable<DvbException>() {
+            @Override
+            public void run() throws DvbException {
+                writeHardwarePidFilter();
+            }
+        });
+    }
+
+    /** Must be called with the frontend lock held */
+    private void writeHardwarePidFilter() throws DvbException {
+        samplePidFilterBandwidth();
+        int[] pids = filterPids;
+        PidFilterPlanner.Plan plan;
+        if (pids == null || getRecording() != null) {
+            plan = pidFilterPlanner.fullMux();
+        } else {
+            plan = pidFilterPlanner.plan(pids);
+            if (!plan.isHardware()) Log.d(TAG, "Falling back to software filtering for "+pids.length+" PIDs");
+        }
+        if (!plan.needsWrite()) return;
+
+        try {
+            if (plan.isHardware()) {
+                frontend.setPidFilterSlots(plan.getSlots(), plan.getChangedSlots());
+            } else {
+                frontend.disablePidFilter();
+            }
+        } catch (DvbException e) {
+            // The demux filters in software anyway, so letting the full mux through keeps the
+            // output right. This may run deferred after a tune, with nobody to report the error to.
+            Log.w(TAG, "Writing the PID filter failed, letting the full mux through", e);
+            pidFilterPlanner.writeFailed();
+            try {
+                frontend.disablePidFilter();
+            } catch (DvbException fallbackException) {
+                // the hardware could be in any state now, rewrite it all next time
+                pidFilterPlanner.invalidate();
+                throw fallbackException;
+            }
+        }
     }
 
     @Override
-    public void disablePidFilter() throws DvbException {
-        super.disablePidFilter();
-        frontend.disablePidFilter();
+    public PidFilterStatus readPidFilterStatus() throws DvbException {
+        Check.notNull(pidFilterPlanner, "Frontend not initialized");
+        samplePidFilterBandwidth();
+        return pidFilterPlanner.getStatus();
+    }
+
+    private void samplePidFilterBandwidth() {
+        pidFilterPlanner.sampleReceivedPackets(readReceivedPackets(), System.currentTimeMillis());
     }
 
     @Override
@@ -171,18 +282,64 @@ public abstract class DvbUsbDevice extends DvbDevice {
     @Override
     protected void tuneTo(final long freqHz, final long bandwidthHz, @NonNull final DeliverySystem deliverySystem) throws DvbException {
         Check.notNull(frontend, "Frontend not initialized");
-        retry(RETRIES, new ThrowingRunnable<DvbException>() {
+        final I2cAdapter.I2GateControl gate = getBatchedI2GateControl();
+        final long togglesBefore = gate == null ? 0 : gate.getToggleCount();
+
+        frontendLock.tune(new ThrowingRunnable<DvbException>() {
             @Override
             public void run() throws DvbException {
-                frontend.setParams(freqHz, bandwidthHz, deliverySystem);
+                try {
+                    tunePolicy.run(freqHz, new ThrowingRunnable<DvbException>() {
+                        @Override
+                        public void run() throws DvbException {
+                            runInTunerGateScope(new ThrowingRunnable<DvbException>() {
+                                @Override
+                                public void run() throws DvbException {
+                                    frontend.setParams(freqHz, bandwidthHz, deliverySystem);
+                                }
+                            });
+                        }
+                    });
+                } finally {
+                    // eg. RTL2832 with a slave demod switches to a different set of PID registers,
+                    // a PID filter update deferred until after the tune has to rewrite them all
+                    pidFilterPlanner.invalidate();
+                }
             }
         });
+
+        Throwable pidFilterFailure = frontendLock.takeDeferredFailure();
+        if (pidFilterFailure != null) Log.w(TAG, "Applying the PID filter after tuning failed", pidFilterFailure);
+
+        if (gate != null) Log.d(TAG, "Tuning to "+freqHz+" Hz toggled the I2C gate "+(gate.getToggleCount() - togglesBefore)+" times");
+    }
+
+    /**
+     * Safe to call with the frontend lock held: the gate is always taken after the frontend lock
+     * and before the frontend's own monitor.
+     */
+    private void runInTunerGateScope(ThrowingRunnable<DvbException> r) throws DvbException {
+        I2cAdapter.I2GateControl gate = getBatchedI2GateControl();
+        if (gate == null) {
+            r.run();
+        } else {
+            gate.runInOpenGate(r);
+        }
+    }
+
+    @Override
+    public boolean isTuneInProgress() {
+        return frontendLock.isTuneInProgress();
+    }
+
+    @Override
+    public boolean takeStaleStatusReads() {
+        return frontendLock.takeServedLastValue();
     }
 
     @Override
     public int readSnr() throws DvbException {
-        Check.notNull(frontend, "Frontend not initialized");
-        return retry(RETRIES, new ThrowingCallable<Integer, DvbException>() {
+        return readStatus(snrPolicy, lastSnr, new ThrowingCallable<Integer, DvbException>() {
             @Override
             public Integer call() throws DvbException {
                 return frontend.readSnr();
@@ -192,8 +349,7 @@ public abstract class DvbUsbDevice extends DvbDevice {
 
     @Override
     public int readRfStrengthPercentage() throws DvbException {
-        Check.notNull(frontend, "Frontend not initialized");
-        return retry(RETRIES, new ThrowingCallable<Integer, DvbException>() {
+        return readStatus(rfStrengthPolicy, lastRfStrength, new ThrowingCallable<Integer, DvbException>() {
             @Override
             public Integer call() throws DvbException {
                 return frontend.readRfStrengthPercentage();
@@ -203,8 +359,7 @@ public abstract class DvbUsbDevice extends DvbDevice {
 
     @Override
     public int readBitErrorRate() throws DvbException {
-        Check.notNull(frontend, "Frontend not initialized");
-        return retry(RETRIES, new ThrowingCallable<Integer, DvbException>() {
+        return readStatus(berPolicy, lastBer, new ThrowingCallable<Integer, DvbException>() {
             @Override
             public Integer call() throws DvbException {
                 return frontend.readBer();
@@ -214,8 +369,7 @@ public abstract class DvbUsbDevice extends DvbDevice {
 
     @Override
     public Set<DvbStatus> getStatus() throws DvbException {
-        Check.notNull(frontend, "Frontend not initialized");
-        return retry(RETRIES, new ThrowingCallable<Set<DvbStatus>, DvbException>() {
+        return readStatus(statusPolicy, lastStatus, new ThrowingCallable<Set<DvbStatus>, DvbException>() {
             @Override
             public Set<DvbStatus> call() throws DvbException {
                 return frontend.getStatus();
@@ -223,6 +377,33 @@ public abstract class DvbUsbDevice extends DvbDevice {
         });
     }
 
+    // Every attempt takes the frontend lock on its own so a tune can get in between retries
+    private <R> R readStatus(RetryPolicy retryPolicy, final FrontendLock.LastValue<R> lastValue, final ThrowingCallable<R, DvbException> reader) throws DvbException {
+        Check.notNull(frontend, "Frontend not initialized");
+        return retryPolicy.call(null, new ThrowingCallable<R, DvbException>() {
+            @Override
+            public R call() throws DvbException {
+                return frontendLock.read(lastValue, reader);
+            }
+        });
+    }
+
+    // Status is polled every second, don't let a flaky read hold up the next poll
+    private static RetryPolicy statusPolicy(String name) {
+        return RetryPolicy.builder(name)
+                .maxRetries(2)
+                .backoff(20, 3.0, 100)
+                .jitter(0.2)
+                .deadlineMs(300)
+                .circuitBreaker(3, 10_000)
+                .build();
+    }
+
+    @Override
+    public List<RetryPolicy> getRetryPolicies() {
+        return Arrays.asList(openPolicy, tunePolicy, snrPolicy, rfStrengthPolicy, berPolicy, statusPolicy, getI2cAdapter().getRetryPolicy());
+    }
+
     protected int getNumRequests() {
         return 40;
     }
@@ -246,6 +427,13 @@ public abstract class DvbUsbDevice extends DvbDevice {
 
     protected abstract DvbFrontend frontendAttatch() throws DvbException;
     protected abstract DvbTuner tunerAttatch() throws DvbException;
+    protected abstract I2cAdapter getI2cAdapter();
+
+    // Drivers whose demod keeps working with the tuner I2C gate open can return it here so whole
+    // tune and init sequences open it only once, rather than on every tuner operation
+    protected I2cAdapter.I2GateControl getBatchedI2GateControl() {
+        return null;
+    }
 
     protected abstract void init() throws DvbException;
     protected abstract AlternateUsbInterface getUsbInterface();
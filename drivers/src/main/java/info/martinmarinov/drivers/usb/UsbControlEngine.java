@@ -0,0 +1,253 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package info.martinmarinov.drivers.usb;
+
+import android.content.res.Resources;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import info.martinmarinov.drivers.DvbException;
+import info.martinmarinov.drivers.R;
+import info.martinmarinov.drivers.tools.ThrowingCallable;
+
+import static info.martinmarinov.drivers.DvbException.ErrorCode.HARDWARE_EXCEPTION;
+import static info.martinmarinov.drivers.DvbException.ErrorCode.IO_EXCEPTION;
+
+/**
+ * Executes the control traffic of a device.
+ *
+ * Blocking commands ({@link #call}, {@link #controlTransfer}, {@link #bulkWriteRead}) run straight
+ * on the caller's thread, there is no point in a thread hop when the caller waits for the answer.
+ * Commands that don't need an answer before the next one (eg. firmware download packets) can be
+ * pipelined with {@link #submit} and {@link #submitBulkWriteRead}: they are executed one at a time
+ * on a dedicated thread, in the order they were submitted, and a blocking command issued while
+ * some are still queued waits for its turn behind them.
+ *
+ * Android's UsbRequest queue isn't used: requestWait reaps any URB on the device file descriptor,
+ * including the streaming ones that the native bulk source submits and reaps itself.
+ *
+ * The latency of each command, from submission to completion, is recorded per command id.
+ */
+public class UsbControlEngine implements Closeable {
+    private final static int TIMEOUT_MS = 5_000;
+
+    private final UsbDeviceConnection usbDeviceConnection;
+    private final Resources resources;
+    private final ThreadPoolExecutor executor;
+
+    // held while a command talks to the device, so only one does at a time
+    private final Object transferLock = new Object();
+    private final AtomicInteger queued = new AtomicInteger();
+    private boolean closed = false; // guarded by transferLock
+
+    // command id -> {count, total nanos, max nanos}
+    private final Map<Integer, long[]> latencies = new HashMap<>();
+
+    public UsbControlEngine(UsbDeviceConnection usbDeviceConnection, Resources resources) {
+        this.usbDeviceConnection = usbDeviceConnection;
+        this.resources = resources;
+        this.executor = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread thread = new Thread(r, UsbControlEngine.class.getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // the thread only lives while there is pipelined traffic
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Queues a command to be executed after the ones submitted before it **/
+    public <R> Future<R> submit(final int command, final ThrowingCallable<R, DvbException> transfer) throws DvbException {
+        final long submittedNanos = System.nanoTime();
+        queued.incrementAndGet();
+        try {
+            return executor.submit(new Callable<R>() {
+                @Override
+                public R call() throws DvbException {
+                    try {
+                        synchronized (transferLock) {
+                            return execute(command, submittedNanos, transfer);
+                        }
+                    } finally {
+                        queued.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            throw new DvbException(IO_EXCEPTION, "USB control engine is closed", e);
+        }
+    }
+
+    /** Executes a command on the calling thread, once any pipelined commands have gone through **/
+    public <R> R call(int command, ThrowingCallable<R, DvbException> transfer) throws DvbException {
+        long submittedNanos = System.nanoTime();
+        synchronized (transferLock) {
+            if (closed) throw new DvbException(IO_EXCEPTION, "USB control engine is closed");
+            if (queued.get() == 0) return execute(command, submittedNanos, transfer);
+        }
+        return await(submit(command, transfer));
+    }
+
+    public <R> R await(Future<R> future) throws DvbException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DvbException) throw (DvbException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new DvbException(IO_EXCEPTION, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DvbException(IO_EXCEPTION, e);
+        }
+    }
+
+    public int controlTransfer(int command, final int requestType, final int request, final int value, final int index, final byte[] data, final int length) throws DvbException {
+        return call(command, new ThrowingCallable<Integer, DvbException>() {
+            @Override
+            public Integer call() throws DvbException {
+                int result = usbDeviceConnection.controlTransfer(requestType, request, value, index, data, length, TIMEOUT_MS);
+
+                if (result < 0) {
+                    throw new DvbException(HARDWARE_EXCEPTION, resources.getString(R.string.cannot_send_control_message, result));
+                }
+
+                return result;
+            }
+        });
+    }
+
+    /** Writes wbuf to the out endpoint then, if there is an in endpoint, reads rlen bytes into rbuf **/
+    public void bulkWriteRead(int command, @NonNull UsbEndpoint out, @NonNull byte[] wbuf, int wlen,
+                              @Nullable UsbEndpoint in, @Nullable byte[] rbuf, int rlen) throws DvbException {
+        call(command, bulkWriteReadTransfer(out, wbuf, wlen, in, rbuf, rlen));
+    }
+
+    /** Pipelined version of {@link #bulkWriteRead}, wbuf must not be reused until the future is done **/
+    public Future<Void> submitBulkWriteRead(int command, @NonNull UsbEndpoint out, @NonNull byte[] wbuf, int wlen,
+                                            @Nullable UsbEndpoint in, @Nullable byte[] rbuf, int rlen) throws DvbException {
+        return submit(command, bulkWriteReadTransfer(out, wbuf, wlen, in, rbuf, rlen));
+    }
+
+    private ThrowingCallable<Void, DvbException> bulkWriteReadTransfer(@NonNull final UsbEndpoint out, @NonNull final byte[] wbuf, final int wlen,
+                                                                       @Nullable final UsbEndpoint in, @Nullable final byte[] rbuf, final int rlen) {
+        return new ThrowingCallable<Void, DvbException>() {
+            @Override
+            public Void call() throws DvbException {
+                int actlen = usbDeviceConnection.bulkTransfer(out, wbuf, wlen, TIMEOUT_MS);
+
+                if (actlen < wlen) {
+                    if (actlen >= 0) actlen = -1;
+                    throw new DvbException(HARDWARE_EXCEPTION, resources.getString(R.string.cannot_send_control_message, actlen));
+                }
+
+                if (in != null && rbuf != null && rlen >= 0) {
+                    actlen = usbDeviceConnection.bulkTransfer(in, rbuf, rlen, TIMEOUT_MS);
+                    if (actlen < rlen) {
+                        if (actlen >= 0) actlen = -1;
+                        throw new DvbException(HARDWARE_EXCEPTION, resources.getString(R.string.cannot_send_control_message, actlen));
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    // must hold transferLock
+    private <R> R execute(int command, long submittedNanos, ThrowingCallable<R, DvbException> transfer) throws DvbException {
+        try {
+            return transfer.call();
+        } finally {
+            recordLatency(command, System.nanoTime() - submittedNanos);
+        }
+    }
+
+    public synchronized long getCommandCount(int command) {
+        long[] stats = latencies.get(command);
+        return stats == null ? 0 : stats[0];
+    }
+
+    public synchronized long getAverageLatencyUs(int command) {
+        long[] stats = latencies.get(command);
+        return stats == null ? 0 : stats[1] / stats[0] / 1_000L;
+    }
+
+    public synchronized long getMaxLatencyUs(int command) {
+        long[] stats = latencies.get(command);
+        return stats == null ? 0 : stats[2] / 1_000L;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("USB control latencies:");
+        for (Map.Entry<Integer, long[]> entry : latencies.entrySet()) {
+            long[] stats = entry.getValue();
+            sb.append(String.format(Locale.US, " 0x%x %d commands, avg %d us, max %d us;",
+                    entry.getKey(), stats[0], stats[1] / stats[0] / 1_000L, stats[2] / 1_000L));
+        }
+        return sb.toString();
+    }
+
+    /** Commands that are already queued still get executed, later ones fail with a DvbException **/
+    @Override
+    public void close() {
+        synchronized (transferLock) {
+            closed = true;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void recordLatency(int command, long nanos) {
+        long[] stats = latencies.get(command);
+        if (stats == null) {
+            stats = new long[3];
+            latencies.put(command, stats);
+        }
+        stats[0]++;
+        stats[1] += nanos;
+        if (nanos > stats[2]) stats[2] = nanos;
+    }
+}
@@ -48,6 +48,7 @@ import static info.martinmarinov.drivers.DvbStatus.FE_HAS_LOCK;
 import static info.martinmarinov.drivers.DvbStatus.FE_HAS_SIGNAL;
 import static info.martinmarinov.drivers.DvbStatus.FE_HAS_SYNC;
 import static info.martinmarinov.drivers.DvbStatus.FE_HAS_VITERBI;
+import static info.martinmarinov.drivers.tools.PidFilterPlanner.FREE_SLOT;
 import static info.martinmarinov.drivers.tools.SetUtils.setOf;
 import static info.martinmarinov.drivers.usb.af9035.Af9033Config.AF9033_ADC_MULTIPLIER_2X;
 import static info.martinmarinov.drivers.usb.af9035.Af9033Config.AF9033_TS_MODE_PARALLEL;
@@ -67,6 +68,12 @@ import static info.martinmarinov.drivers.usb.af9035.Af9033Config.AF9033_TUNER_TD
 import static info.martinmarinov.drivers.usb.af9035.Af9033Config.AF9033_TUNER_TUA9001;
 import static java.util.Collections.unmodifiableSet;
 
+/**
+ * Locking: the public methods that touch the hardware are synchronized on this instance,
+ * getCapabilities and getPidFilterSlots only return constants. Register access goes through
+ * {@link RegMap} which has its own lock, and the USB mailbox in {@link Af9035DvbDevice} is
+ * guarded separately, both are always taken after this monitor.
+ */
 class Af9033Frontend implements DvbFrontend {
     private final static Set<DvbStatus> NO_SIGNAL = unmodifiableSet(Collections.<DvbStatus>emptySet());
     private final static Set<DvbStatus> HAS_SIGNAL = unmodifiableSet(setOf(FE_HAS_SIGNAL));
@@ -596,11 +603,22 @@ class Af9033Frontend implements DvbFrontend {
     }
 
     @Override
-    public synchronized void setPids(int... pids) throws DvbException {
+    public int getPidFilterSlots() {
+        return PID_FILTER_COUNT;
+    }
+
+    @Override
+    public synchronized void setPidFilterSlots(int[] slotPids, long changedSlots) throws DvbException {
         pid_filter_ctrl(true);
 
-        for (int i = 0; i < pids.length; i++) {
-            pid_filter(i, pids[i], true);
+        for (int i = 0; i < slotPids.length; i++) {
+            if ((changedSlots & (1L << i)) == 0) continue;
+
+            if (slotPids[i] == FREE_SLOT) {
+                pid_filter(i, 0, false);
+            } else {
+                pid_filter(i, slotPids[i], true);
+            }
         }
     }
 
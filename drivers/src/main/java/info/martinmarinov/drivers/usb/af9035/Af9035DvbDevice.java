@@ -30,6 +30,10 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
 
 import info.martinmarinov.drivers.DeviceFilter;
 import info.martinmarinov.drivers.DvbDemux;
@@ -37,6 +41,7 @@ import info.martinmarinov.drivers.DvbException;
 import info.martinmarinov.drivers.R;
 import info.martinmarinov.drivers.tools.I2cAdapter;
 import info.martinmarinov.drivers.tools.SleepUtils;
+import info.martinmarinov.drivers.tools.io.NativePipe;
 import info.martinmarinov.drivers.usb.DvbFrontend;
 import info.martinmarinov.drivers.usb.DvbTuner;
 import info.martinmarinov.drivers.usb.DvbUsbDevice;
@@ -114,7 +119,7 @@ class Af9035DvbDevice extends DvbUsbDevice {
     private Af9033Config[] af9033_config;
 
     Af9035DvbDevice(UsbDevice usbDevice, Context context, DeviceFilter filter) throws DvbException {
-        super(usbDevice, context, filter, DvbDemux.DvbDmxSwfilter());
+        super(usbDevice, context, filter, DvbDemux.DvbDmxSwfilter(new NativePipe()));
         iface = usbDevice.getInterface(0);
 
         controlEndpointIn = iface.getEndpoint(0);
@@ -611,6 +616,11 @@ class Af9035DvbDevice extends DvbUsbDevice {
         return endpoint;
     }
 
+    @Override
+    protected I2cAdapter getI2cAdapter() {
+        return i2CAdapter;
+    }
+
     // communication
 
     private final static int MAX_XFER_SIZE = 64;
@@ -619,8 +629,8 @@ class Af9035DvbDevice extends DvbUsbDevice {
     private final static int ACK_HDR_LEN = 3;
     private final static int CHECKSUM_LEN = 2;
 
-    private final Object usbLock = new Object();
     private final byte[] sbuf = new byte[BUF_LEN];
+    private final List<Future<Void>> unacknowledged = new ArrayList<>();
 
     private int seq = 0;
 
@@ -645,23 +655,16 @@ class Af9035DvbDevice extends DvbUsbDevice {
     }
 
     private void dvb_usb_generic_rw(@NonNull byte[] wbuf, int wlen, @Nullable byte[] rbuf, int rlen) throws DvbException {
-        synchronized (usbLock) {
-            int actlen = usbDeviceConnection.bulkTransfer(controlEndpointOut, wbuf, wlen, 5_000);
-
-            if (actlen < wlen) {
-                if (actlen >= 0) actlen = -1;
-                throw new DvbException(HARDWARE_EXCEPTION, resources.getString(R.string.cannot_send_control_message, actlen));
-            }
-
-            // put delay here if needed
+        controlEngine.bulkWriteRead(wbuf[2] & 0xFF, controlEndpointOut, wbuf, wlen, rlen > 0 ? controlEndpointIn : null, rbuf, rlen);
+        awaitUnacknowledged();
+    }
 
-            if (rlen > 0) {
-                actlen = usbDeviceConnection.bulkTransfer(controlEndpointIn, rbuf, rlen, 5_000);
-                if (actlen < rlen) {
-                    if (actlen >= 0) actlen = -1;
-                    throw new DvbException(HARDWARE_EXCEPTION, resources.getString(R.string.cannot_send_control_message, actlen));
-                }
-            }
+    // Commands without an ack are executed in order before any later command completes
+    private void awaitUnacknowledged() throws DvbException {
+        try {
+            for (Future<Void> future : unacknowledged) controlEngine.await(future);
+        } finally {
+            unacknowledged.clear();
         }
     }
 
@@ -693,16 +696,15 @@ class Af9035DvbDevice extends DvbUsbDevice {
             sbuf[(sbuf[0] & 0xFF) - 1] = (byte) (checksum >> 8);
             sbuf[sbuf[0] & 0xFF] = (byte) (checksum & 0xFF);
 
-	        /* no ack for these packets */
+	        /* no ack for these packets, don't wait for them so the next one can be prepared */
             if (cmd == CMD_FW_DL) {
-                rlen = 0;
+                byte[] packet = Arrays.copyOf(sbuf, wlen);
+                unacknowledged.add(controlEngine.submitBulkWriteRead(cmd, controlEndpointOut, packet, wlen, null, null, 0));
+                return;
             }
 
             dvb_usb_generic_rw(sbuf, wlen, sbuf, rlen);
 
-	        /* no ack for those packets */
-            if (cmd == CMD_FW_DL) return;
-
 	        /* verify checksum */
             checksum = checksum(sbuf, rlen - 2);
             int tmp_checksum = ((sbuf[rlen - 2] & 0xFF) << 8) | (sbuf[rlen - 1] & 0xFF);
@@ -33,6 +33,7 @@ import info.martinmarinov.drivers.DvbDemux;
 import info.martinmarinov.drivers.DvbException;
 import info.martinmarinov.drivers.R;
 import info.martinmarinov.drivers.tools.I2cAdapter;
+import info.martinmarinov.drivers.tools.io.NativePipe;
 import info.martinmarinov.drivers.usb.DvbUsbDevice;
 import info.martinmarinov.usbxfer.AlternateUsbInterface;
 
@@ -40,7 +41,6 @@ import static android.hardware.usb.UsbConstants.USB_DIR_IN;
 import static android.hardware.usb.UsbConstants.USB_DIR_OUT;
 import static info.martinmarinov.drivers.DvbException.ErrorCode.BAD_API_USAGE;
 import static info.martinmarinov.drivers.DvbException.ErrorCode.DVB_DEVICE_UNSUPPORTED;
-import static info.martinmarinov.drivers.DvbException.ErrorCode.HARDWARE_EXCEPTION;
 import static info.martinmarinov.drivers.tools.I2cAdapter.I2cMessage.I2C_M_RD;
 import static info.martinmarinov.drivers.usb.DvbUsbIds.USB_VID_MEDION;
 
@@ -86,8 +86,6 @@ public abstract class CxUsbDvbDevice extends DvbUsbDevice {
     /* Max transfer size done by I2C transfer functions */
     private final static int MAX_XFER_SIZE = 80;
 
-    private final Object usbLock = new Object();
-
     private boolean gpio_tuner_write_state = false;
 
     private final UsbInterface iface;
@@ -98,7 +96,7 @@ public abstract class CxUsbDvbDevice extends DvbUsbDevice {
     final I2cAdapter i2CAdapter = new CxUsbDvbDeviceI2cAdapter();
 
     CxUsbDvbDevice(UsbDevice usbDevice, Context context, DeviceFilter filter) throws DvbException {
-        super(usbDevice, context, filter, DvbDemux.DvbDmxSwfilter());
+        super(usbDevice, context, filter, DvbDemux.DvbDmxSwfilter(new NativePipe()));
 
         iface = usbDevice.getInterface(0);
 
@@ -121,6 +119,11 @@ public abstract class CxUsbDvbDevice extends DvbUsbDevice {
         return endpoint;
     }
 
+    @Override
+    protected I2cAdapter getI2cAdapter() {
+        return i2CAdapter;
+    }
+
     public void cxusb_streaming_ctrl(boolean onoff) throws DvbException {
         byte[] buf = new byte[]{ 0x03, 0x00 };
         if (onoff) {
@@ -164,24 +167,8 @@ public abstract class CxUsbDvbDevice extends DvbUsbDevice {
     }
 
     private void dvb_usb_generic_rw(@NonNull byte[] wbuf, int wlen, @Nullable byte[] rbuf, int rlen) throws DvbException {
-        synchronized (usbLock) {
-            int actlen = usbDeviceConnection.bulkTransfer(controlEndpointOut, wbuf, wlen, 5_000);
-
-            if (actlen < wlen) {
-                if (actlen >= 0) actlen = -1;
-                throw new DvbException(HARDWARE_EXCEPTION, resources.getString(R.string.cannot_send_control_message, actlen));
-            }
-
-            // put delay here if needed
-
-            if (rbuf != null && rlen >= 0) {
-                actlen = usbDeviceConnection.bulkTransfer(controlEndpointIn, rbuf, rlen, 5_000);
-                if (actlen < rlen) {
-                    if (actlen >= 0) actlen = -1;
-                    throw new DvbException(HARDWARE_EXCEPTION, resources.getString(R.string.cannot_send_control_message, actlen));
-                }
-            }
-        }
+        // first byte is the command
+        controlEngine.bulkWriteRead(wbuf[0] & 0xFF, controlEndpointOut, wbuf, wlen, controlEndpointIn, rbuf, rlen);
     }
 
     private void cxusb_gpio_tuner(boolean onoff) throws DvbException {
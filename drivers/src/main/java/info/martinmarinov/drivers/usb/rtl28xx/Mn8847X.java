@@ -38,6 +38,12 @@ import static info.martinmarinov.drivers.DvbException.ErrorCode.HARDWARE_EXCEPTI
 import static info.martinmarinov.drivers.DvbException.ErrorCode.IO_EXCEPTION;
 import static info.martinmarinov.drivers.tools.I2cAdapter.I2cMessage.I2C_M_RD;
 
+/**
+ * Locking: register access and the public methods that touch the hardware are synchronized on
+ * this instance. The PID filter methods do nothing and getPidFilterSlots returns a constant.
+ * Status reads are a handful of register reads and never wait on a timer, tuning
+ * holds the monitor for the whole demod reset and configuration sequence.
+ */
 abstract class Mn8847X implements DvbFrontend {
     private final static String TAG = Mn8847X.class.getSimpleName();
 
@@ -144,7 +150,12 @@ abstract class Mn8847X implements DvbFrontend {
     }
 
     @Override
-    public void setPids(int... pids) throws DvbException {
+    public int getPidFilterSlots() {
+        return 0;
+    }
+
+    @Override
+    public void setPidFilterSlots(int[] slotPids, long changedSlots) throws DvbException {
         // Not supported
     }
 
@@ -110,6 +110,13 @@ class Rtl2832DvbDevice extends Rtl28xxDvbDevice {
         return tuner.createTuner(i2CAdapter, i2GateController, resources, tunerCallbackBuilder.forTuner(tuner));
     }
 
+    // The RTL2832 demod registers are reached over USB rather than through its own I2C repeater,
+    // so the gate can stay open for a whole tuner sequence. Linux also closes it lazily.
+    @Override
+    protected I2GateControl getBatchedI2GateControl() {
+        return i2GateController;
+    }
+
     @Override
     public String getDebugString() {
         StringBuilder sb = new StringBuilder("RTL2832 ");
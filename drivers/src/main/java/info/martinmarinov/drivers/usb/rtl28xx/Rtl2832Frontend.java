@@ -22,7 +22,6 @@ package info.martinmarinov.drivers.usb.rtl28xx;
 
 import android.content.res.Resources;
 import androidx.annotation.NonNull;
-import android.util.Log;
 
 import java.util.Set;
 
@@ -45,13 +44,20 @@ import static info.martinmarinov.drivers.DvbException.ErrorCode.DVB_DEVICE_UNSUP
 import static info.martinmarinov.drivers.DvbException.ErrorCode.HARDWARE_EXCEPTION;
 import static info.martinmarinov.drivers.DvbException.ErrorCode.UNSUPPORTED_BANDWIDTH;
 import static info.martinmarinov.drivers.tools.I2cAdapter.I2cMessage.I2C_M_RD;
+import static info.martinmarinov.drivers.tools.PidFilterPlanner.FREE_SLOT;
 import static info.martinmarinov.drivers.usb.rtl28xx.Rtl2832FrontendData.DvbtRegBitName.DVBT_SOFT_RST;
 
+/**
+ * Locking: register access and the public methods that touch the hardware are synchronized on
+ * this instance since the current register page is cached in {@link Rtl28xxI2cAdapter} and a page
+ * switch followed by the access must not be interleaved. getCapabilities and getPidFilterSlots
+ * only return constants and aren't. When wrapped by a {@link Rtl2832pFrontend} its monitor is
+ * always taken first.
+ */
 class Rtl2832Frontend implements DvbFrontend {
-    private final static String TAG = Rtl2832Frontend.class.getSimpleName();
-
     private final static int I2C_ADDRESS = 0x10;
     private final static long XTAL = 28_800_000L;
+    private final static int PID_FILTER_SLOTS = 32;
 
     private final Rtl28xxTunerType tunerType;
     private final Rtl28xxI2cAdapter i2cAdapter;
@@ -376,8 +382,13 @@ class Rtl2832Frontend implements DvbFrontend {
     }
 
     @Override
-    public synchronized void setPids(int... pids) throws DvbException {
-        setPids(false, pids);
+    public int getPidFilterSlots() {
+        return PID_FILTER_SLOTS;
+    }
+
+    @Override
+    public synchronized void setPidFilterSlots(int[] slotPids, long changedSlots) throws DvbException {
+        setPidFilterSlots(false, slotPids, changedSlots);
     }
 
     @Override
@@ -385,22 +396,15 @@ class Rtl2832Frontend implements DvbFrontend {
         disablePidFilter(false);
     }
 
-    void setPids(boolean slaveTs, int ... pids) throws DvbException {
-        if (!hardwareSupportsPidFilterOf(pids)) {
-            // if can't do hardware filtering, fallback to software
-            Log.d(TAG, "Falling back to software PID filtering");
-            disablePidFilter(slaveTs);
-            return;
-        }
-
+    synchronized void setPidFilterSlots(boolean slaveTs, int[] slotPids, long changedSlots) throws DvbException {
         enablePidFilter(slaveTs);
 
         long pidFilter = 0;
-        for (int index = 0; index < pids.length; index++) {
-            pidFilter |= 1 << index;
+        for (int index = 0; index < slotPids.length; index++) {
+            if (slotPids[index] != FREE_SLOT) pidFilter |= 1L << index;
         }
 
-        // write mask
+        // write mask, it is a single transfer so no point in tracking whether it changed
         byte[] buf = new byte[] {
                 (byte) (pidFilter & 0xFF),
                 (byte) ((pidFilter >> 8) & 0xFF),
@@ -414,8 +418,10 @@ class Rtl2832Frontend implements DvbFrontend {
             wr(0x62, 0, buf);
         }
 
-        for (int index = 0; index < pids.length; index++) {
-            int pid = pids[index];
+        // free slots are masked out, only slots with a new PID need writing
+        for (int index = 0; index < slotPids.length; index++) {
+            int pid = slotPids[index];
+            if ((changedSlots & (1L << index)) == 0 || pid == FREE_SLOT) continue;
 
             buf[0] = (byte) ((pid >> 8) & 0xFF);
             buf[1] = (byte) (pid & 0xFF);
@@ -443,18 +449,4 @@ class Rtl2832Frontend implements DvbFrontend {
             wrMask(0x61, 0, 0xc0, 0x80);
         }
     }
-
-    private static boolean hardwareSupportsPidFilterOf(int ... pids) {
-        if (pids.length > 32) {
-            return false;
-        }
-
-        // Avoid unnecessary unpacking, ignore Android Studio warning
-        //noinspection ForLoopReplaceableByForEach
-        for (int i = 0; i < pids.length; i++) {
-            if (pids[i] < 0 || pids[i] > 0x1FFF) return false;
-        }
-
-        return true;
-    }
 }
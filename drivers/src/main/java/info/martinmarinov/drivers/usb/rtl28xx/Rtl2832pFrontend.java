@@ -35,6 +35,11 @@ import static info.martinmarinov.drivers.usb.rtl28xx.Rtl2832FrontendData.DvbtReg
 import static info.martinmarinov.drivers.usb.rtl28xx.Rtl2832FrontendData.DvbtRegBitName.DVBT_SOFT_RST;
 import static info.martinmarinov.drivers.usb.rtl28xx.Rtl28xxConst.SYS_DEMOD_CTL;
 
+/**
+ * Locking: the public methods that touch the hardware are synchronized on this instance and then
+ * delegate to the active demod, which takes its own monitor, so switching between master and slave
+ * can't race a read. getCapabilities and getPidFilterSlots only return constants and aren't.
+ */
 class Rtl2832pFrontend implements DvbFrontend {
     private final Rtl2832Frontend rtl2832Frontend;
     private final Rtl28xxDvbDevice rtl28xxDvbDevice;
@@ -133,7 +138,12 @@ class Rtl2832pFrontend implements DvbFrontend {
     }
 
     @Override
-    public synchronized void setPids(int... pids) throws DvbException {
-        rtl2832Frontend.setPids(slaveEnabled, pids);
+    public int getPidFilterSlots() {
+        return rtl2832Frontend.getPidFilterSlots();
+    }
+
+    @Override
+    public synchronized void setPidFilterSlots(int[] slotPids, long changedSlots) throws DvbException {
+        rtl2832Frontend.setPidFilterSlots(slaveEnabled, slotPids, changedSlots);
     }
 }
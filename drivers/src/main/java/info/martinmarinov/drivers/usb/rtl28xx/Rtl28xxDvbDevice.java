@@ -32,6 +32,7 @@ import info.martinmarinov.drivers.usb.DvbUsbDevice;
 import info.martinmarinov.drivers.R;
 import info.martinmarinov.drivers.DvbDemux;
 import info.martinmarinov.drivers.tools.I2cAdapter;
+import info.martinmarinov.drivers.tools.io.NativePipe;
 import info.martinmarinov.usbxfer.AlternateUsbInterface;
 
 import static info.martinmarinov.drivers.DvbException.ErrorCode.BAD_API_USAGE;
@@ -55,7 +56,6 @@ import static info.martinmarinov.drivers.usb.rtl28xx.Rtl28xxConst.USB_EPA_MAXPKT
 import static info.martinmarinov.drivers.usb.rtl28xx.Rtl28xxConst.USB_SYSCTL_0;
 
 abstract class Rtl28xxDvbDevice extends DvbUsbDevice {
-    private final Object usbLock = new Object();
 
     private final UsbInterface iface;
     private final UsbEndpoint endpoint;
@@ -64,7 +64,7 @@ abstract class Rtl28xxDvbDevice extends DvbUsbDevice {
     final TunerCallbackBuilder tunerCallbackBuilder = new TunerCallbackBuilder();
 
     Rtl28xxDvbDevice(UsbDevice usbDevice, Context context, DeviceFilter deviceFilter) throws DvbException {
-        super(usbDevice, context, deviceFilter, DvbDemux.DvbDmxSwfilter());
+        super(usbDevice, context, deviceFilter, DvbDemux.DvbDmxSwfilter(new NativePipe()));
         iface = usbDevice.getInterface(0);
         endpoint = iface.getEndpoint(0);
 
@@ -82,15 +82,8 @@ abstract class Rtl28xxDvbDevice extends DvbUsbDevice {
             requestType = UsbConstants.USB_TYPE_VENDOR | UsbConstants.USB_DIR_IN;
         }
 
-        synchronized (usbLock) {
-            int result = usbDeviceConnection.controlTransfer(requestType, 0, value, index, data, data.length, 5_000);
-
-            if (result < 0) {
-                throw new DvbException(HARDWARE_EXCEPTION, resources.getString(R.string.cannot_send_control_message, result));
-            }
-
-            return result;
-        }
+        // index selects the register block and the command, so it identifies the latency bucket
+        return controlEngine.controlTransfer(index, requestType, 0, value, index, data, data.length);
     }
 
     synchronized void wrReg(int reg, byte[] val) throws DvbException {
@@ -250,6 +243,11 @@ abstract class Rtl28xxDvbDevice extends DvbUsbDevice {
         return endpoint;
     }
 
+    @Override
+    protected I2cAdapter getI2cAdapter() {
+        return i2CAdapter;
+    }
+
     @Override
     protected AlternateUsbInterface getUsbInterface() {
         return AlternateUsbInterface.forUsbInterface(usbDeviceConnection, iface).get(0);
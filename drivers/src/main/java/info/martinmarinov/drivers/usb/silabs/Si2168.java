@@ -53,6 +53,12 @@ import static info.martinmarinov.drivers.DvbStatus.FE_HAS_SYNC;
 import static info.martinmarinov.drivers.DvbStatus.FE_HAS_VITERBI;
 import static info.martinmarinov.drivers.usb.cxusb.CxUsbDvbDevice.SI2168_ARGLEN;
 
+/**
+ * Locking: firmware commands and the public methods that touch the hardware are synchronized on
+ * this instance since a command and its reply have to be a single uninterrupted exchange. readSnr,
+ * getPidFilterSlots and the PID filter methods don't talk to the chip and aren't. The I2C gate control is
+ * synchronized on the gate object and issues a command itself, so it also takes this monitor.
+ */
 public class Si2168 implements DvbFrontend {
 
     private final static String TAG = Si2168.class.getSimpleName();
@@ -376,7 +382,7 @@ public class Si2168 implements DvbFrontend {
     }
 
     @Override
-    public int readRfStrengthPercentage() throws DvbException {
+    public synchronized int readRfStrengthPercentage() throws DvbException {
         if (!getStatus().contains(FE_HAS_SIGNAL)) return 0;
         return tuner.readRfStrengthPercentage();
     }
@@ -451,7 +457,12 @@ public class Si2168 implements DvbFrontend {
 
 
     @Override
-    public void setPids(int... pids) throws DvbException {
+    public int getPidFilterSlots() {
+        return 0;
+    }
+
+    @Override
+    public void setPidFilterSlots(int[] slotPids, long changedSlots) throws DvbException {
         // no-op
     }
 
@@ -0,0 +1,105 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package info.martinmarinov.drivers.tools;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import info.martinmarinov.drivers.DvbException;
+
+import static info.martinmarinov.drivers.DvbException.ErrorCode.HARDWARE_EXCEPTION;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class I2GateControlTest {
+    private final List<Boolean> gateCalls = new ArrayList<>();
+    private boolean gateOpen = false;
+
+    private final I2cAdapter.I2GateControl gateControl = new I2cAdapter.I2GateControl() {
+        @Override
+        protected void i2cGateCtrl(boolean enable) throws DvbException {
+            gateCalls.add(enable);
+            gateOpen = enable;
+        }
+    };
+
+    @Test
+    public void testSingleScope() throws Exception {
+        gateControl.runInOpenGate(new AssertGateOpen());
+
+        assertThat(gateCalls, is(asList(true, false)));
+        assertThat(gateControl.getToggleCount(), is(2L));
+    }
+
+    @Test
+    public void testNestedScopesToggleOnce() throws Exception {
+        gateControl.runInOpenGate(new ThrowingRunnable<DvbException>() {
+            @Override
+            public void run() throws DvbException {
+                gateControl.runInOpenGate(new AssertGateOpen());
+                // the inner scope must not close the gate early
+                new AssertGateOpen().run();
+                gateControl.runInOpenGate(new AssertGateOpen());
+            }
+        });
+
+        assertThat(gateCalls, is(asList(true, false)));
+        assertThat(gateControl.getToggleCount(), is(2L));
+        assertThat(gateOpen, is(false));
+    }
+
+    @Test
+    public void testGateClosedOnException() throws Exception {
+        try {
+            gateControl.runInOpenGate(new ThrowingRunnable<DvbException>() {
+                @Override
+                public void run() throws DvbException {
+                    gateControl.runInOpenGate(new ThrowingRunnable<DvbException>() {
+                        @Override
+                        public void run() throws DvbException {
+                            throw new DvbException(HARDWARE_EXCEPTION, "Simulated failure");
+                        }
+                    });
+                }
+            });
+            fail("Expected exception");
+        } catch (DvbException ignored) {
+        }
+
+        assertThat(gateOpen, is(false));
+
+        // and a following scope opens it again
+        gateControl.runInOpenGate(new AssertGateOpen());
+        assertThat(gateControl.getToggleCount(), is(4L));
+    }
+
+    private class AssertGateOpen implements ThrowingRunnable<DvbException> {
+        @Override
+        public void run() throws DvbException {
+            assertThat(gateOpen, is(true));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package info.martinmarinov.drivers.tools;
+
+import org.junit.Test;
+
+import info.martinmarinov.drivers.PidFilterStatus;
+
+import static info.martinmarinov.drivers.tools.PidFilterPlanner.FREE_SLOT;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class PidFilterPlannerTest {
+
+    @Test
+    public void testFirstPlanWritesAllSlots() {
+        PidFilterPlanner planner = new PidFilterPlanner(4);
+        PidFilterPlanner.Plan plan = planner.plan(0x100, 0, 0x101);
+
+        assertThat(plan.isHardware(), is(true));
+        assertThat(plan.needsWrite(), is(true));
+        assertArrayEquals(new int[] {0, 0x100, 0x101, FREE_SLOT}, plan.getSlots());
+        assertThat(plan.getChangedSlots(), is(0xFL));
+    }
+
+    @Test
+    public void testIncrementalUpdateKeepsSlots() {
+        PidFilterPlanner planner = new PidFilterPlanner(4);
+        planner.plan(0, 0x100, 0x101);
+
+        PidFilterPlanner.Plan plan = planner.plan(0, 0x101, 0x200, 0x201);
+
+        // 0x100 is replaced by 0x200 in place, 0x201 takes the free slot
+        assertArrayEquals(new int[] {0, 0x200, 0x101, 0x201}, plan.getSlots());
+        assertThat(plan.getChangedSlots(), is(0xAL));
+
+        PidFilterPlanner.Plan same = planner.plan(0x201, 0x200, 0x101, 0);
+        assertThat(same.needsWrite(), is(false));
+        assertThat(same.getChangedSlots(), is(0L));
+
+        assertThat(planner.getStatus().getHardwareSlotWrites(), is(6L));
+        assertThat(planner.getStatus().getHardwareSlotsInUse(), is(4));
+    }
+
+    @Test
+    public void testInvalidateRewritesAllSlots() {
+        PidFilterPlanner planner = new PidFilterPlanner(2);
+        planner.plan(0, 0x100);
+        planner.invalidate();
+
+        PidFilterPlanner.Plan plan = planner.plan(0, 0x100);
+        assertThat(plan.needsWrite(), is(true));
+        assertThat(plan.getChangedSlots(), is(0x3L));
+    }
+
+    @Test
+    public void testFailedWriteFallsBackToFullMux() {
+        PidFilterPlanner planner = new PidFilterPlanner(2);
+        planner.plan(0, 0x100);
+
+        PidFilterPlanner.Plan plan = planner.writeFailed();
+        assertThat(plan.isHardware(), is(false));
+        assertThat(plan.needsWrite(), is(true));
+        assertThat(planner.getStatus().isHardwareFiltering(), is(false));
+        assertThat(planner.getStatus().getFailedWrites(), is(1L));
+
+        // the next update tries the hardware again, all of it
+        plan = planner.plan(0, 0x100);
+        assertThat(plan.isHardware(), is(true));
+        assertThat(plan.getChangedSlots(), is(0x3L));
+    }
+
+    @Test
+    public void testOverflowFallsBackToFullMux() {
+        PidFilterPlanner planner = new PidFilterPlanner(2);
+        planner.plan(0, 0x100);
+
+        PidFilterPlanner.Plan plan = planner.plan(0, 0x100, 0x101);
+        assertThat(plan.isHardware(), is(false));
+        assertThat(plan.needsWrite(), is(true));
+
+        assertThat(planner.plan(0, 0x100, 0x102).needsWrite(), is(false));
+        assertThat(planner.getStatus().isHardwareFiltering(), is(false));
+    }
+
+    @Test
+    public void testNullPidDroppedToFit() {
+        PidFilterPlanner planner = new PidFilterPlanner(2);
+
+        PidFilterPlanner.Plan plan = planner.plan(0, 0x100, 0x1FFF);
+        assertThat(plan.isHardware(), is(true));
+        assertArrayEquals(new int[] {0, 0x100}, plan.getSlots());
+    }
+
+    @Test
+    public void testWholeMuxPidFallsBackToFullMux() {
+        PidFilterPlanner planner = new PidFilterPlanner(32);
+        assertThat(planner.plan(0x2000).isHardware(), is(false));
+    }
+
+    @Test
+    public void testNoHardwareSlots() {
+        PidFilterPlanner planner = new PidFilterPlanner(0);
+
+        assertThat(planner.plan(0).isHardware(), is(false));
+        assertThat(planner.plan(0).needsWrite(), is(false));
+    }
+
+    @Test
+    public void testBandwidthSaved() {
+        PidFilterPlanner planner = new PidFilterPlanner(32);
+
+        planner.fullMux();
+        planner.sampleReceivedPackets(0, 0);
+        planner.sampleReceivedPackets(20_000, 1_000);
+
+        planner.plan(0, 0x100);
+        planner.sampleReceivedPackets(20_000, 1_000);
+        planner.sampleReceivedPackets(21_000, 2_000);
+
+        PidFilterStatus status = planner.getStatus();
+        assertThat(status.isHardwareFiltering(), is(true));
+        assertThat(status.getFullMuxBytesPerSecond(), is(20_000L * 188));
+        assertThat(status.getUsbBytesPerSecond(), is(1_000L * 188));
+        assertThat(status.getUsbBytesSavedPerSecond(), is(19_000L * 188));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package info.martinmarinov.drivers.tools;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testSucceedsAfterRetries() throws Exception {
+        RetryPolicy policy = RetryPolicy.builder("test").maxRetries(4).backoff(1, 2.0, 10).build();
+        FailingCallable callable = new FailingCallable(2);
+
+        assertThat(policy.call("reg 0x01", callable), is(42));
+
+        assertThat(callable.attempts, is(3));
+        assertThat(policy.getCalls(), is(1L));
+        assertThat(policy.getRetries(), is(2L));
+        assertThat(policy.getFailures(), is(0L));
+        assertThat(policy.getRetriesPerOperation().get("reg 0x01"), is(2L));
+    }
+
+    @Test
+    public void testGivesUpAfterMaxRetries() throws Exception {
+        RetryPolicy policy = RetryPolicy.builder("test").maxRetries(3).backoff(1, 1.0, 1).build();
+        FailingCallable callable = new FailingCallable(Integer.MAX_VALUE);
+
+        try {
+            policy.call(null, callable);
+            fail("Expected exception");
+        } catch (IOException ignored) {
+        }
+
+        assertThat(callable.attempts, is(4));
+        assertThat(policy.getFailures(), is(1L));
+        assertThat(policy.getRetriesPerOperation().get("test"), is(3L));
+    }
+
+    @Test
+    public void testDeadlineStopsRetrying() throws Exception {
+        RetryPolicy policy = RetryPolicy.builder("test").maxRetries(100).backoff(20, 1.0, 20).deadlineMs(100).build();
+        FailingCallable callable = new FailingCallable(Integer.MAX_VALUE);
+
+        long start = System.nanoTime();
+        try {
+            policy.call(null, callable);
+            fail("Expected exception");
+        } catch (IOException ignored) {
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+
+        assertTrue("Took " + elapsedMs + " ms", elapsedMs < 100 + 50);
+        assertTrue(callable.attempts <= 6);
+    }
+
+    @Test
+    public void testJitterStaysWithinBounds() throws Exception {
+        RetryPolicy policy = RetryPolicy.builder("test").maxRetries(5).backoff(10, 1.0, 10).jitter(0.5).build();
+
+        long start = System.nanoTime();
+        policy.call(null, new FailingCallable(5));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+
+        // 5 sleeps of 5 to 15 ms each
+        assertTrue("Took " + elapsedMs + " ms", elapsedMs >= 25 && elapsedMs < 75 + 50);
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        RetryPolicy policy = RetryPolicy.builder("test").maxRetries(2).backoff(1, 1.0, 1).circuitBreaker(2, 60_000).build();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                policy.call(null, new FailingCallable(Integer.MAX_VALUE));
+                fail("Expected exception");
+            } catch (IOException ignored) {
+            }
+        }
+        assertTrue(policy.isCircuitOpen());
+        assertThat(policy.getCircuitTrips(), is(1L));
+
+        // While open only a single attempt is made
+        FailingCallable callable = new FailingCallable(Integer.MAX_VALUE);
+        try {
+            policy.call(null, callable);
+            fail("Expected exception");
+        } catch (IOException ignored) {
+        }
+        assertThat(callable.attempts, is(1));
+
+        // and a success closes it
+        assertThat(policy.call(null, new FailingCallable(0)), is(42));
+        assertThat(policy.isCircuitOpen(), is(false));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRuntimeExceptionsAreNotRetried() throws Exception {
+        RetryPolicy policy = RetryPolicy.builder("test").build();
+        policy.run(null, new ThrowingRunnable<IOException>() {
+            @Override
+            public void run() throws IOException {
+                throw new IllegalStateException();
+            }
+        });
+    }
+
+    private static class FailingCallable implements ThrowingCallable<Integer, IOException> {
+        private final int failures;
+        private int attempts = 0;
+
+        private FailingCallable(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public Integer call() throws IOException {
+            if (attempts++ < failures) throw new IOException("Simulated failure");
+            return 42;
+        }
+    }
+}
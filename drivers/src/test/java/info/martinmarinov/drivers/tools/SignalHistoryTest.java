@@ -0,0 +1,128 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package info.martinmarinov.drivers.tools;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import info.martinmarinov.drivers.DvbStatus;
+
+import static info.martinmarinov.drivers.tools.SetUtils.setOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SignalHistoryTest {
+    private final static int LOCKED = SignalHistory.statusBits(setOf(DvbStatus.FE_HAS_SIGNAL, DvbStatus.FE_HAS_LOCK));
+    private final static int SIGNAL = SignalHistory.statusBits(setOf(DvbStatus.FE_HAS_SIGNAL));
+
+    private SignalHistory history;
+
+    @Before
+    public void setUp() {
+        history = new SignalHistory();
+    }
+
+    @Test
+    public void testSecondsTier() {
+        history.record(10_100L, 300, 10, 50, 0, LOCKED);
+        history.record(10_900L, 200, 30, 70, 4, SIGNAL);
+        history.record(11_500L, 250, 20, 60, 0, LOCKED);
+
+        long[] out = new long[2 * SignalHistory.LONGS_PER_BUCKET];
+        assertThat(history.read(SignalHistory.TIER_SECONDS, 0, out, 0, 2), is(2));
+
+        assertThat(out[0], is(10_000L));
+        assertThat(out[1], is(pack(2, 200, 250, 300)));
+        assertThat(out[2], is((1L << 48) | 20L));
+        assertThat(out[3], is(pack(LOCKED, 50, 60, 70)));
+        assertThat(out[4], is(pack(SIGNAL, 0, 2, 4)));
+        assertThat(out[5], is((10L << 32) | 30L));
+
+        assertThat(out[6], is(11_000L));
+        assertThat(out[7], is(pack(1, 250, 250, 250)));
+    }
+
+    @Test
+    public void testDownsampling() {
+        for (int i = 0; i < 120; i++) {
+            history.record(i * 1_000L, i, 0, 100, 0, LOCKED);
+        }
+
+        long[] out = new long[3 * SignalHistory.LONGS_PER_BUCKET];
+        assertThat(history.read(SignalHistory.TIER_MINUTES, 0, out, 0, 3), is(2));
+        assertThat(out[0], is(0L));
+        assertThat(out[1], is(pack(60, 0, 29, 59)));
+        assertThat(out[6], is(60_000L));
+        assertThat(out[7], is(pack(60, 60, 89, 119)));
+
+        assertThat(history.read(SignalHistory.TIER_HOURS, 0, out, 0, 3), is(1));
+        assertThat(out[1], is(pack(120, 0, 59, 119)));
+    }
+
+    @Test
+    public void testMemoryIsBounded() {
+        // two hours of samples, the seconds tier only keeps the last one
+        for (int i = 0; i < 7_200; i++) {
+            history.record(i * 1_000L, 0, 0, 0, 0, 0);
+        }
+
+        long[] out = new long[SignalHistory.LONGS_PER_BUCKET];
+        assertThat(history.read(SignalHistory.TIER_SECONDS, 0, out, 0, 1), is(1));
+        assertThat(out[0], is(3_600_000L));
+    }
+
+    @Test
+    public void testReadFrom() {
+        for (int i = 0; i < 10; i++) {
+            history.record(i * 1_000L, 0, 0, 0, 0, 0);
+        }
+
+        long[] out = new long[10 * SignalHistory.LONGS_PER_BUCKET];
+        assertThat(history.read(SignalHistory.TIER_SECONDS, 7_000L, out, 0, 10), is(3));
+        assertThat(out[0], is(7_000L));
+    }
+
+    @Test
+    public void testValuesAreClamped() {
+        history.record(0, -5, 0, 0x1FFFF, 0, 0);
+
+        long[] out = new long[SignalHistory.LONGS_PER_BUCKET];
+        history.read(SignalHistory.TIER_SECONDS, 0, out, 0, 1);
+        assertThat(out[1], is(pack(1, 0, 0, 0)));
+        assertThat(out[3], is(pack(0, 0xFFFF, 0xFFFF, 0xFFFF)));
+    }
+
+    @Test
+    public void testBerIsNotClamped() {
+        history.record(0, 0, 100_000, 0, 0, 0);
+        history.record(500, 0, Integer.MAX_VALUE, 0, 0, 0);
+
+        long[] out = new long[SignalHistory.LONGS_PER_BUCKET];
+        history.read(SignalHistory.TIER_SECONDS, 0, out, 0, 1);
+        assertThat(out[2] & 0xFFFFFFFFL, is((100_000L + Integer.MAX_VALUE) / 2));
+        assertThat(out[5], is((100_000L << 32) | Integer.MAX_VALUE));
+    }
+
+    private static long pack(long extra, long min, long avg, long max) {
+        return (extra << 48) | (min << 32) | (avg << 16) | max;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package info.martinmarinov.drivers.usb;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import info.martinmarinov.drivers.DvbException;
+import info.martinmarinov.drivers.tools.ThrowingCallable;
+
+import static info.martinmarinov.drivers.DvbException.ErrorCode.HARDWARE_EXCEPTION;
+import static info.martinmarinov.drivers.DvbException.ErrorCode.IO_EXCEPTION;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UsbControlEngineTest {
+    // The transfer helpers are not exercised so no connection is needed
+    private final UsbControlEngine engine = new UsbControlEngine(null, null);
+    private final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    public void testOutstandingCommandsExecuteInOrder() throws Exception {
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) futures.add(engine.submit(0x21, new Transfer(i, 1)));
+
+        assertThat(engine.call(0x22, new Transfer(10, 0)), is(10));
+        for (Future<Integer> future : futures) assertTrue(future.isDone());
+        assertThat(executed, is(asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10)));
+    }
+
+    @Test
+    public void testCallRunsOnCallerThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        boolean onCaller = engine.call(0x01, new ThrowingCallable<Boolean, DvbException>() {
+            @Override
+            public Boolean call() {
+                return Thread.currentThread() == caller;
+            }
+        });
+        assertTrue(onCaller);
+    }
+
+    @Test
+    public void testCommandsAfterCloseFail() throws Exception {
+        engine.close();
+
+        try {
+            engine.submit(0x01, new Transfer(0, 0));
+            fail("Expected exception");
+        } catch (DvbException e) {
+            assertThat(e.getErrorCode(), is(IO_EXCEPTION));
+        }
+
+        try {
+            engine.call(0x01, new Transfer(1, 0));
+            fail("Expected exception");
+        } catch (DvbException e) {
+            assertThat(e.getErrorCode(), is(IO_EXCEPTION));
+        }
+
+        assertTrue(executed.isEmpty());
+    }
+
+    @Test
+    public void testExceptionIsUnwrapped() throws Exception {
+        try {
+            engine.call(0x01, new ThrowingCallable<Void, DvbException>() {
+                @Override
+                public Void call() throws DvbException {
+                    throw new DvbException(HARDWARE_EXCEPTION, "Simulated failure");
+                }
+            });
+            fail("Expected exception");
+        } catch (DvbException e) {
+            assertThat(e.getErrorCode(), is(HARDWARE_EXCEPTION));
+        }
+
+        // the engine keeps working after a failed command
+        assertThat(engine.call(0x01, new Transfer(1, 0)), is(1));
+    }
+
+    @Test
+    public void testLatencyIsRecordedPerCommand() throws Exception {
+        engine.call(0x10, new Transfer(0, 5));
+        engine.call(0x10, new Transfer(1, 5));
+        engine.call(0x20, new Transfer(2, 0));
+
+        assertThat(engine.getCommandCount(0x10), is(2L));
+        assertThat(engine.getCommandCount(0x20), is(1L));
+        assertThat(engine.getCommandCount(0x30), is(0L));
+        assertTrue(engine.getAverageLatencyUs(0x10) >= 5_000);
+        assertTrue(engine.getMaxLatencyUs(0x10) >= engine.getAverageLatencyUs(0x10));
+    }
+
+    private class Transfer implements ThrowingCallable<Integer, DvbException> {
+        private final int id;
+        private final long durationMs;
+
+        private Transfer(int id, long durationMs) {
+            this.id = id;
+            this.durationMs = durationMs;
+        }
+
+        @Override
+        public Integer call() throws DvbException {
+            try {
+                Thread.sleep(durationMs);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            executed.add(id);
+            return id;
+        }
+    }
+}
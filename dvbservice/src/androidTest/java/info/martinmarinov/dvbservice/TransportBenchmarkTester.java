@@ -0,0 +1,170 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.dvbservice;
+
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.Process;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import info.martinmarinov.drivers.tools.io.StreamSender;
+import info.martinmarinov.drivers.tools.io.StreamingMode;
+import info.martinmarinov.drivers.tools.io.StreamingStats;
+import info.martinmarinov.dvbservice.tools.InetAddressTools;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+/** Throughput and CPU cost of sending the stream to a client on the same device, TCP vs Unix domain socket **/
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class TransportBenchmarkTester {
+    private final static String TAG = TransportBenchmarkTester.class.getSimpleName();
+    private final static long STREAM_BYTES = 256L * 1024 * 1024;
+    private final static int SEND_BUFFER_BYTES = 1024 * 1024;
+
+    private ConnectionListener listener;
+
+    @Before
+    public void setUp() throws IOException {
+        listener = new ConnectionListener(InetAddressTools.getLocalLoopback(), TransportBenchmarkTester.class.getName(), 10_000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        listener.close();
+    }
+
+    @Test
+    public void compareTransports() throws Exception {
+        for (StreamingMode mode : new StreamingMode[] { StreamingMode.LOW_LATENCY, StreamingMode.throughput(64 * 1024, 100) }) {
+            run("TCP", mode, false); // warm up
+            run("TCP", mode, false);
+            run("Local", mode, true);
+        }
+    }
+
+    private void run(String transport, StreamingMode mode, boolean local) throws Exception {
+        final StreamingStats stats = new StreamingStats();
+        final StreamSender sender = new StreamSender(new TsSource(STREAM_BYTES), mode, stats);
+        final IOException[] failure = new IOException[1];
+        Thread server = new Thread() {
+            @Override
+            public void run() {
+                Connection connection = null;
+                try {
+                    connection = listener.accept();
+                    connection.setSendBufferSize(SEND_BUFFER_BYTES);
+                    sender.sendTo(connection.getChannel());
+                } catch (IOException e) {
+                    failure[0] = e;
+                } finally {
+                    try {
+                        sender.close();
+                        if (connection != null) connection.close();
+                    } catch (IOException ignored) {}
+                }
+            }
+        };
+
+        long startCpuMs = Process.getElapsedCpuTime();
+        long startNanos = System.nanoTime();
+        server.start();
+
+        long received = 0;
+        if (local) {
+            LocalSocket socket = new LocalSocket();
+            socket.connect(new LocalSocketAddress(listener.getLocalName()));
+            received = drain(socket.getInputStream());
+            socket.close();
+        } else {
+            Socket socket = new Socket(InetAddressTools.getLocalLoopback(), listener.getPort());
+            received = drain(socket.getInputStream());
+            socket.close();
+        }
+        server.join();
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long cpuMs = Process.getElapsedCpuTime() - startCpuMs;
+        double mbit = received * 8 / 1e6;
+        Log.i(TAG, String.format("%s, %s: %.0f Mbit/s, %.3f ms CPU per Mbit, %d B average write",
+                transport, mode, mbit / seconds, cpuMs / mbit, stats.getAverageWriteBytes()));
+
+        if (failure[0] != null) throw failure[0];
+        assertThat(received, equalTo(STREAM_BYTES));
+    }
+
+    private static long drain(InputStream inputStream) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        long total = 0;
+        int read;
+        while ((read = inputStream.read(buf)) >= 0) total += read;
+        return total;
+    }
+
+    /** Null packets at the rate the reader asks for them, as a pipe with a busy demux behind it would give **/
+    private static class TsSource implements ReadableByteChannel {
+        private final static int URB_BYTES = 188 * 7 * 21; // a typical bulk transfer
+        private final ByteBuffer urb = ByteBuffer.allocateDirect(URB_BYTES);
+        private long remaining;
+        private boolean open = true;
+
+        private TsSource(long bytes) {
+            this.remaining = bytes;
+            for (int i = 0; i < URB_BYTES; i += 188) urb.put(i, (byte) 0x47).put(i + 1, (byte) 0x1F).put(i + 2, (byte) 0xFF);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (remaining == 0) return -1;
+            urb.clear();
+            urb.limit((int) Math.min(Math.min(URB_BYTES, dst.remaining()), remaining));
+            int read = urb.remaining();
+            dst.put(urb);
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.dvbservice;
+
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Listens on a loopback TCP port and on a Unix domain socket in the abstract namespace at the same
+ * time and hands out whichever client connects first. Clients on the same device can skip the
+ * TCP stack by using the socket name.
+ */
+class ConnectionListener implements Closeable {
+    private final ServerSocket tcpSocket;
+    private final LocalServerSocket localSocket;
+    private final String localName;
+    private final int timeoutMs;
+
+    private final Queue<Connection> accepted = new ArrayDeque<>();
+    private boolean closed = false;
+
+    ConnectionListener(InetAddress address, String localName, int timeoutMs) throws IOException {
+        this.localName = localName;
+        this.timeoutMs = timeoutMs;
+
+        // Channel backed, so the transport stream can be written to it without copying
+        tcpSocket = ServerSocketChannel.open().socket();
+        try {
+            tcpSocket.bind(new InetSocketAddress(address, 0));
+            localSocket = new LocalServerSocket(localName);
+        } catch (IOException e) {
+            tcpSocket.close();
+            throw e;
+        }
+
+        new Thread("Accept TCP " + tcpSocket.getLocalPort()) {
+            @Override
+            public void run() {
+                try {
+                    while (true) onAccepted(new TcpConnection(tcpSocket.accept()));
+                } catch (IOException ignored) {
+                    // closed
+                }
+            }
+        }.start();
+
+        new Thread("Accept local " + localName) {
+            @Override
+            public void run() {
+                try {
+                    while (true) onAccepted(new LocalConnection(localSocket.accept()));
+                } catch (IOException ignored) {
+                    // closed
+                }
+            }
+        }.start();
+    }
+
+    int getPort() {
+        return tcpSocket.getLocalPort();
+    }
+
+    String getLocalName() {
+        return localName;
+    }
+
+    /** Waits for a client on either transport, throws SocketTimeoutException if none comes in time **/
+    synchronized Connection accept() throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            while (!closed && accepted.isEmpty()) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) throw new SocketTimeoutException("No client connected for " + timeoutMs + " ms");
+                wait(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (closed) throw new SocketException("Socket closed");
+        return accepted.remove();
+    }
+
+    private synchronized void onAccepted(Connection connection) throws IOException {
+        if (closed) {
+            connection.close();
+            throw new SocketException("Socket closed");
+        }
+        accepted.add(connection);
+        notifyAll();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+            while (!accepted.isEmpty()) quietClose(accepted.remove());
+        }
+
+        try {
+            // Closing a LocalServerSocket doesn't wake up a thread blocked in accept, connecting does
+            LocalSocket wakeUp = new LocalSocket();
+            wakeUp.connect(new LocalSocketAddress(localName));
+            wakeUp.close();
+        } catch (IOException ignored) {
+            // the accepting thread has already finished
+        }
+
+        try {
+            tcpSocket.close();
+        } finally {
+            localSocket.close();
+        }
+    }
+
+    private static void quietClose(Connection connection) {
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+            // never handed out, nobody is using it
+        }
+    }
+}
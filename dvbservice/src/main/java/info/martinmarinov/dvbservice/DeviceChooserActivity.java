@@ -54,6 +54,8 @@ public class DeviceChooserActivity extends FragmentActivity implements ListPicke
     private final static String CONTRACT_ERROR_CODE = "ErrorCode";
     private final static String CONTRACT_CONTROL_PORT = "ControlPort";
     private final static String CONTRACT_TRANSFER_PORT = "TransferPort";
+    private final static String CONTRACT_CONTROL_SOCKET_NAME = "ControlSocketName";
+    private final static String CONTRACT_TRANSFER_SOCKET_NAME = "TransferSocketName";
     private final static String CONTRACT_DEVICE_NAME = "DeviceName";
     private final static String CONTRACT_RAW_TRACE = "RawTrace";
     private final static String CONTRACT_USB_PRODUCT_IDS = "ProductIds";
@@ -142,6 +144,8 @@ public class DeviceChooserActivity extends FragmentActivity implements ListPicke
 
         response.putExtra(CONTRACT_CONTROL_PORT, addresses.getControlPort());
         response.putExtra(CONTRACT_TRANSFER_PORT, addresses.getTransferPort());
+        response.putExtra(CONTRACT_CONTROL_SOCKET_NAME, addresses.getControlSocketName());
+        response.putExtra(CONTRACT_TRANSFER_SOCKET_NAME, addresses.getTransferSocketName());
 
         finishWith(RESULT_OK);
     }
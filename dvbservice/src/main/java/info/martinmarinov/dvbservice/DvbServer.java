@@ -26,40 +26,38 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketException;
+import java.util.UUID;
 
 import info.martinmarinov.drivers.DvbDevice;
 import info.martinmarinov.drivers.DvbException;
 
 class DvbServer implements Closeable {
     private final static int SOCKET_TIMEOUT_MS = 20 * 1_000;
-    private final ServerSocket controlSocket = new ServerSocket();
-    private final ServerSocket transferSocket = new ServerSocket();
+    private final static int TRANSFER_SEND_BUFFER_BYTES = 1024 * 1024; // ~250 ms of a full mux
 
     private final DvbDevice dvbDevice;
+    private final SignalSampler signalSampler;
 
-    DvbServer(DvbDevice dvbDevice) throws IOException {
+    private ConnectionListener controlListener;
+    private ConnectionListener transferListener;
+
+    DvbServer(DvbDevice dvbDevice) {
         this.dvbDevice = dvbDevice;
+        this.signalSampler = new SignalSampler(dvbDevice);
     }
 
     DvbServerPorts bind(InetAddress address) throws IOException {
-        return bind(new InetSocketAddress(address, 0));
-    }
-
-    private DvbServerPorts bind(InetSocketAddress address) throws IOException {
+        // Random names, so that a client has to be told where to connect the same way as with the ports
+        String name = DvbServer.class.getName() + "." + UUID.randomUUID();
         try {
-            controlSocket.bind(address);
-            transferSocket.bind(address);
+            controlListener = new ConnectionListener(address, name + ".control", SOCKET_TIMEOUT_MS);
+            transferListener = new ConnectionListener(address, name + ".transfer", SOCKET_TIMEOUT_MS);
 
-            controlSocket.setSoTimeout(SOCKET_TIMEOUT_MS);
-            transferSocket.setSoTimeout(SOCKET_TIMEOUT_MS);
-            if (!controlSocket.getInetAddress().equals(transferSocket.getInetAddress()))
-                throw new IllegalStateException();
-
-            return new DvbServerPorts(controlSocket.getLocalPort(), transferSocket.getLocalPort());
+            return new DvbServerPorts(
+                    controlListener.getPort(), transferListener.getPort(),
+                    controlListener.getLocalName(), transferListener.getLocalName()
+            );
         } catch (IOException e) {
             close();
             throw e;
@@ -68,27 +66,29 @@ class DvbServer implements Closeable {
 
     void open() throws DvbException {
         dvbDevice.open();
+        signalSampler.start();
     }
 
     @Override
     public void close() {
+        stopSignalSampler();
         quietClose(dvbDevice);
-        quietClose(controlSocket);
-        quietClose(transferSocket);
+        quietClose(controlListener);
+        quietClose(transferListener);
     }
 
     void serve() throws IOException {
         DataInputStream inputStream = null;
         DataOutputStream outputStream = null;
-        Socket control = null;
+        Connection control = null;
         try {
-            control = controlSocket.accept();
-            control.setTcpNoDelay(true);
+            control = controlListener.accept();
+            signalSampler.setClientConnected(true);
             inputStream = new DataInputStream(control.getInputStream());
             outputStream = new DataOutputStream(control.getOutputStream());
 
             final InputStream finInputStream = inputStream;
-            TransferThread worker = new TransferThread(dvbDevice, transferSocket, new TransferThread.OnClosedCallback() {
+            TransferThread worker = new TransferThread(dvbDevice, transferListener, TRANSFER_SEND_BUFFER_BYTES, new TransferThread.OnClosedCallback() {
                 @Override
                 public void onClosed() {
                     // Close input stream to cancel the request parsing
@@ -113,36 +113,26 @@ class DvbServer implements Closeable {
             IOException workerException = worker.signalAndWaitToDie();
             if (workerException != null && !(workerException instanceof SocketException)) throw workerException;
         } finally {
+            signalSampler.setClientConnected(false);
             quietClose(inputStream);
             quietClose(outputStream);
             quietClose(control);
         }
     }
     
-    private static void quietClose(Closeable c) {
-        if (c != null) {
-            try {
-                c.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-    }
-
-    private static void quietClose(Socket socket) {
-        if (socket != null) {
-            try {
-                socket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    private void stopSignalSampler() {
+        signalSampler.interrupt();
+        try {
+            signalSampler.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
         }
     }
 
-    private static void quietClose(ServerSocket socket) {
-        if (socket != null) {
+    private static void quietClose(Closeable c) {
+        if (c != null) {
             try {
-                socket.close();
+                c.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -25,10 +25,14 @@ import java.io.Serializable;
 class DvbServerPorts implements Serializable {
     private final int controlPort;
     private final int transferPort;
+    private final String controlSocketName;
+    private final String transferSocketName;
 
-    DvbServerPorts(int controlPort, int transferPort) {
+    DvbServerPorts(int controlPort, int transferPort, String controlSocketName, String transferSocketName) {
         this.controlPort = controlPort;
         this.transferPort = transferPort;
+        this.controlSocketName = controlSocketName;
+        this.transferSocketName = transferSocketName;
     }
 
     int getControlPort() {
@@ -38,4 +42,14 @@ class DvbServerPorts implements Serializable {
     int getTransferPort() {
         return transferPort;
     }
-}
\ No newline at end of file
+
+    /** @return the same control endpoint as a Unix domain socket in the abstract namespace */
+    String getControlSocketName() {
+        return controlSocketName;
+    }
+
+    /** @return the same transfer endpoint as a Unix domain socket in the abstract namespace */
+    String getTransferSocketName() {
+        return transferSocketName;
+    }
+}
@@ -35,6 +35,7 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import android.util.Log;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.List;
 
@@ -88,7 +89,10 @@ public class DvbService extends Service {
             public void run() {
                 DvbServer dvbServer = null;
                 try {
-                    dvbServer = new DvbServer(getDeviceFromFilter(deviceFilter));
+                    DvbDevice dvbDevice = getDeviceFromFilter(deviceFilter);
+                    dvbDevice.setRecordingNamer(TsDumpFileUtils.getRecordingNamer(DvbService.this));
+                    dvbDevice.setTimeShiftDirectory(getTimeShiftDirectory());
+                    dvbServer = new DvbServer(dvbDevice);
                     DvbServerPorts dvbServerPorts = dvbServer.bind(InetAddressTools.getLocalLoopback());
                     dvbServer.open();
                     // Device was opened! Tell client it's time to connect
@@ -144,6 +148,12 @@ public class DvbService extends Service {
         startForeground(ONGOING_NOTIFICATION_ID, builder.build());
     }
 
+    private File getTimeShiftDirectory() {
+        File cache = getExternalCacheDir();
+        if (cache == null) cache = getCacheDir(); // no external storage
+        return new File(cache, "timeshift");
+    }
+
     private DvbDevice getDeviceFromFilter(DeviceFilter deviceFilter) throws DvbException {
         List<DvbDevice> dvbDevices = DvbUsbDeviceRegistry.getUsbDvbDevices(this);
         dvbDevices.addAll(TsDumpFileUtils.getDevicesForAllRecordings(this));
@@ -0,0 +1,66 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.dvbservice;
+
+import android.net.LocalSocket;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.GatheringByteChannel;
+
+class LocalConnection implements Connection {
+    private final LocalSocket socket;
+    private GatheringByteChannel channel;
+
+    LocalConnection(LocalSocket socket) {
+        this.socket = socket;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public synchronized GatheringByteChannel getChannel() {
+        // LocalSocket has no channel of its own, but its descriptor can be written to like a file.
+        // The stream does not own the descriptor, closing the socket closes it.
+        if (channel == null) channel = new FileOutputStream(socket.getFileDescriptor()).getChannel();
+        return channel;
+    }
+
+    @Override
+    public void setSendBufferSize(int size) throws IOException {
+        socket.setSendBufferSize(size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -25,13 +25,22 @@ import android.util.Log;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 import info.martinmarinov.drivers.DvbCapabilities;
 import info.martinmarinov.drivers.DvbDevice;
 import info.martinmarinov.drivers.DvbException;
+import info.martinmarinov.drivers.DvbRecording;
 import info.martinmarinov.drivers.DvbStatus;
 import info.martinmarinov.drivers.DeliverySystem;
+import info.martinmarinov.drivers.PidFilterStatus;
+import info.martinmarinov.drivers.PidStats;
+import info.martinmarinov.drivers.tools.SignalHistory;
+import info.martinmarinov.drivers.tools.io.StreamingMode;
+import info.martinmarinov.drivers.tools.io.StreamingStats;
+import info.martinmarinov.drivers.tools.io.TimeShiftBuffer;
 
 /**
  * The client sends a command consisting of a variable number of Longs in the following format:
@@ -53,8 +62,23 @@ enum Request {
                     // Clients can use it to determine whether new features
                     // are available.
                     // WARNING: Backward compatibility should always be ensured
+                    //
+                    // Versions:
+                    // 0 - the original REQ_EXIT to REQ_GET_CAPABILITIES
+                    // 1 - REQ_GET_SIGNAL_HISTORY
+                    // 2 - REQ_GET_STATUS parameter 9, stale values as a tune is in progress
+                    // 3 - REQ_GET_PID_FILTER_STATUS
+                    // 4 - REQ_GET_PID_STATS
+                    // 5 - REQ_SET_SERVICE
+                    // 6 - REQ_SET_SPTS_REMUX
+                    // 7 - REQ_START_RECORDING, REQ_STOP_RECORDING and REQ_GET_RECORDING_STATUS
+                    // 8 - REQ_SET_TIME_SHIFT to REQ_GET_TIME_SHIFT_STATUS
+                    // 9 - REQ_SET_STREAMING_MODE and REQ_GET_STREAMING_STATS
+                    // 10 - REQ_GET_RECORDING_STATUS parameter 6 is the dropped bytes rather than the stall ms
+                    // 11 - REQ_GET_PID_FILTER_STATUS parameter 8, failed hardware filter writes
+                    // 12 - REQ_GET_SIGNAL_HISTORY buckets are 6 longs, BER is no longer clamped to 16 bits
                     return Response.success(
-                            0L, // parameter 1, version, when adding capabilities, change that number.
+                            12L, // parameter 1, version, when adding capabilities, change that number and list it above.
                             ALL_REQUESTS.length // parameter 2, can be useful for determining supported commands
                     );
                 }
@@ -84,11 +108,14 @@ enum Request {
     REQ_GET_STATUS (new Executor() {
         @Override
         public Response execute(DvbDevice dvbDevice, long ... ignored) throws DvbException {
+            dvbDevice.takeStaleStatusReads(); // only the reads below count
             int snr = dvbDevice.readSnr();
             int bitErrorRate = dvbDevice.readBitErrorRate();
             int droppedUsbFps = dvbDevice.readDroppedUsbFps();
             int rfStrengthPercentage = dvbDevice.readRfStrengthPercentage();
             Set<DvbStatus> status = dvbDevice.getStatus();
+            // true if any of the reads above returned a last known value rather than a fresh one
+            boolean stale = dvbDevice.takeStaleStatusReads();
             boolean hasSignal = status.contains(DvbStatus.FE_HAS_SIGNAL);
             boolean hasCarrier = status.contains(DvbStatus.FE_HAS_CARRIER);
             boolean hasSync = status.contains(DvbStatus.FE_HAS_SYNC);
@@ -102,7 +129,8 @@ enum Request {
                     hasSignal ? 1L : 0L, // parameter 5
                     hasCarrier ? 1L : 0L, // parameter 6
                     hasSync ? 1L : 0L, // parameter 7
-                    hasLock ? 1L : 0L // parameter 8
+                    hasLock ? 1L : 0L, // parameter 8
+                    stale ? 1L : 0L // parameter 9, values are the last known ones as a tune is in progress
             );
         }
     }),
@@ -136,8 +164,230 @@ enum Request {
                     (long) dvbDevice.getDeviceFilter().getProductId() // parameter 6
             );
         }
+    }),
+    REQ_GET_SIGNAL_HISTORY(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            int tier = (int) payload[0];            // 0 - 1 s buckets, 1 - 1 min buckets, 2 - 1 h buckets
+            long fromMs = payload[1];               // only return buckets ending after this time in ms since epoch
+                                                    // To page through a window, call again with the end of the last bucket received
+            if (tier < 0 || tier >= SignalHistory.getTierCount()) throw new IllegalArgumentException("Unknown tier " + tier);
+
+            long[] result = new long[Response.MAX_PAYLOAD];
+            int maxBuckets = (result.length - 2) / SignalHistory.LONGS_PER_BUCKET;
+            int buckets = dvbDevice.getSignalHistory().read(tier, fromMs, result, 2, maxBuckets);
+
+            result[0] = SignalHistory.getResolutionMs(tier); // parameter 1, width of a bucket in ms
+            result[1] = buckets;                            // parameter 2, number of buckets that follow
+                                                            // followed by the buckets, see SignalHistory for the encoding
+            return Response.success(Arrays.copyOf(result, 2 + buckets * SignalHistory.LONGS_PER_BUCKET));
+        }
+    }),
+    REQ_GET_PID_FILTER_STATUS(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            PidFilterStatus status = dvbDevice.readPidFilterStatus();
+            return Response.success(
+                    status.isHardwareFiltering() ? 1L : 0L, // parameter 1
+                    (long) status.getHardwareSlots(), // parameter 2
+                    (long) status.getHardwareSlotsInUse(), // parameter 3
+                    status.getHardwareSlotWrites(), // parameter 4
+                    status.getUsbBytesPerSecond(), // parameter 5
+                    status.getFullMuxBytesPerSecond(), // parameter 6
+                    status.getUsbBytesSavedPerSecond(), // parameter 7
+                    status.getFailedWrites() // parameter 8, times the hardware filter couldn't be written and the full mux is sent instead
+            );
+        }
+    }),
+    REQ_GET_PID_STATS(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            int fromPid = payload.length > 0 ? (int) payload[0] : 0;
+                                                    // only return PIDs not smaller than this
+                                                    // To page through the mux, call again with the last PID received + 1
+            int maxPids = (Response.MAX_PAYLOAD - 1) / LONGS_PER_PID;
+            List<PidStats> stats = dvbDevice.readPidStats(fromPid, maxPids);
+
+            long[] result = new long[1 + stats.size() * LONGS_PER_PID];
+            result[0] = stats.size(); // parameter 1, number of PIDs that follow
+            int p = 1;
+            for (PidStats pid : stats) {
+                result[p++] = pid.getPid() | (pid.isScrambled() ? 1L << 16 : 0L); // PID, bit 16 is set if scrambled
+                result[p++] = pid.getPackets();
+                result[p++] = pid.getBytes();
+                result[p++] = pid.getCcErrors();
+                result[p++] = pid.getTeiErrors();
+                result[p++] = pid.getLastSeenMs(); // ms since epoch
+            }
+            return Response.success(result);
+        }
+    }),
+    REQ_SET_SERVICE(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            int programNumber = (int) payload[0];   // program number from the PAT, same as the service_id in the SDT
+                                                    // The PSI, PMT, PCR and component PIDs of the program are resolved
+                                                    // and kept up to date by the driver until REQ_SET_PIDS is called
+            boolean resolved = dvbDevice.setService(programNumber);
+            return Response.success(
+                    resolved ? 1L : 0L // parameter 1, 1 if the PIDs were already known, 0 if they will follow once the PMT arrives
+            );
+        }
+    }),
+    REQ_SET_SPTS_REMUX(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            int programNumber = (int) payload[0];   // program to remux the stream to, 0 to pass the mux through unchanged
+            long flags = payload.length > 1 ? payload[1] : 0;
+                                                    // bit 0 - drop null packets
+                                                    // bit 1 - drop packets of PIDs that the program doesn't reference
+            if (programNumber == 0) {
+                dvbDevice.disableSptsRemux();
+            } else {
+                dvbDevice.setSptsRemux(programNumber, (flags & 1) != 0, (flags & 2) != 0);
+            }
+            return Response.SUCCESS;
+        }
+    }),
+    REQ_START_RECORDING(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            int[] programNumbers = new int[payload.length];
+                                                    // programs to record each to its own file as a single program stream
+                                                    // No programs records the full mux to one file
+                                                    // The files are written by the service, the stream doesn't have to be read
+            for (int i = 0; i < payload.length; i++) programNumbers[i] = (int) payload[i];
+            dvbDevice.startRecording(programNumbers);
+            return Response.SUCCESS;
+        }
+    }),
+    REQ_STOP_RECORDING(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            dvbDevice.stopRecording();              // returns once the files are written out
+            return Response.SUCCESS;
+        }
+    }),
+    REQ_GET_RECORDING_STATUS(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            DvbRecording recording = dvbDevice.getRecording();
+            if (recording == null) return Response.success(0L);
+
+            return Response.success(
+                    recording.getFailure() == null ? 1L : 2L, // parameter 1, 0 - not recording, 1 - recording, 2 - failed to write
+                    recording.getStartedMs(), // parameter 2, ms since epoch
+                    recording.getBytesRecorded(), // parameter 3
+                    recording.getBytesWritten(), // parameter 4, the rest is still buffered
+                    (long) recording.getSegments(), // parameter 5, files started so far
+                    recording.getDroppedBytes() // parameter 6, bytes left out because the storage couldn't keep up
+            );
+        }
+    }),
+    REQ_SET_TIME_SHIFT(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            long bytes = payload[0];                // size of the time shift buffer on disk, 0 to stream live
+                                                    // Takes effect when the transfer socket is connected next,
+                                                    // so send it before connecting
+            dvbDevice.setTimeShift(bytes);
+            return Response.SUCCESS;
+        }
+    }),
+    REQ_TIME_SHIFT_PAUSE(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            boolean paused = payload[0] != 0;       // 1 to pause, 0 to carry on from where it was paused
+            requireTimeShift(dvbDevice).setPaused(paused);
+            return Response.SUCCESS;
+        }
+    }),
+    REQ_TIME_SHIFT_SEEK(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            long deltaMs = payload[0];              // ms to move the stream by, negative to go back
+                                                    // Lands on the closest random access point before
+            TimeShiftBuffer timeShift = requireTimeShift(dvbDevice);
+            timeShift.seekBy(deltaMs);
+            return Response.success(
+                    timeShift.getDelayMs() // parameter 1, ms behind the live stream after the seek
+            );
+        }
+    }),
+    REQ_TIME_SHIFT_LIVE(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            TimeShiftBuffer timeShift = requireTimeShift(dvbDevice);
+            timeShift.goLive();
+            timeShift.setPaused(false);
+            return Response.SUCCESS;
+        }
+    }),
+    REQ_GET_TIME_SHIFT_STATUS(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            TimeShiftBuffer timeShift = dvbDevice.getTimeShift();
+            if (timeShift == null) return Response.success(0L); // parameter 1, not time shifting, no other parameters
+
+            return Response.success(
+                    timeShift.isPaused() ? 2L : 1L, // parameter 1, 0 - not time shifting, 1 - time shifting, 2 - paused
+                    timeShift.getDelayMs(), // parameter 2, ms behind the live stream
+                    timeShift.getBufferedMs(), // parameter 3, ms the stream can go back from live
+                    timeShift.getDroppedBytes() // parameter 4, bytes lost because the storage couldn't keep up
+            );
+        }
+    }),
+    REQ_SET_STREAMING_MODE(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            int mode = (int) payload[0];            // 0 - low latency, send data as soon as it arrives
+                                                    // 1 - throughput, send it in larger batches
+                                                    // Takes effect when the transfer socket is connected next,
+                                                    // so send it before connecting
+            switch (mode) {
+                case 0:
+                    dvbDevice.setStreamingMode(StreamingMode.LOW_LATENCY);
+                    break;
+                case 1:
+                    long batchKiB = payload.length > 1 ? payload[1] : StreamingMode.DEFAULT_BATCH_BYTES / 1024;
+                                                    // optional, send once this many KiB are collected, at most 1024
+                    long batchMs = payload.length > 2 ? payload[2] : StreamingMode.DEFAULT_BATCH_MS;
+                                                    // optional, send once the oldest data collected is this many ms old
+                    // Check before narrowing, a huge value would otherwise wrap around into a valid looking one
+                    if (batchKiB <= 0 || batchKiB > StreamingMode.MAX_BATCH_BYTES / 1024 || batchMs < 0 || batchMs > Integer.MAX_VALUE) {
+                        throw new DvbException(DvbException.ErrorCode.BAD_API_USAGE, "Invalid batch "+batchKiB+" KiB / "+batchMs+" ms");
+                    }
+                    dvbDevice.setStreamingMode(StreamingMode.throughput((int) batchKiB * 1024, (int) batchMs));
+                    break;
+                default:
+                    throw new DvbException(DvbException.ErrorCode.BAD_API_USAGE, "Unknown streaming mode " + mode);
+            }
+            return Response.SUCCESS;
+        }
+    }),
+    REQ_GET_STREAMING_STATS(new Executor() {
+        @Override
+        public Response execute(DvbDevice dvbDevice, long... payload) throws DvbException {
+            StreamingStats stats = dvbDevice.getStreamingStats();
+            return Response.success(
+                    dvbDevice.getStreamingMode().isLowLatency() ? 0L : 1L, // parameter 1, mode for the next connection as in REQ_SET_STREAMING_MODE
+                    stats.getWrites(), // parameter 2, writes to the transfer socket in this session
+                    stats.getBytesSent(), // parameter 3, bytes sent in this session
+                    stats.getAverageWriteBytes(), // parameter 4, average write size in bytes
+                    stats.getAverageFlushLatencyNanos() / 1_000L, // parameter 5, average us from data arriving to it being sent
+                    stats.getMaxFlushLatencyNanos() / 1_000L // parameter 6, worst case of the above in us
+            );
+        }
     });
 
+    private final static int LONGS_PER_PID = 6;
+
+    private static TimeShiftBuffer requireTimeShift(DvbDevice dvbDevice) throws DvbException {
+        TimeShiftBuffer timeShift = dvbDevice.getTimeShift();
+        if (timeShift == null) throw new DvbException(DvbException.ErrorCode.BAD_API_USAGE, "Not time shifting, see REQ_SET_TIME_SHIFT");
+        return timeShift;
+    }
+
     private final static String TAG = Request.class.getSimpleName();
     private final static Request[] ALL_REQUESTS = values();
 
@@ -33,8 +33,12 @@ import java.io.IOException;
  *
  * Basically the success flag is always part of the payload, so the payload
  * always consists of at least one value.
+ *
+ * Clients may read N as a signed byte so responses carry at most MAX_PAYLOAD longs apart from the flag
  */
 class Response {
+    static final int MAX_PAYLOAD = 126;
+
     static Response ERROR = error();
     static Response SUCCESS = success();
 
@@ -50,6 +54,7 @@ class Response {
     }
 
     private Response(boolean success, long ... payload) {
+        if (payload.length > MAX_PAYLOAD) throw new IllegalArgumentException("Payload too long " + payload.length);
         this.success = success;
         this.payload = payload;
     }
@@ -0,0 +1,124 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package info.martinmarinov.dvbservice;
+
+import android.util.Log;
+
+import java.util.Set;
+
+import info.martinmarinov.drivers.DvbDevice;
+import info.martinmarinov.drivers.DvbException;
+import info.martinmarinov.drivers.DvbStatus;
+import info.martinmarinov.drivers.tools.SignalHistory;
+
+/**
+ * Periodically reads the signal quality of the device and records it in its SignalHistory
+ * so clients can later fetch it via Request.REQ_GET_SIGNAL_HISTORY
+ *
+ * While no control client is connected it samples at a much lower rate so an idle server
+ * doesn't keep the demodulator busy, but the longer tiers of the history still have data.
+ */
+class SignalSampler extends Thread {
+    private final static String TAG = SignalSampler.class.getSimpleName();
+    private final static long SAMPLE_INTERVAL_MS = 1_000L;
+    private final static long IDLE_SAMPLE_INTERVAL_MS = 30_000L;
+
+    private final DvbDevice dvbDevice;
+    private final Object lock = new Object();
+
+    private boolean clientConnected = false; // guarded by lock
+    private boolean sampleNow = false; // guarded by lock
+
+    private long lastDroppedFrames = -1;
+    private long lastDroppedFramesTime;
+
+    SignalSampler(DvbDevice dvbDevice) {
+        this.dvbDevice = dvbDevice;
+    }
+
+    void setClientConnected(boolean connected) {
+        synchronized (lock) {
+            // Don't make a freshly connected client wait for the idle interval to elapse
+            if (connected && !clientConnected) sampleNow = true;
+            clientConnected = connected;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        setName(SignalSampler.class.getSimpleName());
+        setPriority(MIN_PRIORITY);
+
+        long nextSample = System.currentTimeMillis();
+        try {
+            while (!isInterrupted()) {
+                long now = System.currentTimeMillis();
+                long interval;
+                synchronized (lock) {
+                    if (sampleNow) {
+                        sampleNow = false;
+                        nextSample = now;
+                    }
+                    if (now < nextSample) {
+                        lock.wait(nextSample - now);
+                        continue;
+                    }
+                    interval = clientConnected ? SAMPLE_INTERVAL_MS : IDLE_SAMPLE_INTERVAL_MS;
+                }
+                nextSample += interval;
+                if (nextSample < now) nextSample = now + interval; // we fell behind, don't try to catch up
+
+                try {
+                    sample(now);
+                } catch (DvbException e) {
+                    // Device is probably not tuned yet, there is nothing to record
+                    Log.d(TAG, "Skipping sample: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // interrupted is ok
+        }
+    }
+
+    private void sample(long now) throws DvbException {
+        int snr = dvbDevice.readSnr();
+        int ber = dvbDevice.readBitErrorRate();
+        int rfStrength = dvbDevice.readRfStrengthPercentage();
+        Set<DvbStatus> status = dvbDevice.getStatus();
+        int droppedFps = readDroppedFps(now);
+
+        dvbDevice.getSignalHistory().record(now, snr, ber, rfStrength, droppedFps, SignalHistory.statusBits(status));
+    }
+
+    private int readDroppedFps(long now) throws DvbException {
+        // readDroppedUsbFps resets on every read so it belongs to the client, use the monotonic counter instead
+        long droppedFrames = dvbDevice.readDroppedUsbFrames();
+        int fps = 0;
+        if (lastDroppedFrames >= 0 && now > lastDroppedFramesTime) {
+            fps = (int) (((droppedFrames - lastDroppedFrames) * 1_000L) / (now - lastDroppedFramesTime));
+        }
+        lastDroppedFrames = droppedFrames;
+        lastDroppedFramesTime = now;
+        return fps;
+    }
+}
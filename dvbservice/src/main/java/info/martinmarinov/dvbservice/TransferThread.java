@@ -21,32 +21,39 @@
 package info.martinmarinov.dvbservice;
 
 import java.io.Closeable;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 import info.martinmarinov.drivers.DvbDevice;
+import info.martinmarinov.drivers.tools.io.StreamSender;
 
 class TransferThread extends Thread {
     private final DvbDevice dvbDevice;
-    private final ServerSocket serverSocket;
+    private final ConnectionListener listener;
+    private final int sendBufferSize;
     private final OnClosedCallback callback;
 
     private IOException lastException = null;
     private InputStream transportStream;
+    private StreamSender sender;
 
-    TransferThread(DvbDevice dvbDevice, ServerSocket serverSocket, OnClosedCallback callback) {
+    /**
+     * @param sendBufferSize SO_SNDBUF of the accepted socket in bytes, 0 to keep the system default
+     */
+    TransferThread(DvbDevice dvbDevice, ConnectionListener listener, int sendBufferSize, OnClosedCallback callback) {
         this.dvbDevice = dvbDevice;
-        this.serverSocket = serverSocket;
+        this.listener = listener;
+        this.sendBufferSize = sendBufferSize;
         this.callback = callback;
     }
 
     @Override
     public void interrupt() {
         super.interrupt();
-        quietClose(serverSocket);
+        quietClose(listener);
         quietClose(transportStream);
     }
 
@@ -55,15 +62,10 @@ class TransferThread extends Thread {
         setName(TransferThread.class.getSimpleName());
         setPriority(NORM_PRIORITY);
 
-        OutputStream os = null;
-        Socket socket = null;
+        Connection connection = null;
         try {
-            socket = serverSocket.accept();
-            socket.setTcpNoDelay(true);
-
-            byte[] buf = new byte[5 * 188];
-
-            os = socket.getOutputStream();
+            connection = listener.accept();
+            if (sendBufferSize > 0) connection.setSendBufferSize(sendBufferSize);
 
             transportStream = dvbDevice.getTransportStream(new DvbDevice.StreamCallback() {
                 @Override
@@ -77,32 +79,23 @@ class TransferThread extends Thread {
                     interrupt();
                 }
             });
-            while (!isInterrupted()) {
-                int inlength = transportStream.read(buf);
-
-                if (inlength > 0) {
-                    os.write(buf, 0, inlength);
-                } else {
-                    // No data, sleep for a bit until available
-                    quietSleep(10);
-                }
-            }
+            sender = new StreamSender(channelOf(transportStream), dvbDevice.getStreamingMode(), dvbDevice.getStreamingStats());
+            sender.sendTo(connection.getChannel());
         } catch (IOException e) {
-            lastException = e;
+            // Closing the channels is how the thread is stopped
+            if (!isInterrupted()) lastException = e;
         } finally {
-            quietClose(os);
-            quietClose(socket);
+            quietClose(sender);
+            quietClose(connection);
             quietClose(transportStream);
             callback.onClosed();
         }
     }
 
-    private void quietSleep(long ms) {
-        try {
-            Thread.sleep(ms);
-        } catch (InterruptedException e) {
-            interrupt();
-        }
+    private static ReadableByteChannel channelOf(InputStream inputStream) {
+        // The native pipe is a file descriptor, read it without copying through a byte array
+        if (inputStream instanceof FileInputStream) return ((FileInputStream) inputStream).getChannel();
+        return Channels.newChannel(inputStream);
     }
 
     private void quietClose(Closeable c) {
@@ -115,26 +108,6 @@ class TransferThread extends Thread {
         }
     }
 
-    private void quietClose(Socket s) {
-        if (s != null) {
-            try {
-                s.close();
-            } catch (IOException e) {
-                if (lastException == null) lastException = e;
-            }
-        }
-    }
-
-    private void quietClose(ServerSocket s) {
-        if (s != null) {
-            try {
-                s.close();
-            } catch (IOException e) {
-                if (lastException == null) lastException = e;
-            }
-        }
-    }
-
     IOException signalAndWaitToDie() {
         if (isAlive()) {
             interrupt();
@@ -34,6 +34,7 @@ import java.util.List;
 import java.util.Locale;
 
 import info.martinmarinov.drivers.DvbDevice;
+import info.martinmarinov.drivers.DvbRecording;
 import info.martinmarinov.drivers.file.DvbFileDevice;
 
 public class TsDumpFileUtils {
@@ -53,6 +54,19 @@ public class TsDumpFileUtils {
         return new File(root, filename);
     }
 
+    /** Recordings of the full mux are named like getFor, recordings of a program get -p and the program number appended **/
+    public static DvbRecording.FileNamer getRecordingNamer(final Context ctx) {
+        return new DvbRecording.FileNamer() {
+            @Override
+            public File getFile(long frequency, long bandwidth, int programNumber, int segment) {
+                // every segment is named after the time it starts
+                File file = getFor(ctx, frequency, bandwidth, new Date());
+                if (programNumber == DvbRecording.FULL_MUX) return file;
+                return new File(file.getParentFile(), file.getName().replace(".ts", "-p" + programNumber + ".ts"));
+            }
+        };
+    }
+
     public static List<DvbDevice> getDevicesForAllRecordings(Context ctx) {
         LinkedList<DvbDevice> devices = new LinkedList<>();
         Resources resources = ctx.getResources();
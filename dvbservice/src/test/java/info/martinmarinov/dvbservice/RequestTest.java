@@ -25,6 +25,7 @@ import android.util.Log;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -34,16 +35,25 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.util.Arrays;
 
 import info.martinmarinov.drivers.DvbDevice;
+import info.martinmarinov.drivers.DvbRecording;
 import info.martinmarinov.drivers.DvbStatus;
+import info.martinmarinov.drivers.PidFilterStatus;
+import info.martinmarinov.drivers.PidStats;
 import info.martinmarinov.drivers.tools.SetUtils;
+import info.martinmarinov.drivers.tools.SignalHistory;
+import info.martinmarinov.drivers.tools.io.StreamingMode;
+import info.martinmarinov.drivers.tools.io.StreamingStats;
 import info.martinmarinov.drivers.DeliverySystem;
 
 import static info.martinmarinov.drivers.tools.SetUtils.setOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Answers.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -68,7 +78,7 @@ public class RequestTest {
 
         assertThat(response.length, is(3));
         assertThat(response[0], is(1L)); // success
-        assertThat(response[1], is(0L)); // version of protocol
+        assertThat(response[1], is(12L)); // version of protocol
         assertThat(response[2], is((long) Request.values().length)); // number of available requests
     }
 
@@ -98,10 +108,11 @@ public class RequestTest {
         when(dvbDevice.readDroppedUsbFps()).thenReturn(456);
         when(dvbDevice.readRfStrengthPercentage()).thenReturn(10);
         when(dvbDevice.readSnr()).thenReturn(300);
+        when(dvbDevice.takeStaleStatusReads()).thenReturn(false, true);
 
         long[] response = getRawResponse(3);
 
-        assertThat(response.length, is(9));
+        assertThat(response.length, is(10));
         assertThat(response[0], is(1L)); // success
         assertThat(response[1], is(300L)); // SNR
         assertThat(response[2], is(123L)); // BER
@@ -111,6 +122,7 @@ public class RequestTest {
         assertThat(response[6], is(1L)); // has carrier
         assertThat(response[7], is(0L)); // no sync
         assertThat(response[8], is(0L)); // no lock
+        assertThat(response[9], is(1L)); // stale as a read returned the last known value
     }
 
     @Test
@@ -145,6 +157,166 @@ public class RequestTest {
         assertThat(response[6], is(0x2838L)); // USB product id
     }
 
+    @Test
+    public void testGetSignalHistory() throws Exception {
+        SignalHistory signalHistory = new SignalHistory();
+        signalHistory.record(5_000L, 300, 10, 80, 0, SignalHistory.statusBits(setOf(DvbStatus.FE_HAS_LOCK)));
+        signalHistory.record(6_000L, 200, 10, 80, 0, 0);
+        when(dvbDevice.getSignalHistory()).thenReturn(signalHistory);
+
+        long[] response = getRawResponse(6, SignalHistory.TIER_SECONDS, 6_000L);
+
+        assertThat(response.length, is(3 + SignalHistory.LONGS_PER_BUCKET));
+        assertThat(response[0], is(1L)); // success
+        assertThat(response[1], is(1_000L)); // resolution
+        assertThat(response[2], is(1L)); // only the second bucket ends after the requested time
+        assertThat(response[3], is(6_000L)); // bucket start
+        assertThat(response[4], is((1L << 48) | (200L << 32) | (200L << 16) | 200L)); // sample count and SNR
+    }
+
+    @Test
+    public void testGetPidFilterStatus() throws Exception {
+        when(dvbDevice.readPidFilterStatus()).thenReturn(new PidFilterStatus(true, 32, 3, 35, 188_000L, 3_760_000L, 2L));
+
+        long[] response = getRawResponse(7);
+
+        assertThat(response.length, is(9));
+        assertThat(response[0], is(1L)); // success
+        assertThat(response[1], is(1L)); // hardware filtering
+        assertThat(response[2], is(32L)); // slots
+        assertThat(response[3], is(3L)); // slots in use
+        assertThat(response[4], is(35L)); // slot writes
+        assertThat(response[5], is(188_000L)); // USB bytes per second
+        assertThat(response[6], is(3_760_000L)); // full mux bytes per second
+        assertThat(response[7], is(3_572_000L)); // saved bytes per second
+        assertThat(response[8], is(2L)); // failed writes
+    }
+
+    @Test
+    public void testGetPidStats() throws Exception {
+        when(dvbDevice.readPidStats(0x100, 20)).thenReturn(Arrays.asList(
+                new PidStats(0x100, 10, 1, 2, true, 5_000L),
+                new PidStats(0x101, 3, 0, 0, false, 4_000L)
+        ));
+
+        long[] response = getRawResponse(8, 0x100);
+
+        assertThat(response.length, is(14));
+        assertThat(response[0], is(1L)); // success
+        assertThat(response[1], is(2L)); // number of PIDs
+        assertThat(response[2], is(0x100L | 1L << 16)); // PID, scrambled
+        assertThat(response[3], is(10L)); // packets
+        assertThat(response[4], is(1880L)); // bytes
+        assertThat(response[5], is(1L)); // CC errors
+        assertThat(response[6], is(2L)); // TEI errors
+        assertThat(response[7], is(5_000L)); // last seen
+        assertThat(response[8], is(0x101L)); // second PID, not scrambled
+    }
+
+    @Test
+    public void testSetService() throws Exception {
+        when(dvbDevice.setService(0x1234)).thenReturn(true);
+
+        long[] response = getRawResponse(9, 0x1234);
+
+        verify(dvbDevice).setService(0x1234);
+        assertThat(response.length, is(2));
+        assertThat(response[0], is(1L)); // success
+        assertThat(response[1], is(1L)); // resolved
+    }
+
+    @Test
+    public void testSetSptsRemux() throws Exception {
+        getRawResponse(10, 0x1234, 0x3);
+        verify(dvbDevice).setSptsRemux(0x1234, true, true);
+
+        getRawResponse(10, 0);
+        verify(dvbDevice).disableSptsRemux();
+    }
+
+    @Test
+    public void testRecording() throws Exception {
+        getRawResponse(11);
+        verify(dvbDevice).startRecording();
+
+        getRawResponse(11, 0x1234, 0x1235);
+        verify(dvbDevice).startRecording(0x1234, 0x1235);
+
+        getRawResponse(12);
+        verify(dvbDevice).stopRecording();
+    }
+
+    @Test
+    public void testGetRecordingStatus() throws Exception {
+        when(dvbDevice.getRecording()).thenReturn(null);
+        long[] response = getRawResponse(13);
+        assertThat(response.length, is(2));
+        assertThat(response[1], is(0L)); // not recording
+
+        DvbRecording recording = mock(DvbRecording.class);
+        when(recording.getStartedMs()).thenReturn(1_500_000_000_000L);
+        when(recording.getBytesRecorded()).thenReturn(3_000_000L);
+        when(recording.getBytesWritten()).thenReturn(2_000_000L);
+        when(recording.getSegments()).thenReturn(1);
+        when(recording.getDroppedBytes()).thenReturn(7L);
+        when(dvbDevice.getRecording()).thenReturn(recording);
+
+        response = getRawResponse(13);
+        assertThat(response.length, is(7));
+        assertThat(response[0], is(1L)); // success
+        assertThat(response[1], is(1L)); // recording
+        assertThat(response[2], is(1_500_000_000_000L));
+        assertThat(response[3], is(3_000_000L));
+        assertThat(response[4], is(2_000_000L));
+        assertThat(response[5], is(1L));
+        assertThat(response[6], is(7L)); // bytes dropped
+    }
+
+    @Test
+    public void testTimeShift() throws Exception {
+        getRawResponse(14, 512L * 1024 * 1024);
+        verify(dvbDevice).setTimeShift(512L * 1024 * 1024);
+
+        when(dvbDevice.getTimeShift()).thenReturn(null);
+        long[] response = getRawResponse(18);
+        assertThat(response.length, is(2));
+        assertThat(response[0], is(1L)); // success
+        assertThat(response[1], is(0L)); // live
+
+        response = getRawResponse(15, 1);
+        assertThat(response.length, is(1));
+        assertThat(response[0], is(0L)); // error, not time shifting
+    }
+
+    @Test
+    public void testStreamingMode() throws Exception {
+        getRawResponse(19, 0);
+        verify(dvbDevice).setStreamingMode(StreamingMode.LOW_LATENCY);
+
+        long[] response = getRawResponse(19, 2);
+        assertThat(response[0], is(0L)); // error, unknown mode
+
+        response = getRawResponse(19, 1, (1L << 32) + 64);
+        assertThat(response[0], is(0L)); // error, would have wrapped around to 64 KiB
+
+        response = getRawResponse(19, 1, 2048);
+        assertThat(response[0], is(0L)); // error, more than the sender can hold
+
+        getRawResponse(19, 1, 1024, 100);
+        ArgumentCaptor<StreamingMode> mode = ArgumentCaptor.forClass(StreamingMode.class);
+        verify(dvbDevice, times(2)).setStreamingMode(mode.capture());
+        assertThat(mode.getValue().getBatchBytes(), is(1024 * 1024));
+        assertThat(mode.getValue().getBatchMs(), is(100));
+
+        when(dvbDevice.getStreamingMode()).thenReturn(StreamingMode.throughput(64 * 1024, 100));
+        when(dvbDevice.getStreamingStats()).thenReturn(new StreamingStats());
+        response = getRawResponse(20);
+        assertThat(response.length, is(7));
+        assertThat(response[0], is(1L)); // success
+        assertThat(response[1], is(1L)); // throughput
+        assertThat(response[2], is(0L)); // no writes yet
+    }
+
     /** Helper to do serialization/deserialization to bytes */
     private long[] getRawResponse(int requestOrdinal, long ... reqArgs) {
         try {
@@ -101,6 +101,19 @@ public class TsDumpFileUtilsTest {
         assertThat(res, nullValue());
     }
 
+    @SuppressWarnings("ConstantConditions")
+    @Test
+    public void testProgramRecordingNames() throws Exception {
+        File file = TsDumpFileUtils.getRecordingNamer(context).getFile(506_000_000L, 8_000_000L, 0x1234, 0);
+        assertThat(file.getParentFile(), equalTo(ROOT));
+        assertThat(file.getName().endsWith("-p4660.ts"), is(true));
+
+        // still listed as a recording that can be played back
+        TsDumpFileUtils.FreqBandwidth res = TsDumpFileUtils.getFreqAndBandwidth(file);
+        assertThat(res.freq, is(506_000_000L));
+        assertThat(res.bandwidth, is(8_000_000L));
+    }
+
     private static Date date(int year, int month, int day, int hour, int minute, int second) {
         Calendar c = new GregorianCalendar();
         c.set(Calendar.YEAR, year);
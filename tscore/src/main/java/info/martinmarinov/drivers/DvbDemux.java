@@ -0,0 +1,296 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import info.martinmarinov.drivers.tools.FastIntFilter;
+import info.martinmarinov.drivers.tools.PidStatsTable;
+import info.martinmarinov.drivers.ts.PsiParser;
+import info.martinmarinov.drivers.ts.ServiceModel;
+import info.martinmarinov.drivers.ts.SptsRemuxer;
+import info.martinmarinov.drivers.ts.TsPacketSync;
+import info.martinmarinov.usbxfer.ByteSink;
+import info.martinmarinov.drivers.tools.io.TsPipe;
+
+public class DvbDemux implements ByteSink,Closeable {
+    private static final boolean DVB_DEMUX_FEED_ERR_PKTS = true;
+    private static final boolean CHECK_PACKET_INTEGRITY = true;
+
+    private final TsPacketSync packetSync = new TsPacketSync(new TsPacketSync.PacketSink() {
+        @Override
+        public void packet(byte[] buf, int offset) throws IOException {
+            swfilterPacket(buf, offset);
+        }
+    });
+    private final TsPipe pipe;
+    private final OutputStream out;
+    private final FastIntFilter filter = new FastIntFilter(0x1fff);
+    private final PidStatsTable pidStats = new PidStatsTable();
+    private final PsiParser psiParser = new PsiParser();
+    private final SptsRemuxer sptsRemuxer = new SptsRemuxer(psiParser);
+
+    @SuppressWarnings("ConstantConditions")
+    private final byte[] cntStorage = CHECK_PACKET_INTEGRITY ? new byte[(0x1fff / 2) + 1] : null;
+
+    private long consumeTimeMs; // timestamp of the packets in the buffer being consumed
+    private volatile long droppedUsbFrames;
+    private volatile long receivedPackets;
+    private long lastUpdated; // guarded by this
+    private long lastDroppedUsbFrames; // guarded by this
+    private volatile boolean passFullTsStream = false;
+
+    // PIDs that have just started to pass the filter, the PAT and PMTs among them are sent at once
+    private final boolean[] preRollPids = new boolean[0x2000]; // guarded by this
+    private boolean preRollAll = false; // guarded by this
+    private volatile boolean preRollPending = false;
+
+    private volatile DvbRecording recording = null;
+
+    /** Software demux of 188, 192 or 204 byte packets that writes what passes the filter into the pipe, the size is detected from the stream **/
+    public static DvbDemux DvbDmxSwfilter(TsPipe pipe) {
+        return new DvbDemux(pipe);
+    }
+
+    private DvbDemux(TsPipe pipe) {
+        this.pipe = pipe;
+        this.out = pipe.getOutputStream();
+        reset();
+    }
+
+    synchronized void setPidFilter(int ... pids) {
+        if (!passFullTsStream) {
+            for (int pid : pids) {
+                if (pid >= 0 && pid < preRollPids.length && !filter.isFiltered(pid)) {
+                    preRollPids[pid] = true;
+                    preRollPending = true;
+                }
+            }
+        }
+        // publish the new set before leaving full TS mode, so no wanted packets are dropped in between
+        filter.setFilter(pids);
+        passFullTsStream = false;
+    }
+
+    synchronized void disablePidFilter() {
+        if (!passFullTsStream) requestPsiPreRoll();
+        passFullTsStream = true;
+    }
+
+    /** Send the latest PAT and PMTs of the PIDs that pass the filter ahead of the next packets **/
+    synchronized void requestPsiPreRoll() {
+        preRollAll = true;
+        preRollPending = true;
+    }
+
+    @Override
+    public void consume(byte[] buf, int count) throws IOException {
+        consumeTimeMs = System.currentTimeMillis();
+        if (preRollPending) writePsiPreRoll();
+        packetSync.feed(buf, 0, count);
+    }
+
+    synchronized int getDroppedUsbFps() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastUpdated;
+        lastUpdated = now;
+        long frames = droppedUsbFrames;
+        double fps = (frames - lastDroppedUsbFrames) * 1000.0 / elapsed;
+        lastDroppedUsbFrames = frames;
+        return (int) Math.abs(fps);
+    }
+
+    /** Total number of dropped frames since creation, never reset. Only the data pump writes it. **/
+    long getDroppedUsbFrames() {
+        return droppedUsbFrames;
+    }
+
+    /** Total number of packets received since creation, before software filtering. Only the data pump writes it. **/
+    long getReceivedPackets() {
+        return receivedPackets;
+    }
+
+    /** Per PID stats since the last reset, see PidStatsTable#snapshot **/
+    List<PidStats> getPidStats(int fromPid, int maxCount) {
+        return pidStats.snapshot(fromPid, maxCount);
+    }
+
+    /** Programs in the mux as announced by its PSI/SI tables **/
+    ServiceModel getServiceModel() {
+        return psiParser.getModel();
+    }
+
+    void setSptsRemux(int programNumber, boolean dropNullPackets, boolean dropUnreferencedPids) {
+        sptsRemuxer.setProgram(programNumber, dropNullPackets, dropUnreferencedPids);
+    }
+
+    void disableSptsRemux() {
+        sptsRemuxer.disable();
+    }
+
+    /** Start recording the stream, see DvbRecording. Only one recording can run at a time. **/
+    synchronized DvbRecording startRecording(DvbRecording.FileNamer namer, long frequency, long bandwidth, int... programNumbers) {
+        if (recording != null) throw new IllegalStateException("Already recording");
+        recording = new DvbRecording(psiParser, namer, frequency, bandwidth, programNumbers);
+        return recording;
+    }
+
+    /** @return the recording that was stopped or null if there wasn't one, it is up to the caller to close it **/
+    synchronized DvbRecording stopRecording() {
+        DvbRecording stopped = recording;
+        recording = null;
+        return stopped;
+    }
+
+    DvbRecording getRecording() {
+        return recording;
+    }
+
+    void setServiceModelListener(PsiParser.ModelListener listener) {
+        psiParser.setModelListener(listener);
+    }
+
+    private void writePsiPreRoll() throws IOException {
+        final boolean all;
+        final boolean[] pids;
+        synchronized (this) {
+            preRollPending = false;
+            all = preRollAll;
+            pids = preRollPids.clone();
+            preRollAll = false;
+            Arrays.fill(preRollPids, false);
+        }
+
+        byte[] packets;
+        if (sptsRemuxer.isEnabled()) {
+            packets = sptsRemuxer.buildPreRoll();
+        } else {
+            packets = psiParser.buildPreRoll(new PsiParser.PidSelector() {
+                @Override
+                public boolean isSelected(int pid) {
+                    return (all || pids[pid]) && (passFullTsStream || filter.isFiltered(pid));
+                }
+            });
+        }
+        if (packets != null) out.write(packets, 0, packets.length);
+    }
+
+    @SuppressWarnings("NonAtomicOperationOnVolatileField") // only the data pump thread writes
+    private void swfilterPacket(byte[] buf, int offset) throws IOException {
+        int pid = tsPid(buf, offset);
+        receivedPackets++;
+
+        boolean teiError = (buf[offset+1] & 0x80) != 0;
+        boolean ccError = false;
+        if (teiError) {
+            droppedUsbFrames++; // count this as dropped frame
+        } else {
+            if (CHECK_PACKET_INTEGRITY) {
+                if (!checkSequenceIntegrity(pid, buf, offset)) {
+                    ccError = true;
+                    droppedUsbFrames++;
+                }
+            }
+        }
+        pidStats.record(pid, consumeTimeMs, teiError, ccError, (buf[offset+3] & 0xC0) != 0);
+
+        /* data in this packet cant be trusted - drop it unless
+         * constant DVB_DEMUX_FEED_ERR_PKTS is set */
+        if (teiError && !DVB_DEMUX_FEED_ERR_PKTS) return;
+        if (!teiError) psiParser.packet(buf, offset);
+
+        DvbRecording recording = this.recording;
+        if (recording != null) recording.packet(buf, offset); // before the remuxer changes the packet
+
+        if ((passFullTsStream || filter.isFiltered(pid)) && sptsRemuxer.process(buf, offset)) out.write(buf, offset, 188);
+    }
+
+    boolean checkSequenceIntegrity(int pid, byte[] buf, int offset) { // package private for DvbDemuxBenchmark
+        if (pid == 0x1FFF) return true; // This PID is garbage that should be ignored always
+
+        int pidLoc = pid >> 1;
+
+        if ((pid & 1) == 0) {
+            // even pids are stored on left
+            if ((buf[offset + 3] & 0x10) != 0) {
+                int val = ((cntStorage[pidLoc] & 0xF0) + 0x10) & 0xF0;
+                cntStorage[pidLoc] = (byte) ((cntStorage[pidLoc] & 0x0F) | val);
+            }
+
+            if ((buf[offset + 3] & 0x0F) != ((cntStorage[pidLoc] & 0xF0) >> 4)) {
+                int val = (buf[offset + 3] & 0x0F) << 4;
+                cntStorage[pidLoc] = (byte) ((cntStorage[pidLoc] & 0x0F) | val);
+                return false;
+            } else {
+                return true;
+            }
+        } else {
+            // odd pids are stored on right
+            if ((buf[offset + 3] & 0x10) != 0) {
+                int val = ((cntStorage[pidLoc] & 0x0F) + 0x01) & 0x0F;
+                cntStorage[pidLoc] = (byte) ((cntStorage[pidLoc] & 0xF0) | val);
+            }
+
+            if ((buf[offset + 3] & 0x0F) != (cntStorage[pidLoc] & 0x0F)) {
+                int val = buf[offset + 3] & 0x0F;
+                cntStorage[pidLoc] = (byte) ((cntStorage[pidLoc] & 0xF0) | val);
+                return false;
+            } else {
+                return true;
+            }
+        }
+    }
+
+    private static int tsPid(byte[] buf, int offset) {
+        return ((buf[offset+1] & 0x1F) << 8) + (buf[offset+2] & 0xFF);
+    }
+
+    void reset() {
+        synchronized (this) {
+            lastDroppedUsbFrames = droppedUsbFrames;
+            lastUpdated = System.currentTimeMillis();
+        }
+
+        if (!passFullTsStream) setPidFilter(0); // by default we let through only pid 0
+        psiParser.notifyModelListener(); // after the filter is reset, so a service selection can be applied on top of it
+    }
+
+    /** Like reset but also forgets everything learned about the previous mux **/
+    void retune() {
+        pidStats.reset();
+        psiParser.requestReset();
+        reset();
+    }
+
+    @Override
+    public void close() throws IOException {
+        pipe.close();
+    }
+
+    InputStream getInputStream() {
+        return pipe.getInputStream();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import info.martinmarinov.drivers.tools.io.TsRecorder;
+import info.martinmarinov.drivers.ts.PsiParser;
+import info.martinmarinov.drivers.ts.SptsRemuxer;
+
+/**
+ * Records the stream straight from the demux, either the whole mux into one file or every
+ * requested program into its own single program transport stream, all in the same pass.
+ *
+ * It gets every packet the device delivers, regardless of what the PID filter lets through to
+ * the reader of the transport stream. Each file starts with the PAT and PMT already known, so
+ * it can be played from the start.
+ *
+ * It never holds up the data pump. If the storage can't keep up, packets are left out of the
+ * recording, see getDroppedBytes. A failure to write stops the recording but not the stream,
+ * see getFailure.
+ */
+public class DvbRecording implements Closeable {
+    public final static int FULL_MUX = 0;
+
+    public interface FileNamer {
+        /**
+         * @param programNumber FULL_MUX or the program recorded to the file
+         * @param segment a recording is split in segments, the first one is 0
+         */
+        File getFile(long frequency, long bandwidth, int programNumber, int segment) throws IOException;
+    }
+
+    private final static int PACKET_SIZE = 188;
+    private final static long MAX_SEGMENT_BYTES = 1024L * 1024 * 1024;
+
+    private final PsiParser psiParser;
+    private final int[] programNumbers;
+    private final SptsRemuxer[] remuxers; // null when recording the full mux
+    private final TsRecorder[] recorders;
+    private final long startedMs = System.currentTimeMillis();
+    private final byte[] packet = new byte[PACKET_SIZE];
+
+    private boolean preRollWritten = false; // guarded by this
+    private boolean closed = false; // guarded by this
+    private volatile IOException failure;
+
+    DvbRecording(PsiParser psiParser, final FileNamer namer, final long frequency, final long bandwidth, int... programNumbers) {
+        this.psiParser = psiParser;
+        this.programNumbers = programNumbers.length == 0 ? new int[] {FULL_MUX} : programNumbers.clone();
+        this.remuxers = programNumbers.length == 0 ? null : new SptsRemuxer[programNumbers.length];
+        this.recorders = new TsRecorder[this.programNumbers.length];
+
+        for (int i = 0; i < recorders.length; i++) {
+            final int programNumber = this.programNumbers[i];
+            if (remuxers != null) {
+                if (programNumber <= 0) throw new IllegalArgumentException("Invalid program number " + programNumber);
+                remuxers[i] = new SptsRemuxer(psiParser);
+                remuxers[i].setProgram(programNumber, true, true);
+            }
+            recorders[i] = new TsRecorder(new TsRecorder.SegmentNamer() {
+                @Override
+                public File getSegmentFile(int index) throws IOException {
+                    return namer.getFile(frequency, bandwidth, programNumber, index);
+                }
+            }, MAX_SEGMENT_BYTES, TsRecorder.NO_LIMIT);
+        }
+    }
+
+    /** Called by the demux on the data pump thread for every packet, before it is filtered **/
+    synchronized void packet(byte[] buf, int offset) {
+        if (closed || failure != null) return;
+        try {
+            if (!preRollWritten) {
+                writePreRoll();
+                preRollWritten = true;
+            }
+
+            if (remuxers == null) {
+                recorders[0].offer(buf, offset, PACKET_SIZE);
+                return;
+            }
+            for (int i = 0; i < remuxers.length; i++) {
+                // the remuxer rewrites the PAT and PMT in place
+                System.arraycopy(buf, offset, packet, 0, PACKET_SIZE);
+                if (remuxers[i].process(packet, 0)) recorders[i].offer(packet, 0, PACKET_SIZE);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /** Writes out what is still buffered and closes the files, blocks until done **/
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        IOException exception = failure;
+        for (TsRecorder recorder : recorders) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                if (exception == null) exception = e;
+            }
+        }
+        if (exception != null) throw exception;
+    }
+
+    /** FULL_MUX or the programs being recorded **/
+    public int[] getProgramNumbers() {
+        return programNumbers.clone();
+    }
+
+    public long getStartedMs() {
+        return startedMs;
+    }
+
+    /** Bytes handed to the files, including what is still buffered **/
+    public long getBytesRecorded() {
+        long bytes = 0;
+        for (TsRecorder recorder : recorders) bytes += recorder.getBytesReceived();
+        return bytes;
+    }
+
+    public long getBytesWritten() {
+        long bytes = 0;
+        for (TsRecorder recorder : recorders) bytes += recorder.getBytesWritten();
+        return bytes;
+    }
+
+    public int getSegments() {
+        int segments = 0;
+        for (TsRecorder recorder : recorders) segments += recorder.getSegments();
+        return segments;
+    }
+
+    /** Bytes left out of the files because the storage couldn't keep up **/
+    public long getDroppedBytes() {
+        long bytes = 0;
+        for (TsRecorder recorder : recorders) bytes += recorder.getDroppedBytes();
+        return bytes;
+    }
+
+    /** @return why the recording stopped or null if it is still going */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    private void writePreRoll() throws IOException {
+        if (remuxers == null) {
+            byte[] packets = psiParser.buildPreRoll(new PsiParser.PidSelector() {
+                @Override
+                public boolean isSelected(int pid) {
+                    return true;
+                }
+            });
+            if (packets != null) recorders[0].offer(packets, 0, packets.length);
+            return;
+        }
+        for (int i = 0; i < remuxers.length; i++) {
+            byte[] packets = remuxers[i].buildPreRoll();
+            if (packets != null) recorders[i].offer(packets, 0, packets.length);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers;
+
+/** Traffic seen on a single PID since the last tune **/
+public class PidStats {
+    public final static int PACKET_SIZE = 188;
+
+    private final int pid;
+    private final long packets;
+    private final long ccErrors;
+    private final long teiErrors;
+    private final boolean scrambled;
+    private final long lastSeenMs;
+
+    public PidStats(int pid, long packets, long ccErrors, long teiErrors, boolean scrambled, long lastSeenMs) {
+        this.pid = pid;
+        this.packets = packets;
+        this.ccErrors = ccErrors;
+        this.teiErrors = teiErrors;
+        this.scrambled = scrambled;
+        this.lastSeenMs = lastSeenMs;
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    public long getPackets() {
+        return packets;
+    }
+
+    public long getBytes() {
+        return packets * PACKET_SIZE;
+    }
+
+    /** Packets whose continuity counter didn't follow the previous one, ie. packets were lost before it **/
+    public long getCcErrors() {
+        return ccErrors;
+    }
+
+    /** Packets with the transport error indicator set by the demodulator **/
+    public long getTeiErrors() {
+        return teiErrors;
+    }
+
+    /** True if the last packet had its transport scrambling control bits set **/
+    public boolean isScrambled() {
+        return scrambled;
+    }
+
+    /** Time of the last packet in ms since epoch **/
+    public long getLastSeenMs() {
+        return lastSeenMs;
+    }
+
+    @Override
+    public String toString() {
+        return "PidStats{" +
+                "pid=" + pid +
+                ", packets=" + packets +
+                ", ccErrors=" + ccErrors +
+                ", teiErrors=" + teiErrors +
+                ", scrambled=" + scrambled +
+                ", lastSeenMs=" + lastSeenMs +
+                '}';
+    }
+}
@@ -20,21 +20,38 @@
 
 package info.martinmarinov.drivers.tools;
 
+/**
+ * A set of small ints backed by a bitmap, used for looking up PIDs on the hot path.
+ *
+ * Lookups don't take any locks. Updates are copy-on-write, the new set is built in a fresh
+ * bitmap and published with a single volatile write, so a lookup always sees either the set
+ * from before or after an update and never a mix of the two. Updates are rare and the bitmap
+ * is small, so the copy is cheap.
+ */
 public class FastIntFilter {
-    private final byte[] bitmap;
-    private int[] filter = new int[0];
+    private volatile byte[] bitmap;
 
     public FastIntFilter(int size) {
         int bitmapSize = (size + 7) >> 3;
         this.bitmap = new byte[bitmapSize];
     }
 
-    public void setFilter(int ... ids) {
-        synchronized (bitmap) {
-            for (int aFilter : filter) setFilterOff(aFilter);
-            this.filter = ids;
-            for (int aFilter : filter) setFilterOn(aFilter);
-        }
+    public synchronized void setFilter(int ... ids) {
+        byte[] next = new byte[bitmap.length];
+        for (int id : ids) setFilterOn(next, id);
+        bitmap = next;
+    }
+
+    public synchronized void addFilter(int ... ids) {
+        byte[] next = bitmap.clone();
+        for (int id : ids) setFilterOn(next, id);
+        bitmap = next;
+    }
+
+    public synchronized void removeFilter(int ... ids) {
+        byte[] next = bitmap.clone();
+        for (int id : ids) setFilterOff(next, id);
+        bitmap = next;
     }
 
     public boolean isFiltered(int id) {
@@ -45,7 +62,7 @@ public class FastIntFilter {
         return (bitmap[bid] & mask) != 0;
     }
 
-    private void setFilterOn(int id) {
+    private static void setFilterOn(byte[] bitmap, int id) {
         int bid = id >> 3;
         int rem = id - (bid << 3);
 
@@ -53,7 +70,7 @@ public class FastIntFilter {
         bitmap[bid] |= mask;
     }
 
-    private void setFilterOff(int id) {
+    private static void setFilterOff(byte[] bitmap, int id) {
         int bid = id >> 3;
         int rem = id - (bid << 3);
 
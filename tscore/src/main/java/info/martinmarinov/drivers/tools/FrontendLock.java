@@ -0,0 +1,197 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package info.martinmarinov.drivers.tools;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Device level lock that arbitrates between tuning and status polling.
+ *
+ * Demodulators are not re-entrant, they share one I2C bus and often keep paging state, so only
+ * one operation can talk to the hardware at a time. However a tune can take hundreds of
+ * milliseconds and a status read that is polled every second should not queue behind it.
+ *
+ * While a tune is in progress status reads don't wait, they return the last value that was
+ * successfully read instead. Each thread can tell whether any of its reads got such a stale value
+ * via {@link #takeServedLastValue()}. A read with no previous value waits for the tune to finish.
+ *
+ * Each read holds the lock only for a single attempt, so retries (and their back off sleeps)
+ * happen outside of it and a tune never waits for more than one read attempt.
+ *
+ * Stream control operations (eg. PID filter updates) don't queue behind a running tune either.
+ * A tune can't be interrupted half way, so they are handed over to the tuning thread which runs
+ * the latest one as soon as the tune is done, before anything else gets the lock.
+ */
+public class FrontendLock {
+    private final static long POLL_MS = 5;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicInteger tunesInProgress = new AtomicInteger();
+
+    private final ThreadLocal<Boolean> servedLastValue = new ThreadLocal<>();
+
+    // guarded by this
+    private boolean tuneRunning = false;
+    private ThrowingRunnable<?> deferred;
+    private Throwable deferredFailure;
+
+    public static class LastValue<R> {
+        private volatile R value;
+
+        public R get() {
+            return value;
+        }
+    }
+
+    public <T extends Throwable> void tune(ThrowingRunnable<T> tuneOperation) throws T {
+        tunesInProgress.incrementAndGet();
+        lock.lock();
+        try {
+            synchronized (this) {
+                tuneRunning = true;
+            }
+            try {
+                tuneOperation.run();
+            } finally {
+                runDeferred();
+            }
+        } finally {
+            lock.unlock();
+            tunesInProgress.decrementAndGet();
+        }
+    }
+
+    /**
+     * Run an operation that changes what the stream carries (eg. PID filters). If a tune is running
+     * it doesn't wait for it: the operation replaces any earlier deferred one and is run by the tuning
+     * thread right after the tune. Failures of deferred operations are kept for {@link #takeDeferredFailure()}.
+     *
+     * @return true if the operation was run, false if it was deferred until the running tune is done
+     */
+    public <T extends Throwable> boolean streamControl(ThrowingRunnable<T> operation) throws T {
+        if (lock.isHeldByCurrentThread()) {
+            operation.run();
+            return true;
+        }
+
+        // polls rather than queues so it doesn't end up behind a tune that starts in the meantime
+        while (true) {
+            synchronized (this) {
+                if (tuneRunning) {
+                    deferred = operation;
+                    return false;
+                }
+            }
+            try {
+                if (lock.tryLock(POLL_MS, TimeUnit.MILLISECONDS)) break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lock.lock();
+                break;
+            }
+        }
+
+        // no tune can be running while we hold the lock
+        try {
+            operation.run();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /** @return why the last deferred stream control operation failed or null, clears it */
+    public synchronized Throwable takeDeferredFailure() {
+        Throwable failure = deferredFailure;
+        deferredFailure = null;
+        return failure;
+    }
+
+    private void runDeferred() {
+        ThrowingRunnable<?> operation;
+        synchronized (this) {
+            tuneRunning = false;
+            operation = deferred;
+            deferred = null;
+        }
+        if (operation == null) return;
+
+        try {
+            operation.run();
+        } catch (Throwable t) {
+            synchronized (this) {
+                deferredFailure = t;
+            }
+        }
+    }
+
+    public <R, T extends Throwable> R read(LastValue<R> lastValue, ThrowingCallable<R, T> reader) throws T {
+        while (true) {
+            if (tunesInProgress.get() > 0) {
+                R value = lastValue.value;
+                if (value != null) return servedLastValue(value);
+            }
+            try {
+                if (lock.tryLock(POLL_MS, TimeUnit.MILLISECONDS)) break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lock.lock();
+                break;
+            }
+        }
+
+        try {
+            // a tune may have queued up while we were waiting, let it go first
+            if (tunesInProgress.get() > 0) {
+                R value = lastValue.value;
+                if (value != null) return servedLastValue(value);
+            }
+
+            R value = reader.call();
+            lastValue.value = value;
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if any read made by the calling thread since the previous call returned the last
+     * known value rather than reading the hardware, clears it
+     */
+    public boolean takeServedLastValue() {
+        boolean served = servedLastValue.get() != null;
+        servedLastValue.remove();
+        return served;
+    }
+
+    private <R> R servedLastValue(R value) {
+        servedLastValue.set(Boolean.TRUE);
+        return value;
+    }
+
+    public boolean isTuneInProgress() {
+        return tunesInProgress.get() > 0;
+    }
+}
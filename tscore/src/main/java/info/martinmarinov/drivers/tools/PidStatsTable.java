@@ -0,0 +1,117 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import info.martinmarinov.drivers.PidStats;
+
+/**
+ * Per PID packet counters, updated by the demux for every packet.
+ *
+ * Counters live in primitive arrays indexed by the 13 bit PID, so recording a packet doesn't
+ * allocate. The PIDs seen so far are kept in a separate list, so snapshots and resets only
+ * touch those rather than all 8192 entries.
+ *
+ * Recording and snapshotting share the monitor of the table. The lock is uncontended
+ * apart from the odd snapshot and is only held for a few array stores, so it is cheap on
+ * the hot path and guarantees a snapshot never mixes counters from different packets.
+ */
+public class PidStatsTable {
+    private final static int PID_COUNT = 0x2000;
+
+    private final long[] packets = new long[PID_COUNT];
+    private final long[] ccErrors = new long[PID_COUNT];
+    private final long[] teiErrors = new long[PID_COUNT];
+    private final long[] lastSeenMs = new long[PID_COUNT];
+    private final boolean[] scrambled = new boolean[PID_COUNT];
+
+    private final short[] seenPids = new short[PID_COUNT];
+    private int seenCount = 0;
+
+    /**
+     * @param ccError continuity counter discontinuity, not counted for the first packet of a PID
+     *                as there is nothing to compare against yet
+     */
+    public synchronized void record(int pid, long nowMs, boolean teiError, boolean ccError, boolean isScrambled) {
+        if (packets[pid] == 0) {
+            seenPids[seenCount++] = (short) pid;
+        } else if (ccError) {
+            ccErrors[pid]++;
+        }
+        packets[pid]++;
+        if (teiError) teiErrors[pid]++;
+        scrambled[pid] = isScrambled;
+        lastSeenMs[pid] = nowMs;
+    }
+
+    /** @return stats of up to maxCount PIDs that are not smaller than fromPid, ordered by PID */
+    public List<PidStats> snapshot(int fromPid, int maxCount) {
+        short[] pids;
+        long[] copy;
+        boolean[] scrambledCopy;
+        int count = 0;
+
+        synchronized (this) {
+            pids = new short[seenCount];
+            for (int i = 0; i < seenCount; i++) {
+                if (seenPids[i] >= fromPid) pids[count++] = seenPids[i];
+            }
+            Arrays.sort(pids, 0, count);
+            if (count > maxCount) count = maxCount;
+
+            copy = new long[count * 4];
+            scrambledCopy = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                int pid = pids[i];
+                copy[i * 4] = packets[pid];
+                copy[i * 4 + 1] = ccErrors[pid];
+                copy[i * 4 + 2] = teiErrors[pid];
+                copy[i * 4 + 3] = lastSeenMs[pid];
+                scrambledCopy[i] = scrambled[pid];
+            }
+        }
+
+        List<PidStats> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new PidStats(pids[i], copy[i * 4], copy[i * 4 + 1], copy[i * 4 + 2], scrambledCopy[i], copy[i * 4 + 3]));
+        }
+        return result;
+    }
+
+    public List<PidStats> snapshot() {
+        return snapshot(0, PID_COUNT);
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < seenCount; i++) {
+            int pid = seenPids[i];
+            packets[pid] = 0;
+            ccErrors[pid] = 0;
+            teiErrors[pid] = 0;
+            lastSeenMs[pid] = 0;
+            scrambled[pid] = false;
+        }
+        seenCount = 0;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Copies a transport stream from a blocking source to the client according to a StreamingMode.
+ *
+ * A drain thread reads the source into a ring and the caller of sendTo writes out of it, so a
+ * batch is sent on time even when the source has nothing more to give. Data goes out of the ring
+ * with gathering writes, without copying.
+ */
+public class StreamSender implements Closeable {
+    private final static int DEFAULT_RING_BYTES = StreamingMode.MAX_BATCH_BYTES;
+
+    private final ReadableByteChannel source;
+    private final StreamingStats stats;
+    private final ByteBuffer ring;
+    private final int capacity;
+    private final long batchBytes;
+    private final long batchNanos;
+
+    private final Object lock = new Object();
+    private long received = 0; // bytes read into the ring
+    private long sent = 0; // bytes written out and free to reuse
+    private long pendingSinceNanos = -1; // when the oldest unsent byte arrived
+    private boolean ended = false;
+    private boolean closed = false;
+    private IOException failure = null;
+
+    private volatile Thread drainThread;
+
+    public StreamSender(ReadableByteChannel source, StreamingMode mode, StreamingStats stats) {
+        this(source, mode, stats, DEFAULT_RING_BYTES);
+    }
+
+    StreamSender(ReadableByteChannel source, StreamingMode mode, StreamingStats stats, int ringBytes) {
+        this.source = source;
+        this.stats = stats;
+        this.ring = ByteBuffer.allocateDirect(ringBytes);
+        this.capacity = ringBytes;
+        // leave room for the source to carry on while a full batch is being written
+        this.batchBytes = Math.min(mode.getBatchBytes(), ringBytes / 2);
+        this.batchNanos = mode.getBatchMs() * 1_000_000L;
+    }
+
+    /** Sends the stream to the sink until the source ends or the sender is closed **/
+    public void sendTo(GatheringByteChannel sink) throws IOException {
+        drainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "StreamSender");
+        drainThread.start();
+
+        ByteBuffer[] parts = new ByteBuffer[] { ring.duplicate(), ring.duplicate() };
+        while (true) {
+            long from, to, since;
+            synchronized (lock) {
+                if (!awaitBatch()) return;
+                from = sent;
+                to = received;
+                since = pendingSinceNanos;
+                pendingSinceNanos = -1;
+            }
+
+            int count = slice(parts, from, to);
+            while (parts[count - 1].hasRemaining()) sink.write(parts, 0, count);
+            stats.onWrite(to - from, System.nanoTime() - since);
+
+            synchronized (lock) {
+                sent = to;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /** Must be called with the lock held, returns false at the end of the stream **/
+    private boolean awaitBatch() throws IOException {
+        try {
+            while (true) {
+                if (closed) throw new IOException("Stream sender closed");
+                long pending = received - sent;
+                if (pending == 0) {
+                    if (failure != null) throw failure;
+                    if (ended) return false;
+                    lock.wait();
+                    continue;
+                }
+
+                if (pending >= batchBytes || ended || failure != null) return true;
+                long waitNanos = pendingSinceNanos + batchNanos - System.nanoTime();
+                if (waitNanos <= 0) return true;
+                lock.wait(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private int slice(ByteBuffer[] parts, long from, long to) {
+        int start = (int) (from % capacity);
+        int length = (int) (to - from);
+        int first = Math.min(length, capacity - start);
+
+        parts[0].clear();
+        parts[0].position(start);
+        parts[0].limit(start + first);
+        if (first == length) return 1;
+
+        parts[1].clear();
+        parts[1].limit(length - first);
+        return 2;
+    }
+
+    private void drainLoop() {
+        ByteBuffer target = ring.duplicate();
+        try {
+            while (true) {
+                int offset, length;
+                synchronized (lock) {
+                    while (!closed && received - sent == capacity) lock.wait();
+                    if (closed) return;
+                    offset = (int) (received % capacity);
+                    length = (int) Math.min(capacity - (received - sent), capacity - offset);
+                }
+
+                target.clear();
+                target.position(offset);
+                target.limit(offset + length);
+                int read = source.read(target);
+
+                synchronized (lock) {
+                    if (read < 0) {
+                        ended = true;
+                        lock.notifyAll();
+                        return;
+                    }
+
+                    if (read == 0) continue;
+
+                    boolean first = pendingSinceNanos < 0;
+                    if (first) pendingSinceNanos = System.nanoTime();
+                    received += read;
+                    // the sender only needs waking up to start the age timer or for a full batch
+                    if (first || received - sent >= batchBytes) lock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (lock) {
+                failure = e;
+                lock.notifyAll();
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            source.close();
+        } finally {
+            Thread drainThread = this.drainThread;
+            if (drainThread != null) {
+                drainThread.interrupt();
+                try {
+                    drainThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
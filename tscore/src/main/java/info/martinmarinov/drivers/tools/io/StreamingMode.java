@@ -0,0 +1,69 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools.io;
+
+/**
+ * How the transport stream is handed to the client. Low latency sends data the moment it
+ * arrives, throughput collects it into larger writes that are at most a given size and age.
+ */
+public final class StreamingMode {
+    public final static int DEFAULT_BATCH_BYTES = 64 * 1024;
+    public final static int DEFAULT_BATCH_MS = 100;
+    public final static int MAX_BATCH_BYTES = 1024 * 1024; // the StreamSender ring, batches get capped to half of it
+
+    public final static StreamingMode LOW_LATENCY = new StreamingMode(0, 0);
+
+    private final int batchBytes;
+    private final int batchMs;
+
+    private StreamingMode(int batchBytes, int batchMs) {
+        this.batchBytes = batchBytes;
+        this.batchMs = batchMs;
+    }
+
+    /**
+     * @param batchBytes send once this much has been collected
+     * @param batchMs send once the oldest byte collected is this old, even if the batch is smaller
+     */
+    public static StreamingMode throughput(int batchBytes, int batchMs) {
+        if (batchBytes <= 0) throw new IllegalArgumentException("Batch size must be positive");
+        if (batchBytes > MAX_BATCH_BYTES) throw new IllegalArgumentException("Batch size can't exceed " + MAX_BATCH_BYTES + " bytes");
+        if (batchMs < 0) throw new IllegalArgumentException("Batch age can't be negative");
+        return new StreamingMode(batchBytes, batchMs);
+    }
+
+    public boolean isLowLatency() {
+        return batchBytes == 0;
+    }
+
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+
+    public int getBatchMs() {
+        return batchMs;
+    }
+
+    @Override
+    public String toString() {
+        return isLowLatency() ? "low latency" : "throughput " + batchBytes + " bytes / " + batchMs + " ms";
+    }
+}
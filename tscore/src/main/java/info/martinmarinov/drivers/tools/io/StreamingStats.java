@@ -0,0 +1,57 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools.io;
+
+/** Counters of a StreamSender session, safe to read from any thread **/
+public class StreamingStats {
+    private long writes = 0;
+    private long bytesSent = 0;
+    private long flushLatencyNanos = 0;
+    private long maxFlushLatencyNanos = 0;
+
+    synchronized void onWrite(long bytes, long latencyNanos) {
+        writes++;
+        bytesSent += bytes;
+        flushLatencyNanos += latencyNanos;
+        if (latencyNanos > maxFlushLatencyNanos) maxFlushLatencyNanos = latencyNanos;
+    }
+
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    public synchronized long getAverageWriteBytes() {
+        return writes == 0 ? 0 : bytesSent / writes;
+    }
+
+    /** @return average time from data arriving until it is written to the client */
+    public synchronized long getAverageFlushLatencyNanos() {
+        return writes == 0 ? 0 : flushLatencyNanos / writes;
+    }
+
+    public synchronized long getMaxFlushLatencyNanos() {
+        return maxFlushLatencyNanos;
+    }
+}
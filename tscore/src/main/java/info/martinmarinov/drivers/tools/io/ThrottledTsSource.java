@@ -0,0 +1,217 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import info.martinmarinov.drivers.ts.Pcr;
+import info.martinmarinov.drivers.ts.TsPacketSync;
+import info.martinmarinov.usbxfer.ByteSink;
+import info.martinmarinov.usbxfer.ByteSource;
+
+/**
+ * Plays a recorded transport stream back at the speed it was broadcast, looping at the end.
+ *
+ * The file is read in large chunks and the packets are handed on in batches of about a
+ * millisecond of stream each. The pace comes from the PCR of the first PID that carries one:
+ * every PCR fixes the time its packet is due and the packets in between are spread evenly.
+ * A jump in the PCR, eg. when the file loops, carries on from where playback is.
+ *
+ * requestSeek can be called from any thread, playback continues from the new offset with the
+ * next batch.
+ */
+public class ThrottledTsSource implements ByteSource {
+    public final static double UNTHROTTLED = 0.0;
+
+    private final static int PACKET_SIZE = TsPacketSync.PACKET_SIZE;
+    private final static int CHUNK_SIZE = 256 * 1024;
+    private final static int MAX_BATCH_PACKETS = 64;
+    private final static long BATCH_NANOS = 1_000_000L;
+    private final static long MAX_PCR_GAP = Pcr.HZ; // anything longer is a discontinuity
+    private final static long MAX_LATE_NANOS = 500_000_000L; // when further behind, stop trying to catch up
+
+    private final File file;
+    private final double speed;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private final ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+    private final byte[] batch = new byte[MAX_BATCH_PACKETS * PACKET_SIZE];
+    private final TsPacketSync packetSync = new TsPacketSync(new TsPacketSync.PacketSink() {
+        @Override
+        public void packet(byte[] buf, int offset) {
+            if (packetsLength + PACKET_SIZE > packets.length) packets = Arrays.copyOf(packets, 2 * packets.length);
+            System.arraycopy(buf, offset, packets, packetsLength, PACKET_SIZE);
+            packetsLength += PACKET_SIZE;
+        }
+    });
+
+    // packets found in the last chunk but not sent yet, the file can have 188, 192 or 204 byte packets
+    private byte[] packets = new byte[CHUNK_SIZE + CHUNK_SIZE / 16];
+    private int packetsLength;
+    private int packetsPos;
+
+    private FileInputStream in;
+    private FileChannel channel;
+    private long packetCount;
+
+    private int pcrPid = -1;
+    private long lastPcr = -1;
+    private long lastPcrPacket;
+    private long lastPcrDueNanos;
+    private double nanosPerPacket = 0.0; // 0 until the rate is known
+
+    private final AtomicLong pendingSeek = new AtomicLong(-1);
+
+    public ThrottledTsSource(File file) {
+        this(file, 1.0);
+    }
+
+    /** @param speed 2.0 plays twice as fast as broadcast, UNTHROTTLED as fast as the sink takes it */
+    public ThrottledTsSource(File file, double speed) {
+        if (speed < 0.0) throw new IllegalArgumentException("Negative speed " + speed);
+        this.file = file;
+        this.speed = speed;
+    }
+
+    @Override
+    public void open() throws IOException {
+        in = new FileInputStream(file);
+        channel = in.getChannel();
+    }
+
+    /** @param byteOffset where to continue playing from, eg. from TsIndex.getOffset */
+    public void requestSeek(long byteOffset) {
+        if (byteOffset < 0) throw new IllegalArgumentException("Negative offset " + byteOffset);
+        pendingSeek.set(byteOffset);
+    }
+
+    @Override
+    public void readNext(ByteSink sink) throws IOException, InterruptedException {
+        if (pendingSeek.get() >= 0) seekTo(pendingSeek.getAndSet(-1));
+
+        if (nanosPerPacket > 0.0) {
+            waitUntil(lastPcrDueNanos + (long) ((packetCount - lastPcrPacket) * nanosPerPacket));
+        } else if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        int maxPackets = MAX_BATCH_PACKETS;
+        if (nanosPerPacket > 0.0) maxPackets = (int) Math.max(1, Math.min(MAX_BATCH_PACKETS, BATCH_NANOS / nanosPerPacket));
+
+        int count = 0;
+        while (count < maxPackets) {
+            if (!fillWithRewind()) throw new IOException("No packets in " + file);
+
+            int offset = count * PACKET_SIZE;
+            System.arraycopy(packets, packetsPos, batch, offset, PACKET_SIZE);
+            packetsPos += PACKET_SIZE;
+            count++;
+
+            // a new PCR changes when the following packets are due
+            if (onPacket(batch, offset, packetCount++)) break;
+        }
+
+        sink.consume(batch, count * PACKET_SIZE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /** @return true if the packet carried a PCR that playback is paced on */
+    private boolean onPacket(byte[] buf, int offset, long packetIndex) {
+        if (speed == UNTHROTTLED) return false;
+
+        long pcr = Pcr.read(buf, offset);
+        if (pcr < 0) return false;
+
+        int pid = ((buf[offset + 1] & 0x1F) << 8) | (buf[offset + 2] & 0xFF);
+        if (pcrPid < 0) pcrPid = pid;
+        if (pid != pcrPid) return false;
+
+        long now = System.nanoTime();
+        if (lastPcr < 0) {
+            lastPcrDueNanos = now;
+        } else {
+            long elapsedPcr = Pcr.elapsed(lastPcr, pcr);
+            long elapsedPackets = packetIndex - lastPcrPacket;
+
+            if (elapsedPcr == 0 || elapsedPcr > MAX_PCR_GAP) {
+                // discontinuity, keep the previous rate and carry on from here
+                lastPcrDueNanos += (long) (elapsedPackets * nanosPerPacket);
+            } else {
+                double elapsedNanos = elapsedPcr * (1_000_000_000.0 / Pcr.HZ) / speed;
+                nanosPerPacket = elapsedNanos / elapsedPackets;
+                lastPcrDueNanos += (long) elapsedNanos;
+            }
+            if (now - lastPcrDueNanos > MAX_LATE_NANOS) lastPcrDueNanos = now;
+        }
+        lastPcr = pcr;
+        lastPcrPacket = packetIndex;
+        return true;
+    }
+
+    private static void waitUntil(long dueNanos) throws InterruptedException {
+        long wait;
+        while ((wait = dueNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    private void seekTo(long byteOffset) throws IOException {
+        channel.position(byteOffset);
+        packetSync.reset();
+        packetsPos = packetsLength = 0;
+        // the next PCR starts the pace again, keep the rate until then
+        lastPcr = -1;
+    }
+
+    private boolean fillWithRewind() throws IOException {
+        if (fill()) return true;
+
+        channel.position(0);
+        packetSync.reset();
+        return fill();
+    }
+
+    private boolean fill() throws IOException {
+        while (packetsPos == packetsLength) {
+            packetsPos = packetsLength = 0;
+            chunkBuffer.clear();
+            int read = channel.read(chunkBuffer);
+            if (read < 0) {
+                // the last packet is kept back until the next sync byte, let it go before rewinding
+                packetSync.flush();
+                return packetsLength > 0;
+            }
+            packetSync.feed(chunk, 0, read);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,522 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import info.martinmarinov.drivers.ts.StreamClock;
+import info.martinmarinov.drivers.ts.TsPacketSync;
+
+/**
+ * Sits between the demux and the reader of the stream and keeps the last part of it on disk, so
+ * the reader can pause and go back in time while the stream carries on.
+ *
+ * The stream is written in a ring of SEGMENTS preallocated files, one after the other, and the
+ * reader gets it from there at its own position. Positions count bytes since the start of the
+ * stream, the ring holds those within the last getCapacity bytes. Random access points are
+ * indexed every INDEX_INTERVAL_MS by their StreamClock time, which is what seeks go by.
+ *
+ * The source is drained by its own thread into a fixed set of buffers, which another thread
+ * writes out. If the storage can't keep up the data that doesn't fit is dropped rather than
+ * holding up the source, see getDroppedBytes. Memory use doesn't depend on the size of the ring.
+ */
+public class TimeShiftBuffer implements Closeable {
+    private final static int PACKET_SIZE = TsPacketSync.PACKET_SIZE;
+    private final static int SEGMENTS = 8;
+    private final static int BUFFER_SIZE = 256 * 1024;
+    private final static int BUFFERS = 16;
+    private final static int INDEX_ENTRIES = 16 * 1024;
+    private final static long INDEX_INTERVAL_MS = 500;
+    private final static Buffer END = new Buffer(0);
+
+    private final File[] files = new File[SEGMENTS];
+    private final RandomAccessFile[] segmentFiles = new RandomAccessFile[SEGMENTS];
+    private final FileChannel[] channels = new FileChannel[SEGMENTS];
+    private final long segmentBytes;
+    private final long capacity;
+
+    private final BlockingQueue<Buffer> free = new ArrayBlockingQueue<>(BUFFERS);
+    private final BlockingQueue<Buffer> filled = new ArrayBlockingQueue<>(BUFFERS + 1); // room for END
+    private final Object lock = new Object();
+
+    // drain thread
+    private final byte[] discard = new byte[64 * 1024];
+    private volatile long droppedBytes = 0;
+
+    // writer thread
+    private final ByteBuffer out = ByteBuffer.allocateDirect(2 * BUFFER_SIZE); // a buffer and the bytes carried over
+    private final StreamClock clock = new StreamClock();
+    private final TsPacketSync packetSync = new TsPacketSync(new TsPacketSync.PacketSink() {
+        @Override
+        public void packet(byte[] buf, int offset) {
+            onPacket(buf, offset);
+        }
+    });
+    private long nextEntryMs = 0;
+    private long lastPacketTimeMs = 0;
+    private long lastRandomAccessPoint = -1;
+
+    // guarded by lock
+    private final long[] indexPositions = new long[INDEX_ENTRIES];
+    private final long[] indexTimesMs = new long[INDEX_ENTRIES];
+    private int indexStart = 0;
+    private int indexSize = 0;
+    private long writingPosition = 0; // end of the write in progress, the ring may already be overwritten up to here
+    private long writtenPosition = 0;
+    private long liveTimeMs = 0;
+    private long liveRandomAccessPoint = -1;
+    private long readPosition = 0;
+    private int seeks = 0; // tells the reader that readPosition moved under it
+    private boolean paused = false;
+    private boolean ended = false;
+    private boolean closed = false;
+    private IOException failure;
+
+    private InputStream source;
+    private Thread drainThread;
+    private Thread writerThread;
+
+    /**
+     * Preallocates the ring in the directory
+     *
+     * @param capacity bytes of the stream to keep
+     */
+    public TimeShiftBuffer(File directory, long capacity) throws IOException {
+        if (capacity < SEGMENTS * BUFFER_SIZE) throw new IllegalArgumentException("Capacity must be at least " + SEGMENTS * BUFFER_SIZE);
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Cannot create " + directory);
+
+        this.segmentBytes = (capacity + SEGMENTS - 1) / SEGMENTS;
+        this.capacity = segmentBytes * SEGMENTS;
+        try {
+            for (int i = 0; i < SEGMENTS; i++) {
+                files[i] = new File(directory, "timeshift_" + i + ".ts");
+                segmentFiles[i] = new RandomAccessFile(files[i], "rw");
+                segmentFiles[i].setLength(segmentBytes);
+                channels[i] = segmentFiles[i].getChannel();
+            }
+        } catch (IOException e) {
+            closeFiles();
+            throw e;
+        }
+        for (int i = 0; i < BUFFERS; i++) free.add(new Buffer(BUFFER_SIZE));
+    }
+
+    /** Start draining the source into the ring, eg. the input stream of the demux pipe **/
+    public void start(InputStream source) {
+        this.source = source;
+        drainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "TimeShiftDrain");
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "TimeShiftWriter");
+        drainThread.start();
+        writerThread.start();
+    }
+
+    /** The stream from the reading position on, closing it closes the buffer **/
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /** While paused the reader gets nothing and falls behind the live stream **/
+    public void setPaused(boolean paused) {
+        synchronized (lock) {
+            this.paused = paused;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Move the reader by deltaMs of the stream, negative to go back. It ends up on a random access
+     * point, at the oldest one still in the ring at the most. Going past the live stream goes live.
+     */
+    public void seekBy(long deltaMs) {
+        synchronized (lock) {
+            long targetMs = timeAt(readPosition) + deltaMs;
+            if (targetMs >= liveTimeMs) {
+                goLiveLocked();
+                return;
+            }
+            int entry = lastEntryAtOrBefore(targetMs);
+            if (entry < 0) entry = oldestValidEntry();
+            if (entry >= 0) moveReader(indexPositions[entry]);
+        }
+    }
+
+    /** Continue from the latest random access point **/
+    public void goLive() {
+        synchronized (lock) {
+            goLiveLocked();
+        }
+    }
+
+    public boolean isPaused() {
+        synchronized (lock) {
+            return paused;
+        }
+    }
+
+    /** How far the reader is behind the live stream **/
+    public long getDelayMs() {
+        synchronized (lock) {
+            return liveTimeMs - timeAt(readPosition);
+        }
+    }
+
+    /** How far back the reader can go from the live stream **/
+    public long getBufferedMs() {
+        synchronized (lock) {
+            int entry = oldestValidEntry();
+            return entry < 0 ? 0 : liveTimeMs - indexTimesMs[entry];
+        }
+    }
+
+    /** Bytes of the stream written to the ring since the start **/
+    public long getBytesWritten() {
+        synchronized (lock) {
+            return writtenPosition;
+        }
+    }
+
+    /** Bytes of the stream lost because the storage couldn't keep up **/
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /** Stops the threads and deletes the ring **/
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            lock.notifyAll();
+        }
+
+        if (source != null) source.close(); // stops the drain thread
+        if (drainThread != null) {
+            drainThread.interrupt();
+            writerThread.interrupt();
+            try {
+                drainThread.join();
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeFiles();
+        for (File file : files) if (file != null) file.delete();
+    }
+
+    private void drainLoop() {
+        Buffer current = null;
+        try {
+            while (true) {
+                if (current == null) current = free.poll();
+                if (current == null) {
+                    // the writer is behind, the source must not wait for it
+                    int read = source.read(discard, 0, discard.length);
+                    if (read < 0) break;
+                    droppedBytes += read;
+                    continue;
+                }
+
+                int read = source.read(current.data, current.length, current.data.length - current.length);
+                if (read < 0) break;
+                current.length += read;
+
+                // hand it over right away if the writer is idle, otherwise collect a larger write
+                if (current.length == current.data.length || filled.isEmpty()) {
+                    filled.add(current);
+                    current = null;
+                }
+            }
+        } catch (IOException e) {
+            // the source was closed
+        } finally {
+            if (current != null) filled.add(current);
+            filled.add(END);
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            Buffer buffer;
+            while ((buffer = filled.take()) != END) {
+                try {
+                    packetSync.feed(buffer.data, 0, buffer.length);
+                } finally {
+                    buffer.length = 0;
+                    free.add(buffer);
+                }
+                writeOut();
+            }
+            packetSync.flush();
+            writeOut();
+        } catch (InterruptedException ignored) {
+            // closing
+        } catch (IOException e) {
+            synchronized (lock) {
+                failure = e;
+            }
+        } finally {
+            synchronized (lock) {
+                ended = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void onPacket(byte[] buf, int offset) {
+        clock.packet(buf, offset);
+        long timeMs = clock.getTimeMs();
+
+        boolean randomAccessPoint = StreamClock.isRandomAccessPoint(buf, offset);
+        if (randomAccessPoint) lastRandomAccessPoint = writtenPosition + out.position();
+        if (randomAccessPoint && timeMs >= nextEntryMs) {
+            synchronized (lock) {
+                int slot = (indexStart + indexSize) % INDEX_ENTRIES;
+                if (indexSize == INDEX_ENTRIES) {
+                    indexStart = (indexStart + 1) % INDEX_ENTRIES;
+                } else {
+                    indexSize++;
+                }
+                indexPositions[slot] = writtenPosition + out.position();
+                indexTimesMs[slot] = timeMs;
+            }
+            nextEntryMs = (timeMs / INDEX_INTERVAL_MS + 1) * INDEX_INTERVAL_MS;
+        }
+
+        out.put(buf, offset, PACKET_SIZE);
+        lastPacketTimeMs = timeMs;
+    }
+
+    private void writeOut() throws IOException {
+        out.flip();
+        long position;
+        synchronized (lock) {
+            position = writtenPosition;
+            writingPosition = position + out.remaining();
+        }
+
+        while (out.hasRemaining()) {
+            long ringOffset = position % capacity;
+            int segment = (int) (ringOffset / segmentBytes);
+            long segmentOffset = ringOffset % segmentBytes;
+            int n = (int) Math.min(out.remaining(), segmentBytes - segmentOffset);
+
+            int limit = out.limit();
+            out.limit(out.position() + n);
+            while (out.hasRemaining()) segmentOffset += channels[segment].write(out, segmentOffset);
+            out.limit(limit);
+            position += n;
+        }
+        out.clear();
+
+        synchronized (lock) {
+            writtenPosition = position;
+            liveTimeMs = lastPacketTimeMs;
+            liveRandomAccessPoint = lastRandomAccessPoint;
+            lock.notifyAll();
+        }
+    }
+
+    private int read(byte[] buf, int offset, int length) throws IOException {
+        while (true) {
+            long position;
+            int seek;
+            int n;
+            synchronized (lock) {
+                while (!closed && failure == null && (paused || (readPosition >= writtenPosition && !ended))) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (closed) throw new IOException("Time shift buffer closed");
+                if (failure != null) throw failure;
+                if (readPosition >= writtenPosition) return -1; // ended
+
+                if (readPosition + capacity < writingPosition) {
+                    // paused for longer than the ring lasts
+                    int entry = oldestValidEntry();
+                    if (entry < 0) {
+                        goLiveLocked();
+                        continue;
+                    }
+                    moveReader(indexPositions[entry]);
+                    continue;
+                }
+
+                position = readPosition;
+                seek = seeks;
+                long ringOffset = position % capacity;
+                long segmentOffset = ringOffset % segmentBytes;
+                n = (int) Math.min(Math.min(length, writtenPosition - position), segmentBytes - segmentOffset);
+            }
+
+            int segment = (int) ((position % capacity) / segmentBytes);
+            long segmentOffset = (position % capacity) % segmentBytes;
+            ByteBuffer target = ByteBuffer.wrap(buf, offset, n);
+            while (target.hasRemaining()) {
+                int read = channels[segment].read(target, segmentOffset);
+                if (read < 0) throw new IOException("Time shift segment truncated");
+                segmentOffset += read;
+            }
+
+            synchronized (lock) {
+                // the writer may have gone round the ring while reading, or the reader was moved
+                if (seek != seeks || position + capacity < writingPosition) continue;
+                readPosition = position + n;
+                return n;
+            }
+        }
+    }
+
+    // The following must be called with the lock held
+
+    private void goLiveLocked() {
+        moveReader(liveRandomAccessPoint >= 0 ? liveRandomAccessPoint : writtenPosition);
+    }
+
+    private void moveReader(long position) {
+        readPosition = position;
+        seeks++;
+        lock.notifyAll();
+    }
+
+    /** Stream time at a position, as that of the closest index entry before it **/
+    private long timeAt(long position) {
+        int lo = 0, hi = indexSize - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (indexPositions[(indexStart + mid) % INDEX_ENTRIES] <= position) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (found < 0) return indexSize == 0 ? liveTimeMs : indexTimesMs[indexStart];
+        return indexTimesMs[(indexStart + found) % INDEX_ENTRIES];
+    }
+
+    /** @return slot of the last entry at or before the time that is still in the ring or -1 */
+    private int lastEntryAtOrBefore(long timeMs) {
+        int lo = 0, hi = indexSize - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (indexTimesMs[(indexStart + mid) % INDEX_ENTRIES] <= timeMs) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (found < 0) return -1;
+        int slot = (indexStart + found) % INDEX_ENTRIES;
+        return indexPositions[slot] + capacity >= writingPosition ? slot : -1;
+    }
+
+    /** @return slot of the oldest entry that the writer won't overwrite soon or -1 */
+    private int oldestValidEntry() {
+        // leave some room, the writer is about to go over what is right behind it
+        long oldest = writingPosition - capacity + 2 * BUFFER_SIZE;
+        int lo = 0, hi = indexSize - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (indexPositions[(indexStart + mid) % INDEX_ENTRIES] >= oldest) {
+                found = mid;
+                hi = mid - 1;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return found < 0 ? -1 : (indexStart + found) % INDEX_ENTRIES;
+    }
+
+    private void closeFiles() {
+        for (RandomAccessFile file : segmentFiles) {
+            try {
+                if (file != null) file.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return read < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            return TimeShiftBuffer.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            synchronized (lock) {
+                if (closed || paused) return 0;
+                return (int) Math.min(Integer.MAX_VALUE, Math.max(0, writtenPosition - readPosition));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            TimeShiftBuffer.this.close();
+        }
+    };
+
+    private static class Buffer {
+        private final byte[] data;
+        private int length;
+
+        private Buffer(int size) {
+            this.data = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import info.martinmarinov.drivers.ts.TsIndex;
+import info.martinmarinov.drivers.ts.TsIndexWriter;
+import info.martinmarinov.drivers.ts.TsPacketSync;
+
+/**
+ * Records a transport stream to files without holding up the thread that receives it.
+ *
+ * write only copies the stream into one of a fixed set of large buffers, a dedicated thread
+ * writes them out. The writer lines the stream up on packet boundaries and writes WRITE_SIZE
+ * bytes at a time, so writes start at aligned offsets in the file. It starts a new segment
+ * once the current one reaches the size or duration limit and only forces the data to the
+ * storage every FORCE_INTERVAL_MS and when a segment is closed. Every segment gets a TsIndex.
+ *
+ * Segments are not extended to their size limit up front. FAT and exFAT would zero fill the whole
+ * segment on the writer thread before the first write and ext4 and f2fs only create a sparse
+ * file, so it wouldn't help either way.
+ *
+ * If the storage can't keep up and all buffers are full, write blocks until one is written out.
+ * The time spent waiting is reported by getStallNanos. Threads that must never wait, like the
+ * data pump, use offer instead, which drops the data and counts it in getDroppedBytes.
+ */
+public class TsRecorder implements Closeable {
+    public final static long NO_LIMIT = 0;
+
+    public interface SegmentNamer {
+        /** @return the file to record the segment to, the first one has index 0 */
+        File getSegmentFile(int index) throws IOException;
+    }
+
+    private final static int PACKET_SIZE = TsPacketSync.PACKET_SIZE;
+    private final static int BUFFER_SIZE = 1024 * 1024;
+    private final static int BUFFERS = 8;
+    private final static int WRITE_SIZE = 1024 * 1024;
+    private final static long FORCE_INTERVAL_MS = 5_000;
+    private final static long SLOW_WRITE_NANOS = 100_000_000L;
+    private final static Buffer END = new Buffer(0);
+
+    private final SegmentNamer namer;
+    private final long maxSegmentBytes;
+    private final long maxSegmentNanos;
+    private final BlockingQueue<Buffer> free = new ArrayBlockingQueue<>(BUFFERS);
+    private final BlockingQueue<Buffer> filled = new ArrayBlockingQueue<>(BUFFERS + 1); // room for END
+    private final Thread writerThread;
+
+    // receiving thread
+    private Buffer current;
+    private boolean closed = false;
+    private volatile long bytesReceived = 0;
+    private volatile long stallNanos = 0;
+    private volatile long stalls = 0;
+    private volatile long droppedBytes = 0;
+
+    // writer thread
+    private final ByteBuffer out = ByteBuffer.allocateDirect(WRITE_SIZE);
+    private final TsPacketSync packetSync = new TsPacketSync(new TsPacketSync.PacketSink() {
+        @Override
+        public void packet(byte[] buf, int offset) throws IOException {
+            writePacket(buf, offset);
+        }
+    });
+    private RandomAccessFile segmentFile;
+    private FileChannel channel;
+    private TsIndexWriter indexWriter;
+    private long segmentBytes;
+    private long segmentStartNanos;
+    private long lastForceNanos;
+    private boolean rotate = false;
+    private volatile File currentSegment;
+    private volatile int segments = 0;
+    private volatile long bytesWritten = 0;
+    private volatile long maxWriteNanos = 0;
+    private volatile long slowWrites = 0;
+    private volatile IOException failure;
+
+    /**
+     * @param maxSegmentBytes size after which a new segment is started or NO_LIMIT
+     * @param maxSegmentMs duration after which a new segment is started or NO_LIMIT
+     */
+    public TsRecorder(SegmentNamer namer, long maxSegmentBytes, long maxSegmentMs) {
+        if (maxSegmentBytes != NO_LIMIT && maxSegmentBytes < WRITE_SIZE) throw new IllegalArgumentException("Segments must be at least " + WRITE_SIZE + " bytes");
+        if (maxSegmentMs < 0) throw new IllegalArgumentException("Negative duration " + maxSegmentMs);
+        this.namer = namer;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentNanos = maxSegmentMs * 1_000_000L;
+        for (int i = 0; i < BUFFERS; i++) free.add(new Buffer(BUFFER_SIZE));
+
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "TsRecorder");
+        writerThread.start();
+    }
+
+    /** Called from the thread receiving the stream, blocks only if the storage is falling behind */
+    public void write(byte[] buf, int offset, int count) throws IOException {
+        if (closed) throw new IOException("Recorder closed");
+        if (failure != null) throw failure;
+        bytesReceived += count;
+
+        while (count > 0) {
+            if (current == null) current = takeFree();
+
+            int n = Math.min(count, current.data.length - current.length);
+            System.arraycopy(buf, offset, current.data, current.length, n);
+            current.length += n;
+            offset += n;
+            count -= n;
+
+            if (current.length == current.data.length) {
+                filled.add(current);
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Like write, but never blocks. If there isn't a free buffer for the data, all of it is dropped,
+     * so what is recorded stays aligned on the boundaries the caller writes at.
+     *
+     * @param count must not be more than a buffer, 1 MiB
+     * @return false if the data was dropped because the storage is falling behind
+     */
+    public boolean offer(byte[] buf, int offset, int count) throws IOException {
+        if (closed) throw new IOException("Recorder closed");
+        if (failure != null) throw failure;
+        if (count > BUFFER_SIZE) throw new IllegalArgumentException("Can't offer more than " + BUFFER_SIZE + " bytes at once");
+
+        int room = current == null ? 0 : current.data.length - current.length;
+        if (count > room) {
+            Buffer next = free.poll();
+            if (next == null) {
+                droppedBytes += count;
+                return false;
+            }
+            if (current != null) {
+                System.arraycopy(buf, offset, current.data, current.length, room);
+                current.length += room;
+                filled.add(current);
+                offset += room;
+                count -= room;
+                bytesReceived += room;
+            }
+            current = next;
+        }
+
+        System.arraycopy(buf, offset, current.data, current.length, count);
+        current.length += count;
+        bytesReceived += count;
+        if (current.length == current.data.length) {
+            filled.add(current);
+            current = null;
+        }
+        return true;
+    }
+
+    /** Writes out everything received, closes the last segment and stops the writer thread */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        if (current != null) filled.add(current);
+        current = null;
+        filled.add(END);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            writerThread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the recording");
+        }
+        if (failure != null) throw failure;
+    }
+
+    public File getCurrentSegment() {
+        return currentSegment;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /** Bytes that reached the file system, the rest is still in the buffers */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** Total time write was blocked waiting for the storage to catch up */
+    public long getStallNanos() {
+        return stallNanos;
+    }
+
+    public long getStalls() {
+        return stalls;
+    }
+
+    /** Bytes offer had to drop because all buffers were waiting to be written out */
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    /** The longest a single write to the file system took */
+    public long getMaxWriteNanos() {
+        return maxWriteNanos;
+    }
+
+    /** Writes to the file system that took over 100 ms */
+    public long getSlowWrites() {
+        return slowWrites;
+    }
+
+    private Buffer takeFree() throws IOException {
+        Buffer buffer = free.poll();
+        if (buffer != null) return buffer;
+
+        long start = System.nanoTime();
+        try {
+            while (buffer == null) {
+                if (failure != null) throw failure;
+                buffer = free.poll(100, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the recording to catch up");
+        } finally {
+            stallNanos += System.nanoTime() - start;
+            stalls++;
+        }
+        return buffer;
+    }
+
+    private void writeLoop() {
+        try {
+            Buffer buffer;
+            while ((buffer = filled.take()) != END) {
+                try {
+                    if (failure == null) {
+                        if (channel != null && maxSegmentNanos != NO_LIMIT && System.nanoTime() - segmentStartNanos >= maxSegmentNanos) rotate = true;
+                        packetSync.feed(buffer.data, 0, buffer.length);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    // after a failure buffers are still recycled so that write doesn't block
+                    buffer.length = 0;
+                    free.add(buffer);
+                }
+            }
+            if (failure == null) packetSync.flush();
+            if (failure == null && channel != null) closeSegment();
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Recording interrupted");
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void writePacket(byte[] buf, int offset) throws IOException {
+        if (channel == null || rotate || (maxSegmentBytes != NO_LIMIT && segmentBytes + PACKET_SIZE > maxSegmentBytes)) {
+            startSegment();
+        }
+
+        indexWriter.packet(buf, offset, segmentBytes);
+        segmentBytes += PACKET_SIZE;
+
+        int n = Math.min(PACKET_SIZE, out.remaining());
+        out.put(buf, offset, n);
+        if (!out.hasRemaining()) {
+            writeOut();
+            out.put(buf, offset + n, PACKET_SIZE - n);
+        }
+    }
+
+    private void writeOut() throws IOException {
+        out.flip();
+        int length = out.remaining();
+        long start = System.nanoTime();
+        while (out.hasRemaining()) channel.write(out);
+        long took = System.nanoTime() - start;
+        out.clear();
+
+        bytesWritten += length;
+        if (took > maxWriteNanos) maxWriteNanos = took;
+        if (took > SLOW_WRITE_NANOS) slowWrites++;
+
+        if (start - lastForceNanos >= FORCE_INTERVAL_MS * 1_000_000L) {
+            channel.force(false);
+            indexWriter.flush();
+            lastForceNanos = start;
+        }
+    }
+
+    private void startSegment() throws IOException {
+        if (channel != null) closeSegment();
+
+        File file = namer.getSegmentFile(segments);
+        segmentFile = new RandomAccessFile(file, "rw");
+        segmentFile.setLength(0);
+        channel = segmentFile.getChannel();
+        indexWriter = new TsIndexWriter(new FileOutputStream(TsIndex.sidecarFor(file), false), TsIndex.DEFAULT_INTERVAL_MS);
+
+        segmentBytes = 0;
+        segmentStartNanos = lastForceNanos = System.nanoTime();
+        rotate = false;
+        currentSegment = file;
+        segments++;
+    }
+
+    private void closeSegment() throws IOException {
+        if (out.position() > 0) writeOut();
+        channel.force(true);
+        segmentFile.close();
+        indexWriter.close(); // after the segment, so the index isn't older than it
+        segmentFile = null;
+        channel = null;
+        indexWriter = null;
+    }
+
+    private void closeQuietly() {
+        try {
+            if (segmentFile != null) segmentFile.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            if (indexWriter != null) indexWriter.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static class Buffer {
+        private final byte[] data;
+        private int length;
+
+        private Buffer(int size) {
+            this.data = new byte[size];
+        }
+    }
+}
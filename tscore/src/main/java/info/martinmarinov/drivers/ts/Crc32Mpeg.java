@@ -0,0 +1,57 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+/**
+ * CRC-32 as used by MPEG-2 PSI and DVB SI sections: polynomial 0x04C11DB7, initial value
+ * 0xFFFFFFFF, no reflection and no final xor.
+ *
+ * A section that is intact has a CRC of 0 when computed over all of its bytes including the
+ * trailing CRC_32 field.
+ */
+public class Crc32Mpeg {
+    private final static int POLYNOMIAL = 0x04C11DB7;
+    private final static int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    private Crc32Mpeg() {}
+
+    public static int compute(byte[] buf, int offset, int length) {
+        return update(0xFFFFFFFF, buf, offset, length);
+    }
+
+    public static int update(int crc, byte[] buf, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            crc = (crc << 8) ^ TABLE[((crc >>> 24) ^ buf[i]) & 0xFF];
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+/**
+ * Program clock reference helpers. A PCR counts a 27 MHz clock and wraps every 2^33 * 300 ticks,
+ * a bit over 26 hours.
+ */
+public class Pcr {
+    public final static long HZ = 27_000_000L;
+    public final static long WRAP = (1L << 33) * 300;
+
+    private Pcr() {}
+
+    /** @return the PCR of a 188 byte packet in 27 MHz ticks or -1 if the packet doesn't carry one */
+    public static long read(byte[] buf, int offset) {
+        boolean adaptationFieldPresent = (buf[offset + 3] & 0x20) != 0;
+        if (!adaptationFieldPresent) return -1;
+
+        int adaptationFieldLength = buf[offset + 4] & 0xFF;
+        if (adaptationFieldLength < 7) return -1;
+
+        boolean pcrPresent = (buf[offset + 5] & 0x10) != 0;
+        if (!pcrPresent) return -1;
+
+        long programClockReferenceBase = ((long) (buf[offset + 6] & 0xFF) << 25) |
+                ((long) (buf[offset + 7] & 0xFF) << 17) |
+                ((long) (buf[offset + 8] & 0xFF) << 9) |
+                ((long) (buf[offset + 9] & 0xFF) << 1) |
+                ((long) (buf[offset + 10] & 0x80) >> 7);
+        long programClockExtensionReference = ((buf[offset + 10] & 0x01) << 8) | (buf[offset + 11] & 0xFF);
+
+        return programClockReferenceBase * 300L + programClockExtensionReference;
+    }
+
+    /** Ticks from one PCR to a later one, taking care of the wrap around **/
+    public static long elapsed(long from, long to) {
+        return (to - from + WRAP) % WRAP;
+    }
+
+    /** @return true if the adaptation field of a 188 byte packet has the random_access_indicator set */
+    public static boolean isRandomAccessPoint(byte[] buf, int offset) {
+        boolean adaptationFieldPresent = (buf[offset + 3] & 0x20) != 0;
+        return adaptationFieldPresent && (buf[offset + 4] & 0xFF) > 0 && (buf[offset + 5] & 0x40) != 0;
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps a live ServiceModel of the mux by parsing the PAT, the PMTs it points to, the SDT and
+ * the NIT as packets go through the demux.
+ *
+ * Only the data pump thread may call packet. The model can be read from any thread, it is
+ * replaced by a new immutable snapshot whenever a table changes. A table version that has
+ * already been parsed is skipped by the SectionAssembler as soon as its header is seen, so
+ * once the model is complete the cost per packet is an array lookup for most PIDs.
+ */
+public class PsiParser implements SectionAssembler.Listener {
+    public interface PidSelector {
+        boolean isSelected(int pid);
+    }
+
+    public interface ModelListener {
+        /** Called on the thread that changed the model, must return quickly as that is usually the data pump **/
+        void onModelChanged(ServiceModel model);
+    }
+
+    private final static int PAT_PID = 0x0000;
+    private final static int NIT_PID = 0x0010;
+    private final static int SDT_PID = 0x0011;
+
+    private final static int TABLE_PAT = 0x00;
+    private final static int TABLE_PMT = 0x02;
+    private final static int TABLE_NIT_ACTUAL = 0x40;
+    private final static int TABLE_SDT_ACTUAL = 0x42;
+
+    private final static int DESCRIPTOR_NETWORK_NAME = 0x40;
+    private final static int DESCRIPTOR_SERVICE = 0x48;
+
+    private final static Charset DEFAULT_CHARSET = Charset.forName("ISO-8859-1");
+    private final static int CRC_LENGTH = 4;
+
+    private final SectionAssembler assembler = new SectionAssembler(this);
+    private final List<TableVersion> tableVersions = new ArrayList<>();
+
+    private final Map<Integer, Integer> patPrograms = new HashMap<>(); // program number -> PMT PID
+    private final byte[][] patSections = new byte[256][];
+    private final TreeMap<Integer, ProgramState> programs = new TreeMap<>();
+    private final Map<Integer, ServiceState> services = new HashMap<>();
+    private int transportStreamId;
+    private int originalNetworkId;
+    private int networkId;
+    private String networkName;
+    private int nitPid;
+    private int announcedNitPid; // by the PAT, nitPid falls back to the default until then
+
+    private volatile boolean resetRequested = false;
+    private volatile ServiceModel model = ServiceModel.EMPTY;
+    private volatile ModelListener modelListener;
+    private long modelVersion = 0;
+
+    public PsiParser() {
+        reset();
+    }
+
+    public void packet(byte[] buf, int offset) {
+        if (resetRequested) {
+            resetRequested = false;
+            reset();
+        }
+        assembler.packet(buf, offset);
+    }
+
+    /** Forget everything, eg. after a tune. Can be called from any thread, takes effect on the next packet **/
+    public void requestReset() {
+        resetRequested = true;
+        setModel(ServiceModel.EMPTY);
+    }
+
+    public ServiceModel getModel() {
+        return model;
+    }
+
+    public void setModelListener(ModelListener modelListener) {
+        this.modelListener = modelListener;
+    }
+
+    /** Report the current model to the listener again, eg. when the state it acts on was reset **/
+    public void notifyModelListener() {
+        ModelListener listener = modelListener;
+        if (listener != null) listener.onModelChanged(model);
+    }
+
+    SectionAssembler getAssembler() {
+        return assembler;
+    }
+
+    private void reset() {
+        assembler.removeAllPids();
+        tableVersions.clear();
+        patPrograms.clear();
+        Arrays.fill(patSections, null);
+        programs.clear();
+        services.clear();
+        transportStreamId = -1;
+        originalNetworkId = -1;
+        networkId = -1;
+        networkName = "";
+        nitPid = NIT_PID;
+        announcedNitPid = ServiceModel.NO_PID;
+
+        assembler.addPid(PAT_PID);
+        assembler.addPid(SDT_PID);
+        assembler.addPid(nitPid);
+        setModel(ServiceModel.EMPTY);
+    }
+
+    @Override
+    public boolean isWanted(int pid, int tableId, int tableIdExtension, int version, int sectionNumber) {
+        if (!isExpected(pid, tableId)) return false;
+        TableVersion tableVersion = findTableVersion(tableId, tableIdExtension);
+        return tableVersion == null || tableVersion.version != version || !tableVersion.hasSection(sectionNumber);
+    }
+
+    @Override
+    public void onSection(int pid, byte[] buf, int length) {
+        int tableId = buf[0] & 0xFF;
+        if (!isExpected(pid, tableId)) return;
+
+        int tableIdExtension = ((buf[3] & 0xFF) << 8) | (buf[4] & 0xFF);
+        int version = (buf[5] >> 1) & 0x1F;
+        int sectionNumber = buf[6] & 0xFF;
+        int end = length - CRC_LENGTH;
+
+        if (tableId == TABLE_PMT) {
+            ProgramState program = programs.get(tableIdExtension);
+            // a PMT of a program that is not in the PAT (yet) can't be placed
+            if (program == null || program.pmtPid != pid) return;
+        }
+
+        TableVersion tableVersion = findTableVersion(tableId, tableIdExtension);
+        if (tableVersion == null) {
+            tableVersion = new TableVersion(tableId, tableIdExtension);
+            tableVersions.add(tableVersion);
+        }
+        boolean newVersion = tableVersion.version != version;
+        if (newVersion) {
+            tableVersion.version = version;
+            tableVersion.clearSections();
+        }
+        tableVersion.addSection(sectionNumber);
+
+        switch (tableId) {
+            case TABLE_PAT:
+                parsePat(buf, end, tableIdExtension, sectionNumber, newVersion);
+                break;
+            case TABLE_PMT:
+                parsePmt(buf, end, programs.get(tableIdExtension), version);
+                break;
+            case TABLE_SDT_ACTUAL:
+                parseSdt(buf, end, newVersion);
+                break;
+            case TABLE_NIT_ACTUAL:
+                parseNit(buf, end, tableIdExtension);
+                break;
+        }
+
+        publish();
+    }
+
+    private boolean isExpected(int pid, int tableId) {
+        switch (tableId) {
+            case TABLE_PAT:
+                return pid == PAT_PID;
+            case TABLE_PMT:
+                return pid != PAT_PID;
+            case TABLE_SDT_ACTUAL:
+                return pid == SDT_PID;
+            case TABLE_NIT_ACTUAL:
+                return pid == nitPid;
+            default:
+                return false;
+        }
+    }
+
+    private void parsePat(byte[] buf, int end, int tsId, int sectionNumber, boolean newVersion) {
+        transportStreamId = tsId;
+        if (newVersion) {
+            patPrograms.clear();
+            Arrays.fill(patSections, null);
+            announcedNitPid = ServiceModel.NO_PID;
+        }
+        patSections[sectionNumber] = Arrays.copyOf(buf, end + CRC_LENGTH);
+
+        for (int p = 8; p + 4 <= end; p += 4) {
+            int programNumber = ((buf[p] & 0xFF) << 8) | (buf[p + 1] & 0xFF);
+            int pid = ((buf[p + 2] & 0x1F) << 8) | (buf[p + 3] & 0xFF);
+            if (programNumber == 0) {
+                announcedNitPid = pid;
+                setNitPid(pid);
+            } else {
+                patPrograms.put(programNumber, pid);
+            }
+        }
+
+        // drop programs that are gone or moved to a different PMT PID
+        for (Iterator<ProgramState> it = programs.values().iterator(); it.hasNext(); ) {
+            ProgramState program = it.next();
+            Integer pmtPid = patPrograms.get(program.programNumber);
+            if (pmtPid == null || pmtPid != program.pmtPid) {
+                it.remove();
+                removeTableVersion(TABLE_PMT, program.programNumber);
+                untrackIfUnused(program.pmtPid);
+            }
+        }
+
+        for (Map.Entry<Integer, Integer> entry : patPrograms.entrySet()) {
+            if (programs.containsKey(entry.getKey())) continue;
+            programs.put(entry.getKey(), new ProgramState(entry.getKey(), entry.getValue()));
+            assembler.addPid(entry.getValue());
+        }
+    }
+
+    private void parsePmt(byte[] buf, int end, ProgramState program, int version) {
+        program.pmtVersion = version;
+        program.pcrPid = ((buf[8] & 0x1F) << 8) | (buf[9] & 0xFF);
+        int programInfoLength = ((buf[10] & 0x0F) << 8) | (buf[11] & 0xFF);
+
+        List<ServiceModel.Component> components = new ArrayList<>();
+        int p = 12 + programInfoLength;
+        while (p + 5 <= end) {
+            int streamType = buf[p] & 0xFF;
+            int pid = ((buf[p + 1] & 0x1F) << 8) | (buf[p + 2] & 0xFF);
+            int esInfoLength = ((buf[p + 3] & 0x0F) << 8) | (buf[p + 4] & 0xFF);
+            components.add(new ServiceModel.Component(streamType, pid));
+            p += 5 + esInfoLength;
+        }
+        program.components = components;
+        program.pmtSection = Arrays.copyOf(buf, end + CRC_LENGTH);
+    }
+
+    private void parseSdt(byte[] buf, int end, boolean newVersion) {
+        if (newVersion) services.clear();
+        originalNetworkId = ((buf[8] & 0xFF) << 8) | (buf[9] & 0xFF);
+
+        int p = 11;
+        while (p + 5 <= end) {
+            int serviceId = ((buf[p] & 0xFF) << 8) | (buf[p + 1] & 0xFF);
+            boolean scrambled = (buf[p + 3] & 0x10) != 0;
+            int descriptorsLength = ((buf[p + 3] & 0x0F) << 8) | (buf[p + 4] & 0xFF);
+            int descriptorsEnd = Math.min(p + 5 + descriptorsLength, end);
+
+            ServiceState service = new ServiceState(scrambled);
+            for (int d = p + 5; d + 2 <= descriptorsEnd; d += 2 + (buf[d + 1] & 0xFF)) {
+                int tag = buf[d] & 0xFF;
+                int length = buf[d + 1] & 0xFF;
+                if (tag != DESCRIPTOR_SERVICE || d + 2 + length > descriptorsEnd || length < 3) continue;
+
+                service.serviceType = buf[d + 2] & 0xFF;
+                int providerLength = buf[d + 3] & 0xFF;
+                if (4 + providerLength > 2 + length) continue;
+                service.providerName = decodeText(buf, d + 4, providerLength);
+                int nameLength = buf[d + 4 + providerLength] & 0xFF;
+                if (5 + providerLength + nameLength > 2 + length) continue;
+                service.serviceName = decodeText(buf, d + 5 + providerLength, nameLength);
+            }
+            services.put(serviceId, service);
+            p += 5 + descriptorsLength;
+        }
+    }
+
+    private void parseNit(byte[] buf, int end, int networkId) {
+        this.networkId = networkId;
+        int descriptorsLength = ((buf[8] & 0x0F) << 8) | (buf[9] & 0xFF);
+        int descriptorsEnd = Math.min(10 + descriptorsLength, end);
+
+        for (int d = 10; d + 2 <= descriptorsEnd; d += 2 + (buf[d + 1] & 0xFF)) {
+            int tag = buf[d] & 0xFF;
+            int length = buf[d + 1] & 0xFF;
+            if (tag == DESCRIPTOR_NETWORK_NAME && d + 2 + length <= descriptorsEnd) {
+                networkName = decodeText(buf, d + 2, length);
+            }
+        }
+    }
+
+    private void setNitPid(int pid) {
+        if (pid == nitPid) return;
+        int oldPid = nitPid;
+        nitPid = pid;
+        removeTableVersion(TABLE_NIT_ACTUAL, -1);
+        untrackIfUnused(oldPid);
+        assembler.addPid(pid);
+    }
+
+    private void untrackIfUnused(int pid) {
+        if (pid == PAT_PID || pid == SDT_PID || pid == nitPid) return;
+        for (ProgramState program : programs.values()) {
+            if (program.pmtPid == pid) return;
+        }
+        assembler.removePid(pid);
+    }
+
+    private void publish() {
+        List<ServiceModel.Program> list = new ArrayList<>(programs.size());
+        for (ProgramState program : programs.values()) {
+            ServiceState service = services.get(program.programNumber);
+            list.add(new ServiceModel.Program(program.programNumber, program.pmtPid, program.pmtVersion, program.pcrPid, program.components,
+                    service == null ? 0 : service.serviceType,
+                    service == null ? "" : service.serviceName,
+                    service == null ? "" : service.providerName,
+                    service != null && service.scrambled,
+                    program.pmtSection));
+        }
+        List<byte[]> pat = new ArrayList<>(1);
+        for (byte[] section : patSections) if (section != null) pat.add(section);
+        setModel(new ServiceModel(++modelVersion, transportStreamId, originalNetworkId, networkId, networkName, announcedNitPid, list, pat));
+    }
+
+    /**
+     * Packets carrying the latest PAT and PMTs of the selected PIDs, so a player can start without waiting
+     * for them to be repeated. The continuity counters lead up to the next packet of each PID in the stream.
+     * Must be called from the thread calling packet.
+     *
+     * @return the packets or null if there is nothing to send
+     */
+    public byte[] buildPreRoll(PidSelector selector) {
+        ServiceModel model = this.model;
+        TreeMap<Integer, List<byte[]>> sectionsByPid = new TreeMap<>();
+        if (selector.isSelected(PAT_PID) && !model.getPatSections().isEmpty()) {
+            sectionsByPid.put(PAT_PID, model.getPatSections());
+        }
+        for (ServiceModel.Program program : model.getPrograms()) {
+            byte[] pmtSection = program.getPmtSection();
+            if (pmtSection == null || !selector.isSelected(program.getPmtPid())) continue;
+
+            List<byte[]> sections = sectionsByPid.get(program.getPmtPid());
+            if (sections == null) {
+                sections = new ArrayList<>(1);
+                sectionsByPid.put(program.getPmtPid(), sections);
+            }
+            sections.add(pmtSection);
+        }
+        if (sectionsByPid.isEmpty()) return null;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<Integer, List<byte[]>> entry : sectionsByPid.entrySet()) {
+            int pid = entry.getKey();
+            byte[] packets = PsiSections.packetize(pid, entry.getValue());
+            int count = packets.length / PsiSections.PACKET_SIZE;
+            if (count > 16) continue; // can't be made continuous with the stream
+
+            // the last one gets the counter of the last packet the PID had, so the next one follows on
+            int cc = assembler.getLastContinuityCounter(pid) - count + 1;
+            for (int i = 0; i < count; i++) PsiSections.setContinuityCounter(packets, i * PsiSections.PACKET_SIZE, cc + i);
+            out.write(packets, 0, packets.length);
+        }
+        return out.size() == 0 ? null : out.toByteArray();
+    }
+
+    private void setModel(ServiceModel model) {
+        this.model = model;
+        ModelListener listener = modelListener;
+        if (listener != null) listener.onModelChanged(model);
+    }
+
+    private TableVersion findTableVersion(int tableId, int tableIdExtension) {
+        for (int i = 0; i < tableVersions.size(); i++) {
+            TableVersion tableVersion = tableVersions.get(i);
+            if (tableVersion.tableId == tableId && tableVersion.tableIdExtension == tableIdExtension) return tableVersion;
+        }
+        return null;
+    }
+
+    // tableIdExtension of -1 removes all extensions of the table
+    private void removeTableVersion(int tableId, int tableIdExtension) {
+        for (Iterator<TableVersion> it = tableVersions.iterator(); it.hasNext(); ) {
+            TableVersion tableVersion = it.next();
+            if (tableVersion.tableId == tableId && (tableIdExtension == -1 || tableVersion.tableIdExtension == tableIdExtension)) it.remove();
+        }
+    }
+
+    /** DVB text as described in ETSI EN 300 468 Annex A, the default table is approximated with Latin-1 **/
+    static String decodeText(byte[] buf, int offset, int length) {
+        if (length <= 0) return "";
+        Charset charset = DEFAULT_CHARSET;
+        int first = buf[offset] & 0xFF;
+        if (first < 0x20) {
+            String name = null;
+            int skip = 1;
+            if (first >= 0x01 && first <= 0x0B) {
+                name = "ISO-8859-" + (first + 4);
+            } else if (first == 0x10 && length >= 3) {
+                name = "ISO-8859-" + (((buf[offset + 1] & 0xFF) << 8) | (buf[offset + 2] & 0xFF));
+                skip = 3;
+            } else if (first == 0x11) {
+                name = "UTF-16BE";
+            } else if (first == 0x15) {
+                name = "UTF-8";
+            }
+            if (name != null) {
+                try {
+                    charset = Charset.forName(name);
+                } catch (IllegalArgumentException ignored) {
+                    // unsupported on this device, fall back to the default
+                }
+            }
+            offset += skip;
+            length -= skip;
+        }
+
+        String text = new String(buf, offset, length, charset);
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == 0x8A) {
+                result.append(' '); // CR/LF
+            } else if (c >= 0x20 && (c < 0x80 || c > 0x9F)) {
+                result.append(c); // control codes such as emphasis on/off are dropped
+            }
+        }
+        return result.toString().trim();
+    }
+
+    private static class TableVersion {
+        private final int tableId;
+        private final int tableIdExtension;
+        private final long[] sections = new long[4]; // 256 bits
+        private int version = -1;
+
+        private TableVersion(int tableId, int tableIdExtension) {
+            this.tableId = tableId;
+            this.tableIdExtension = tableIdExtension;
+        }
+
+        private boolean hasSection(int sectionNumber) {
+            return (sections[sectionNumber >> 6] & (1L << sectionNumber)) != 0;
+        }
+
+        private void addSection(int sectionNumber) {
+            sections[sectionNumber >> 6] |= 1L << sectionNumber;
+        }
+
+        private void clearSections() {
+            for (int i = 0; i < sections.length; i++) sections[i] = 0;
+        }
+    }
+
+    private static class ProgramState {
+        private final int programNumber;
+        private final int pmtPid;
+        private int pmtVersion = -1;
+        private int pcrPid = ServiceModel.NO_PID;
+        private List<ServiceModel.Component> components = new ArrayList<>();
+        private byte[] pmtSection;
+
+        private ProgramState(int programNumber, int pmtPid) {
+            this.programNumber = programNumber;
+            this.pmtPid = pmtPid;
+        }
+    }
+
+    private static class ServiceState {
+        private final boolean scrambled;
+        private int serviceType = 0;
+        private String serviceName = "";
+        private String providerName = "";
+
+        private ServiceState(boolean scrambled) {
+            this.scrambled = scrambled;
+        }
+    }
+}
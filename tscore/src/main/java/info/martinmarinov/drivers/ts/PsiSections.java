@@ -0,0 +1,121 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+/** Building blocks for sections and packets that the driver generates itself **/
+class PsiSections {
+    final static int PACKET_SIZE = 188;
+    final static int MAX_SINGLE_PACKET_SECTION = PACKET_SIZE - 5; // header and pointer field
+
+    private PsiSections() {}
+
+    static byte[] longSection(int tableId, int tableIdExtension, int version, byte[] body) {
+        int sectionLength = 5 + body.length + 4;
+        byte[] section = new byte[3 + sectionLength];
+        section[0] = (byte) tableId;
+        section[1] = (byte) (0xB0 | (sectionLength >> 8));
+        section[2] = (byte) sectionLength;
+        section[3] = (byte) (tableIdExtension >> 8);
+        section[4] = (byte) tableIdExtension;
+        section[5] = (byte) (0xC1 | ((version & 0x1F) << 1)); // current
+        section[6] = 0; // section number
+        section[7] = 0; // last section number
+        System.arraycopy(body, 0, section, 8, body.length);
+
+        int crc = Crc32Mpeg.compute(section, 0, section.length - 4);
+        section[section.length - 4] = (byte) (crc >> 24);
+        section[section.length - 3] = (byte) (crc >> 16);
+        section[section.length - 2] = (byte) (crc >> 8);
+        section[section.length - 1] = (byte) crc;
+        return section;
+    }
+
+    /** PAT with a single program **/
+    static byte[] singleProgramPat(int transportStreamId, int version, int programNumber, int pmtPid) {
+        byte[] body = {
+                (byte) (programNumber >> 8), (byte) programNumber,
+                (byte) (0xE0 | (pmtPid >> 8)), (byte) pmtPid
+        };
+        return longSection(0x00, transportStreamId, version, body);
+    }
+
+    /** A packet carrying a whole section, continuity counter is 0. The section must fit in one packet **/
+    static byte[] sectionPacket(int pid, byte[] section) {
+        if (section.length > MAX_SINGLE_PACKET_SECTION) throw new IllegalArgumentException("Section doesn't fit in a packet");
+        byte[] packet = new byte[PACKET_SIZE];
+        packet[0] = 0x47;
+        packet[1] = (byte) (0x40 | (pid >> 8)); // payload unit start
+        packet[2] = (byte) pid;
+        packet[3] = 0x10; // payload only
+        packet[4] = 0; // pointer field
+        System.arraycopy(section, 0, packet, 5, section.length);
+        for (int i = 5 + section.length; i < PACKET_SIZE; i++) packet[i] = (byte) 0xFF;
+        return packet;
+    }
+
+    /** Sections packed back to back into as few packets as possible, continuity counters are 0 **/
+    static byte[] packetize(int pid, List<byte[]> sections) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] starts = new int[sections.size()];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = data.size();
+            byte[] section = sections.get(i);
+            data.write(section, 0, section.length);
+        }
+        byte[] stream = data.toByteArray();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] packet = new byte[PACKET_SIZE];
+        int pos = 0;
+        int nextSection = 0;
+        while (pos < stream.length) {
+            while (nextSection < starts.length && starts[nextSection] < pos) nextSection++;
+            int nextStart = nextSection < starts.length ? starts[nextSection] : -1;
+
+            packet[0] = 0x47;
+            packet[2] = (byte) pid;
+            packet[3] = 0x10; // payload only
+            int p = 4;
+            int limit = stream.length;
+            if (nextStart >= 0 && nextStart < pos + PACKET_SIZE - 5) {
+                packet[1] = (byte) (0x40 | (pid >> 8)); // payload unit start
+                packet[p++] = (byte) (nextStart - pos); // pointer field
+            } else {
+                packet[1] = (byte) (pid >> 8);
+                if (nextStart >= 0) limit = nextStart; // a section can't start without a pointer field, stuff the rest
+            }
+
+            int n = Math.min(PACKET_SIZE - p, limit - pos);
+            System.arraycopy(stream, pos, packet, p, n);
+            for (int i = p + n; i < PACKET_SIZE; i++) packet[i] = (byte) 0xFF;
+            pos += n;
+            out.write(packet, 0, PACKET_SIZE);
+        }
+        return out.toByteArray();
+    }
+
+    static void setContinuityCounter(byte[] buf, int offset, int cc) {
+        buf[offset + 3] = (byte) ((buf[offset + 3] & 0xF0) | (cc & 0x0F));
+    }
+}
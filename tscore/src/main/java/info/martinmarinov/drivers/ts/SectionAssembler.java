@@ -0,0 +1,203 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+/**
+ * Reassembles PSI/SI sections from 188 byte TS packets of the PIDs it has been asked to track.
+ *
+ * It is meant to run on the data pump thread for every packet of the mux. Packets of PIDs that
+ * aren't tracked are rejected with a single array lookup, and tracked PIDs reuse their own
+ * preallocated buffer, so nothing is allocated per packet.
+ *
+ * Once the header of a long form section is in, the listener is asked whether it wants it.
+ * Sections it already has, eg. the same version of a table that is repeated every 100 ms,
+ * are then skipped without being copied or having their CRC checked.
+ *
+ * A section is only delivered if its CRC is valid and all of its packets arrived in order.
+ * Not thread safe, all calls must come from the same thread.
+ */
+public class SectionAssembler {
+    public final static int MAX_SECTION_LENGTH = 1024; // PSI and the DVB SI tables we parse are limited to 1024 bytes
+    private final static int PACKET_SIZE = 188;
+    private final static int LONG_HEADER_LENGTH = 8;
+    private final static int MIN_LONG_SECTION_LENGTH = LONG_HEADER_LENGTH + 4; // the header, no data and the CRC
+
+    public interface Listener {
+        /** Called as soon as the header of a long form section is available, return false to skip it **/
+        boolean isWanted(int pid, int tableId, int tableIdExtension, int version, int sectionNumber);
+
+        /** A complete section with a valid CRC, buf is only valid for the duration of the call **/
+        void onSection(int pid, byte[] buf, int length);
+    }
+
+    private final Assembly[] assemblies = new Assembly[0x2000];
+    private final Listener listener;
+
+    private long sectionsDelivered = 0;
+    private long sectionsSkipped = 0;
+    private long crcErrors = 0;
+
+    public SectionAssembler(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void addPid(int pid) {
+        if (assemblies[pid] == null) assemblies[pid] = new Assembly();
+    }
+
+    public void removePid(int pid) {
+        assemblies[pid] = null;
+    }
+
+    public boolean isTracked(int pid) {
+        return assemblies[pid] != null;
+    }
+
+    /** Continuity counter of the last packet with payload of a tracked PID, -1 if not known **/
+    public int getLastContinuityCounter(int pid) {
+        Assembly a = assemblies[pid];
+        return a == null ? -1 : a.lastCc;
+    }
+
+    public void removeAllPids() {
+        for (int i = 0; i < assemblies.length; i++) assemblies[i] = null;
+    }
+
+    public void packet(byte[] buf, int offset) {
+        int pid = ((buf[offset + 1] & 0x1F) << 8) | (buf[offset + 2] & 0xFF);
+        Assembly a = assemblies[pid];
+        if (a == null) return;
+
+        int afc = (buf[offset + 3] >> 4) & 0x3;
+        if ((afc & 0x1) == 0) return; // no payload
+
+        int cc = buf[offset + 3] & 0x0F;
+        if (cc == a.lastCc) return; // duplicate packet
+        if (a.lastCc >= 0 && cc != ((a.lastCc + 1) & 0x0F)) a.started = false; // lost packets, drop the partial section
+        a.lastCc = cc;
+
+        int p = offset + 4;
+        int end = offset + PACKET_SIZE;
+        if (afc == 0x3) p += 1 + (buf[offset + 4] & 0xFF);
+
+        boolean unitStart = (buf[offset + 1] & 0x40) != 0;
+        if (!unitStart) {
+            if (a.started && p < end) feed(pid, a, buf, p, end);
+            return;
+        }
+
+        if (p >= end) return;
+        int pointer = buf[p++] & 0xFF;
+        int sectionStart = p + pointer;
+        if (sectionStart > end) {
+            a.started = false;
+            return;
+        }
+        // the bytes before the pointer finish the previous section
+        if (a.started && pointer > 0) feed(pid, a, buf, p, sectionStart);
+        a.started = false;
+
+        p = sectionStart;
+        while (p < end && (buf[p] & 0xFF) != 0xFF) { // 0xFF is stuffing until the end of the packet
+            a.started = true;
+            a.length = 0;
+            a.expected = -1;
+            a.skipping = false;
+
+            p += feed(pid, a, buf, p, end);
+            if (a.started) break; // continues in the next packet
+        }
+    }
+
+    // Returns the number of bytes used
+    private int feed(int pid, Assembly a, byte[] buf, int from, int to) {
+        int p = from;
+
+        if (a.length < 3) {
+            int n = Math.min(3 - a.length, to - p);
+            System.arraycopy(buf, p, a.buf, a.length, n);
+            a.length += n;
+            p += n;
+            if (a.length < 3) return p - from;
+
+            a.expected = 3 + (((a.buf[1] & 0x0F) << 8) | (a.buf[2] & 0xFF));
+            boolean longForm = (a.buf[1] & 0x80) != 0;
+            if (a.expected > MAX_SECTION_LENGTH || (longForm && a.expected < MIN_LONG_SECTION_LENGTH)) {
+                a.started = false;
+                return to - from; // can't tell where the next section would start
+            }
+        }
+
+        boolean longForm = (a.buf[1] & 0x80) != 0;
+        if (longForm && a.length < LONG_HEADER_LENGTH) {
+            int n = Math.min(LONG_HEADER_LENGTH - a.length, to - p);
+            System.arraycopy(buf, p, a.buf, a.length, n);
+            a.length += n;
+            p += n;
+            if (a.length < LONG_HEADER_LENGTH) return p - from;
+
+            boolean currentNext = (a.buf[5] & 0x01) != 0;
+            int tableIdExtension = ((a.buf[3] & 0xFF) << 8) | (a.buf[4] & 0xFF);
+            int version = (a.buf[5] >> 1) & 0x1F;
+            a.skipping = !currentNext || !listener.isWanted(pid, a.buf[0] & 0xFF, tableIdExtension, version, a.buf[6] & 0xFF);
+        }
+
+        int n = Math.min(a.expected - a.length, to - p);
+        if (!a.skipping) System.arraycopy(buf, p, a.buf, a.length, n);
+        a.length += n;
+        p += n;
+
+        if (a.length == a.expected) {
+            a.started = false;
+            if (a.skipping) {
+                sectionsSkipped++;
+            } else if (longForm && Crc32Mpeg.compute(a.buf, 0, a.length) != 0) {
+                crcErrors++;
+            } else {
+                sectionsDelivered++;
+                listener.onSection(pid, a.buf, a.length);
+            }
+        }
+        return p - from;
+    }
+
+    public long getSectionsDelivered() {
+        return sectionsDelivered;
+    }
+
+    /** Sections that were not wanted by the listener, mostly repetitions of tables already parsed **/
+    public long getSectionsSkipped() {
+        return sectionsSkipped;
+    }
+
+    public long getCrcErrors() {
+        return crcErrors;
+    }
+
+    private static class Assembly {
+        private final byte[] buf = new byte[MAX_SECTION_LENGTH];
+        private int lastCc = -1;
+        private boolean started = false;
+        private boolean skipping = false;
+        private int length;
+        private int expected;
+    }
+}
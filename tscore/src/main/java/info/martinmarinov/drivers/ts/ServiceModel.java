@@ -0,0 +1,275 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the programs in the mux and their component PIDs, as announced by
+ * the PAT, PMTs, SDT and NIT. A new snapshot with a higher version is published whenever
+ * any of them changes.
+ */
+public class ServiceModel {
+    public final static int NO_PID = -1;
+    private final static int PAT_PID = 0x0000;
+    private final static int SDT_PID = 0x0011;
+    public final static ServiceModel EMPTY = new ServiceModel(0, -1, -1, -1, "", NO_PID, Collections.<Program>emptyList(), Collections.<byte[]>emptyList());
+
+    private final long version;
+    private final int transportStreamId;
+    private final int originalNetworkId;
+    private final int networkId;
+    private final String networkName;
+    private final int nitPid;
+    private final List<Program> programs;
+    private final List<byte[]> patSections;
+
+    ServiceModel(long version, int transportStreamId, int originalNetworkId, int networkId, String networkName, int nitPid, List<Program> programs, List<byte[]> patSections) {
+        this.version = version;
+        this.transportStreamId = transportStreamId;
+        this.originalNetworkId = originalNetworkId;
+        this.networkId = networkId;
+        this.networkName = networkName;
+        this.nitPid = nitPid;
+        this.programs = Collections.unmodifiableList(programs);
+        this.patSections = Collections.unmodifiableList(patSections);
+    }
+
+    /** Increments on every change of the model, 0 until anything is received after a tune **/
+    public long getVersion() {
+        return version;
+    }
+
+    /** -1 until the PAT is received **/
+    public int getTransportStreamId() {
+        return transportStreamId;
+    }
+
+    /** -1 until the SDT is received **/
+    public int getOriginalNetworkId() {
+        return originalNetworkId;
+    }
+
+    /** -1 until the NIT is received **/
+    public int getNetworkId() {
+        return networkId;
+    }
+
+    public String getNetworkName() {
+        return networkName;
+    }
+
+    /** PID of the NIT as announced by program 0 of the PAT, NO_PID if it doesn't announce one **/
+    public int getNitPid() {
+        return nitPid;
+    }
+
+    /** Programs ordered by program number **/
+    public List<Program> getPrograms() {
+        return programs;
+    }
+
+    /** Sections of the PAT as received, in section number order. Must not be modified **/
+    List<byte[]> getPatSections() {
+        return patSections;
+    }
+
+    /** @return the program or null if it isn't in the PAT */
+    public Program getProgram(int programNumber) {
+        for (Program program : programs) {
+            if (program.getProgramNumber() == programNumber) return program;
+        }
+        return null;
+    }
+
+    /**
+     * PIDs needed to play a program and to keep this model up to date: the PAT, SDT and NIT, the PMT
+     * of the program once it is in the PAT and its PCR and component PIDs once the PMT is in.
+     * The PMTs of the other programs are left out so a service fits in the hardware PID slots.
+     */
+    public int[] getServicePids(int programNumber) {
+        Program program = getProgram(programNumber);
+        int[] programPids = program == null ? new int[0] : program.getPids();
+
+        int[] pids = new int[3 + programPids.length];
+        int count = 0;
+        pids[count++] = PAT_PID;
+        pids[count++] = SDT_PID;
+        if (nitPid != NO_PID) pids[count++] = nitPid;
+        for (int pid : programPids) pids[count++] = pid;
+
+        Arrays.sort(pids, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || pids[unique - 1] != pids[i]) pids[unique++] = pids[i];
+        }
+        return Arrays.copyOf(pids, unique);
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceModel{" +
+                "version=" + version +
+                ", transportStreamId=" + transportStreamId +
+                ", originalNetworkId=" + originalNetworkId +
+                ", networkId=" + networkId +
+                ", networkName='" + networkName + '\'' +
+                ", nitPid=" + nitPid +
+                ", programs=" + programs +
+                '}';
+    }
+
+    public static class Program {
+        private final int programNumber;
+        private final int pmtPid;
+        private final int pmtVersion;
+        private final int pcrPid;
+        private final List<Component> components;
+        private final int serviceType;
+        private final String serviceName;
+        private final String providerName;
+        private final boolean scrambled;
+        private final byte[] pmtSection;
+
+        Program(int programNumber, int pmtPid, int pmtVersion, int pcrPid, List<Component> components,
+                int serviceType, String serviceName, String providerName, boolean scrambled, byte[] pmtSection) {
+            this.programNumber = programNumber;
+            this.pmtPid = pmtPid;
+            this.pmtVersion = pmtVersion;
+            this.pcrPid = pcrPid;
+            this.components = Collections.unmodifiableList(components);
+            this.serviceType = serviceType;
+            this.serviceName = serviceName;
+            this.providerName = providerName;
+            this.scrambled = scrambled;
+            this.pmtSection = pmtSection;
+        }
+
+        /** Same as the service_id in the SDT **/
+        public int getProgramNumber() {
+            return programNumber;
+        }
+
+        public int getPmtPid() {
+            return pmtPid;
+        }
+
+        /** -1 until the PMT is received, components and PCR PID are only known after that **/
+        public int getPmtVersion() {
+            return pmtVersion;
+        }
+
+        /** NO_PID if not known yet **/
+        public int getPcrPid() {
+            return pcrPid;
+        }
+
+        public List<Component> getComponents() {
+            return components;
+        }
+
+        /** service_type of the SDT service descriptor, 0 if not known **/
+        public int getServiceType() {
+            return serviceType;
+        }
+
+        public String getServiceName() {
+            return serviceName;
+        }
+
+        public String getProviderName() {
+            return providerName;
+        }
+
+        /** free_CA_mode of the SDT **/
+        public boolean isScrambled() {
+            return scrambled;
+        }
+
+        /** The PMT section as received, null until it is. Must not be modified **/
+        byte[] getPmtSection() {
+            return pmtSection;
+        }
+
+        /** PMT, PCR and component PIDs of the program without duplicates **/
+        public int[] getPids() {
+            int[] pids = new int[2 + components.size()];
+            int count = 0;
+            count = addUnique(pids, count, pmtPid);
+            count = addUnique(pids, count, pcrPid);
+            for (Component component : components) count = addUnique(pids, count, component.getPid());
+            int[] result = new int[count];
+            System.arraycopy(pids, 0, result, 0, count);
+            return result;
+        }
+
+        private static int addUnique(int[] pids, int count, int pid) {
+            if (pid == NO_PID || pid == 0x1FFF) return count;
+            for (int i = 0; i < count; i++) if (pids[i] == pid) return count;
+            pids[count] = pid;
+            return count + 1;
+        }
+
+        @Override
+        public String toString() {
+            return "Program{" +
+                    "programNumber=" + programNumber +
+                    ", pmtPid=" + pmtPid +
+                    ", pmtVersion=" + pmtVersion +
+                    ", pcrPid=" + pcrPid +
+                    ", components=" + components +
+                    ", serviceType=" + serviceType +
+                    ", serviceName='" + serviceName + '\'' +
+                    ", providerName='" + providerName + '\'' +
+                    ", scrambled=" + scrambled +
+                    '}';
+        }
+    }
+
+    public static class Component {
+        private final int streamType;
+        private final int pid;
+
+        Component(int streamType, int pid) {
+            this.streamType = streamType;
+            this.pid = pid;
+        }
+
+        /** stream_type of the PMT, eg. 0x02 MPEG-2 video, 0x1B H.264, 0x06 private data such as AC-3 or subtitles **/
+        public int getStreamType() {
+            return streamType;
+        }
+
+        public int getPid() {
+            return pid;
+        }
+
+        @Override
+        public String toString() {
+            return "Component{" +
+                    "streamType=0x" + Integer.toHexString(streamType) +
+                    ", pid=" + pid +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import info.martinmarinov.drivers.tools.FastIntFilter;
+
+/**
+ * Turns the stream into a single program transport stream (SPTS) for one program, so players
+ * don't have to probe every program of the mux before they start.
+ *
+ * The PAT is replaced by one that only lists the program, and the PMT PID only carries the
+ * PMT of the program, both with their own continuity counters. Optionally null packets and
+ * packets of PIDs the program doesn't reference are dropped.
+ *
+ * It works in place on the packets, so apart from rebuilding the replacement tables when the
+ * program changes nothing is allocated. Only the data pump thread may call process.
+ */
+public class SptsRemuxer {
+    private final static int NULL_PID = 0x1FFF;
+    private final static int PAT_PID = 0x0000;
+
+    private final PsiParser psiParser;
+
+    private volatile Config config = null;
+
+    // state of the pump thread
+    private Config currentConfig = null;
+    private ServiceModel currentModel = null;
+    private final FastIntFilter referencedPids = new FastIntFilter(0x2000);
+    private byte[] patPacket;
+    private byte[] pmtPacket;
+    private int pmtPid = ServiceModel.NO_PID;
+    private int patVersion = 0;
+    private int patCc = 0;
+    private int pmtCc = 0;
+
+    public SptsRemuxer(PsiParser psiParser) {
+        this.psiParser = psiParser;
+    }
+
+    /** Remux to a single program, can be called from any thread **/
+    public void setProgram(int programNumber, boolean dropNullPackets, boolean dropUnreferencedPids) {
+        config = new Config(programNumber, dropNullPackets, dropUnreferencedPids);
+    }
+
+    /** Pass the stream through as it is **/
+    public void disable() {
+        config = null;
+    }
+
+    public boolean isEnabled() {
+        return config != null;
+    }
+
+    /**
+     * @return false if the packet should be dropped, otherwise it should be passed on. PAT and PMT packets
+     * are overwritten in place with the replacement tables.
+     */
+    public boolean process(byte[] buf, int offset) {
+        Config config = this.config;
+        if (config == null) return true;
+
+        int pid = ((buf[offset + 1] & 0x1F) << 8) | (buf[offset + 2] & 0xFF);
+        if (pid == NULL_PID) return !config.dropNullPackets;
+
+        ServiceModel model = psiParser.getModel();
+        if (config != currentConfig || model != currentModel) update(config, model);
+
+        boolean unitStart = (buf[offset + 1] & 0x40) != 0;
+        if (pid == PAT_PID) {
+            // the replacement fits in one packet, so it goes instead of the first packet of each original PAT
+            if (patPacket == null || !unitStart) return false;
+            System.arraycopy(patPacket, 0, buf, offset, PsiSections.PACKET_SIZE);
+            PsiSections.setContinuityCounter(buf, offset, patCc++);
+            return true;
+        }
+
+        if (pid == pmtPid && pmtPacket != null) {
+            // other programs may share the PID, only our PMT goes through
+            if (!unitStart) return false;
+            System.arraycopy(pmtPacket, 0, buf, offset, PsiSections.PACKET_SIZE);
+            PsiSections.setContinuityCounter(buf, offset, pmtCc++);
+            return true;
+        }
+
+        return !config.dropUnreferencedPids || referencedPids.isFiltered(pid);
+    }
+
+    /**
+     * The replacement PAT and PMT, so a player can start without waiting for them to be repeated.
+     * Must be called from the thread calling process.
+     *
+     * @return the packets or null if the program isn't known yet
+     */
+    public byte[] buildPreRoll() {
+        Config config = this.config;
+        if (config == null) return null;
+        ServiceModel model = psiParser.getModel();
+        if (config != currentConfig || model != currentModel) update(config, model);
+        if (patPacket == null) return null;
+
+        byte[] packets = new byte[pmtPacket == null ? PsiSections.PACKET_SIZE : 2 * PsiSections.PACKET_SIZE];
+        System.arraycopy(patPacket, 0, packets, 0, PsiSections.PACKET_SIZE);
+        PsiSections.setContinuityCounter(packets, 0, patCc++);
+        if (pmtPacket != null) {
+            System.arraycopy(pmtPacket, 0, packets, PsiSections.PACKET_SIZE, PsiSections.PACKET_SIZE);
+            PsiSections.setContinuityCounter(packets, PsiSections.PACKET_SIZE, pmtCc++);
+        }
+        return packets;
+    }
+
+    private void update(Config config, ServiceModel model) {
+        ServiceModel.Program program = model.getProgram(config.programNumber);
+        int newPmtPid = program == null ? ServiceModel.NO_PID : program.getPmtPid();
+
+        if (program == null) {
+            patPacket = null;
+        } else if (patPacket == null || newPmtPid != pmtPid || config.programNumber != currentConfig.programNumber
+                || model.getTransportStreamId() != currentModel.getTransportStreamId()) {
+            byte[] pat = PsiSections.singleProgramPat(model.getTransportStreamId(), patVersion++, config.programNumber, newPmtPid);
+            patPacket = PsiSections.sectionPacket(PAT_PID, pat);
+        }
+
+        byte[] pmtSection = program == null ? null : program.getPmtSection();
+        // a PMT that doesn't fit in a packet can't be swapped in place, it is passed through as it is
+        pmtPacket = pmtSection == null || pmtSection.length > PsiSections.MAX_SINGLE_PACKET_SECTION ?
+                null : PsiSections.sectionPacket(newPmtPid, pmtSection);
+        pmtPid = newPmtPid;
+
+        referencedPids.setFilter(program == null ? new int[0] : program.getPids());
+        currentConfig = config;
+        currentModel = model;
+    }
+
+    private static class Config {
+        private final int programNumber;
+        private final boolean dropNullPackets;
+        private final boolean dropUnreferencedPids;
+
+        private Config(int programNumber, boolean dropNullPackets, boolean dropUnreferencedPids) {
+            this.programNumber = programNumber;
+            this.dropNullPackets = dropNullPackets;
+            this.dropUnreferencedPids = dropUnreferencedPids;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+/**
+ * Time into a transport stream, going by the PCR of the first PID that carries one.
+ *
+ * A jump of over a second, eg. a retune or a glitch, counts as long as the PCR interval before
+ * it, so the time keeps going up steadily. Not thread safe.
+ */
+public class StreamClock {
+    private final static long MAX_PCR_GAP = Pcr.HZ;
+
+    private int pcrPid = -1;
+    private long lastPcr = -1;
+    private long lastElapsed = 0;
+    private long ticks = 0;
+
+    /** Feed every 188 byte packet of the stream **/
+    public void packet(byte[] buf, int offset) {
+        long pcr = Pcr.read(buf, offset);
+        if (pcr < 0) return;
+
+        int pid = ((buf[offset + 1] & 0x1F) << 8) | (buf[offset + 2] & 0xFF);
+        if (pcrPid < 0) pcrPid = pid;
+        if (pid != pcrPid) return;
+
+        if (lastPcr >= 0) {
+            long elapsed = Pcr.elapsed(lastPcr, pcr);
+            if (elapsed <= MAX_PCR_GAP) lastElapsed = elapsed;
+            ticks += lastElapsed;
+        }
+        lastPcr = pcr;
+    }
+
+    public long getTimeMs() {
+        return ticks / (Pcr.HZ / 1000);
+    }
+
+    /** @return true if a player can start from this packet: it has the random_access_indicator set or starts a PAT */
+    public static boolean isRandomAccessPoint(byte[] buf, int offset) {
+        if (Pcr.isRandomAccessPoint(buf, offset)) return true;
+        int pid = ((buf[offset + 1] & 0x1F) << 8) | (buf[offset + 2] & 0xFF);
+        boolean unitStart = (buf[offset + 1] & 0x40) != 0;
+        return pid == 0 && unitStart;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Random access index of a transport stream recording, kept next to it in a file with the same
+ * name and SUFFIX appended.
+ *
+ * The file starts with MAGIC, VERSION and the interval in ms between entries, all big endian ints.
+ * It is followed by the entries, each the long byte offset of a random access point and the int
+ * ms into the recording it is at. Entries are in increasing order of both, so the index is
+ * appended to while recording and a truncated last entry is simply ignored.
+ */
+public class TsIndex {
+    public final static String SUFFIX = ".idx";
+    public final static int DEFAULT_INTERVAL_MS = 500;
+
+    final static int MAGIC = 0x54534958; // "TSIX"
+    final static int VERSION = 1;
+
+    private final static int CHUNK_SIZE = 256 * 1024;
+
+    private final int intervalMs;
+    private final long[] offsets;
+    private final int[] timesMs;
+
+    private TsIndex(int intervalMs, long[] offsets, int[] timesMs) {
+        this.intervalMs = intervalMs;
+        this.offsets = offsets;
+        this.timesMs = timesMs;
+    }
+
+    public static File sidecarFor(File recording) {
+        return new File(recording.getPath() + SUFFIX);
+    }
+
+    public static TsIndex read(File indexFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException(indexFile + " is not an index");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported index version " + version);
+            int intervalMs = in.readInt();
+
+            int capacity = (int) Math.max(16, (indexFile.length() - 12) / 12);
+            long[] offsets = new long[capacity];
+            int[] timesMs = new int[capacity];
+            int size = 0;
+            try {
+                while (true) {
+                    long offset = in.readLong();
+                    int timeMs = in.readInt();
+                    if (size == offsets.length) {
+                        // still being written to
+                        offsets = Arrays.copyOf(offsets, 2 * size);
+                        timesMs = Arrays.copyOf(timesMs, 2 * size);
+                    }
+                    offsets[size] = offset;
+                    timesMs[size] = timeMs;
+                    size++;
+                }
+            } catch (EOFException ignored) {
+                // end of the entries
+            }
+            return new TsIndex(intervalMs, Arrays.copyOf(offsets, size), Arrays.copyOf(timesMs, size));
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Indexes a recording in a single pass and writes the sidecar, replacing any existing one */
+    public static TsIndex build(File recording) throws IOException {
+        File indexFile = sidecarFor(recording);
+        File tmp = new File(indexFile.getPath() + ".tmp");
+
+        FileInputStream in = new FileInputStream(recording);
+        try {
+            final TsIndexWriter writer = new TsIndexWriter(new FileOutputStream(tmp), DEFAULT_INTERVAL_MS);
+            try {
+                final TsPacketSync[] sync = new TsPacketSync[1];
+                sync[0] = new TsPacketSync(new TsPacketSync.PacketSink() {
+                    @Override
+                    public void packet(byte[] buf, int offset) throws IOException {
+                        writer.packet(buf, offset, sync[0].getPacketPosition());
+                    }
+                });
+
+                FileChannel channel = in.getChannel();
+                byte[] chunk = new byte[CHUNK_SIZE];
+                ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+                int read;
+                while ((read = channel.read(chunkBuffer)) >= 0) {
+                    sync[0].feed(chunk, 0, read);
+                    chunkBuffer.clear();
+                }
+                sync[0].flush();
+            } finally {
+                writer.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        if (!tmp.renameTo(indexFile)) {
+            tmp.delete();
+            throw new IOException("Cannot write " + indexFile);
+        }
+        return read(indexFile);
+    }
+
+    /** Reads the sidecar of a recording if it is up to date with it, otherwise builds it */
+    public static TsIndex loadOrBuild(File recording) throws IOException {
+        File indexFile = sidecarFor(recording);
+        if (indexFile.exists() && indexFile.lastModified() >= recording.lastModified()) {
+            try {
+                return read(indexFile);
+            } catch (IOException ignored) {
+                // corrupt, build it again
+            }
+        }
+        return build(recording);
+    }
+
+    /**
+     * @return byte offset of the last random access point at or before timeMs into the recording,
+     * the first one if timeMs is before it or 0 if the index is empty
+     */
+    public long getOffset(long timeMs) {
+        if (offsets.length == 0) return 0;
+
+        int lo = 0, hi = timesMs.length - 1;
+        if (timeMs < timesMs[0]) return offsets[0];
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (timesMs[mid] <= timeMs) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return offsets[lo];
+    }
+
+    /** Time of the last entry, the recording is up to an interval longer */
+    public long getDurationMs() {
+        return timesMs.length == 0 ? 0 : timesMs[timesMs.length - 1];
+    }
+
+    public int getIntervalMs() {
+        return intervalMs;
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+}
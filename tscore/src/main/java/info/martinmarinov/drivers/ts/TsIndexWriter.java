@@ -0,0 +1,86 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the sidecar index of a transport stream recording as its packets go by, see TsIndex
+ * for the format.
+ *
+ * The time of a packet comes from a StreamClock. At most one entry is written per interval, at
+ * the first random access point after the interval starts.
+ *
+ * Not thread safe, all calls must come from the same thread.
+ */
+public class TsIndexWriter implements Closeable {
+    private final DataOutputStream out;
+    private final int intervalMs;
+
+    private final StreamClock clock = new StreamClock();
+    private long nextEntryMs = 0;
+    private int entries = 0;
+
+    public TsIndexWriter(OutputStream out, int intervalMs) throws IOException {
+        if (intervalMs <= 0) throw new IllegalArgumentException("Interval must be positive " + intervalMs);
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.intervalMs = intervalMs;
+
+        this.out.writeInt(TsIndex.MAGIC);
+        this.out.writeInt(TsIndex.VERSION);
+        this.out.writeInt(intervalMs);
+    }
+
+    /**
+     * @param buf a 188 byte packet
+     * @param position byte offset of its sync byte in the recording
+     */
+    public void packet(byte[] buf, int offset, long position) throws IOException {
+        clock.packet(buf, offset);
+
+        if (!StreamClock.isRandomAccessPoint(buf, offset)) return;
+        long timeMs = clock.getTimeMs();
+        if (timeMs < nextEntryMs) return;
+
+        out.writeLong(position);
+        out.writeInt((int) timeMs);
+        entries++;
+        nextEntryMs = (timeMs / intervalMs + 1) * intervalMs;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    /** Pushes out the entries so far, eg. so that a recording in progress can be seeked */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
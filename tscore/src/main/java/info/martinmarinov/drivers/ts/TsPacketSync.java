@@ -0,0 +1,252 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the packets in a byte stream of 188 byte TS packets, 192 byte packets that are prefixed
+ * by a 4 byte timestamp (M2TS) or 204 byte packets that are followed by 16 bytes of Reed-Solomon parity.
+ *
+ * The packet size is detected by looking for LOCK_PACKETS sync bytes in a row at the same distance.
+ * Once locked, packets are taken one after the other as long as the next one starts with a sync byte,
+ * otherwise the packet is dropped, the lock is lost and the bytes are searched again. Whatever the input, the sink only gets the 188
+ * bytes of the packets themselves, starting with 0x47.
+ *
+ * While searching, the bytes are read eight at a time and only words that contain a possible
+ * sync byte are looked at any closer, so garbage after a glitch on the bus is skipped quickly.
+ *
+ * The input can be split at arbitrary points, the bytes that are needed to make a decision are
+ * carried over to the next call. Not thread safe, all calls must come from the same thread.
+ */
+public class TsPacketSync {
+    public final static int PACKET_SIZE = 188;
+    final static int LOCK_PACKETS = 5;
+
+    private final static int[] PACKET_SIZES = {188, 192, 204};
+    private final static int MAX_PACKET_SIZE = 204;
+    private final static int M2TS_HEADER_SIZE = 4;
+    private final static int SYNC_BYTE = 0x47;
+    private final static int INVERTED_SYNC_BYTE = 0xB8; // first packet of every 8 in a RS coded stream
+    private final static long ONES = 0x0101010101010101L;
+    private final static long HIGH_BITS = 0x8080808080808080L;
+    private final static long SYNC_BYTES = SYNC_BYTE * ONES;
+    private final static long INVERTED_SYNC_BYTES = INVERTED_SYNC_BYTE * ONES;
+
+    public interface PacketSink {
+        /** A 188 byte packet starting at offset, buf is only valid for the duration of the call **/
+        void packet(byte[] buf, int offset) throws IOException;
+    }
+
+    private final PacketSink sink;
+    private final byte[] carry = new byte[2 * LOCK_PACKETS * MAX_PACKET_SIZE];
+    private final byte[] scratch = new byte[PACKET_SIZE];
+    private int carryLength = 0;
+    private long fedBytes = 0; // since the last reset
+    private long base; // stream position of index 0 of the buffer being processed
+    private long packetPosition;
+    private ByteBuffer words; // view of the last buffer that was searched
+
+    private int packetSize = 0; // 0 while searching
+    private long locks = 0;
+    private long lockLosses = 0;
+    private long bytesSkipped = 0;
+
+    public TsPacketSync(PacketSink sink) {
+        this.sink = sink;
+    }
+
+    public void feed(byte[] buf, int offset, int count) throws IOException {
+        int start = offset;
+        int end = offset + count;
+
+        while (carryLength > 0 && offset < end) {
+            int n = Math.min(end - offset, carry.length - carryLength);
+            System.arraycopy(buf, offset, carry, carryLength, n);
+            int available = carryLength + n;
+            base = fedBytes + (offset - start) - carryLength;
+            int used = process(carry, 0, available);
+
+            if (used >= carryLength) {
+                // done with what was carried over, the rest can be used in place
+                offset += used - carryLength;
+                carryLength = 0;
+            } else {
+                System.arraycopy(carry, used, carry, 0, available - used);
+                carryLength = available - used;
+                offset += n;
+            }
+        }
+
+        if (offset < end) {
+            base = fedBytes - start;
+            int used = process(buf, offset, end);
+            carryLength = end - used;
+            System.arraycopy(buf, used, carry, 0, carryLength);
+        }
+        fedBytes += count;
+    }
+
+    /**
+     * At the end of the input, pass on the last packet if it is complete. Otherwise it would wait
+     * for the sync byte of the next one.
+     */
+    public void flush() throws IOException {
+        if (packetSize != 0 && carryLength >= PACKET_SIZE && isSync(carry[0], packetSize)) {
+            base = fedBytes - carryLength;
+            emit(carry, 0);
+        }
+        carryLength = 0;
+    }
+
+    /** Forget the lock and any bytes carried over, eg. when the source jumps. Positions start from 0 again **/
+    public void reset() {
+        carryLength = 0;
+        fedBytes = 0;
+        packetSize = 0;
+    }
+
+    /**
+     * Position in the fed bytes of the sync byte of the packet being passed to the sink.
+     * Only valid during the call, a 192 byte packet starts 4 bytes earlier with its timestamp.
+     */
+    public long getPacketPosition() {
+        return packetPosition;
+    }
+
+    /** The detected packet size, 0 if not locked **/
+    public int getPacketSize() {
+        return packetSize;
+    }
+
+    public long getLocks() {
+        return locks;
+    }
+
+    public long getLockLosses() {
+        return lockLosses;
+    }
+
+    public long getBytesSkipped() {
+        return bytesSkipped;
+    }
+
+    /** @return the position up to which the bytes were used, the rest is needed to continue **/
+    private int process(byte[] buf, int pos, int end) throws IOException {
+        while (true) {
+            if (packetSize != 0) {
+                // positions are those of the sync byte, so a M2TS timestamp is just skipped with the previous packet.
+                // A packet is only let through once the next one is seen where expected, so a truncated
+                // packet is dropped rather than passed on with the head of the next one in it
+                while (end - pos > packetSize) {
+                    if (!isSync(buf[pos + packetSize], packetSize)) break;
+                    emit(buf, pos);
+                    pos += packetSize;
+                }
+                if (end - pos <= packetSize) return pos;
+
+                packetSize = 0;
+                lockLosses++;
+            }
+
+            int size = 0;
+            while (pos < end) {
+                int candidate = findSyncByte(buf, pos, end);
+                bytesSkipped += candidate - pos;
+                pos = candidate;
+                if (pos == end) break;
+
+                size = detect(buf, pos, end);
+                if (size < 0) return pos; // wait for more bytes
+                if (size > 0) break;
+                pos++;
+                bytesSkipped++;
+            }
+            if (size == 0) return pos;
+
+            packetSize = size;
+            locks++;
+        }
+    }
+
+    /** @return position of the first byte that could be a sync byte or end if there is none **/
+    private int findSyncByte(byte[] buf, int pos, int end) {
+        if (end - pos >= 2 * Long.SIZE / Byte.SIZE) {
+            if (words == null || words.array() != buf) words = ByteBuffer.wrap(buf);
+            for (; end - pos >= Long.SIZE / Byte.SIZE; pos += Long.SIZE / Byte.SIZE) {
+                long word = words.getLong(pos);
+                if (hasZeroByte(word ^ SYNC_BYTES) || hasZeroByte(word ^ INVERTED_SYNC_BYTES)) break;
+            }
+        }
+        for (; pos < end; pos++) {
+            int b = buf[pos] & 0xFF;
+            if (b == SYNC_BYTE || b == INVERTED_SYNC_BYTE) return pos;
+        }
+        return end;
+    }
+
+    private static boolean hasZeroByte(long word) {
+        return ((word - ONES) & ~word & HIGH_BITS) != 0;
+    }
+
+    /** @return the packet size, 0 if none fits or -1 if more bytes are needed to tell **/
+    private static int detect(byte[] buf, int pos, int end) {
+        for (int size : PACKET_SIZES) {
+            boolean fits = true;
+            boolean complete = true;
+            int shadowed = 0;
+            for (int i = 0; i < LOCK_PACKETS; i++) {
+                int p = pos + i * size;
+                if (p + M2TS_HEADER_SIZE >= end) {
+                    complete = false;
+                    break;
+                }
+                if (!isSync(buf[p], size)) {
+                    fits = false;
+                    break;
+                }
+                if (size == 192 && isSync(buf[p + M2TS_HEADER_SIZE], size)) shadowed++;
+            }
+            // a timestamp byte that stays 0x47 for a while, the real sync bytes follow it
+            if (shadowed == LOCK_PACKETS) fits = false;
+            if (!fits) continue;
+            return complete ? size : -1;
+        }
+        return 0;
+    }
+
+    private static boolean isSync(byte b, int packetSize) {
+        int v = b & 0xFF;
+        return v == SYNC_BYTE || (packetSize == 204 && v == INVERTED_SYNC_BYTE);
+    }
+
+    private void emit(byte[] buf, int pos) throws IOException {
+        packetPosition = base + pos;
+        if ((buf[pos] & 0xFF) == SYNC_BYTE) {
+            sink.packet(buf, pos);
+        } else {
+            System.arraycopy(buf, pos, scratch, 0, PACKET_SIZE);
+            scratch[0] = SYNC_BYTE;
+            sink.packet(scratch, 0);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import info.martinmarinov.drivers.tools.io.NioPipe;
+import info.martinmarinov.drivers.ts.TsIndex;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DvbDemuxTest {
+    private final NioPipe pipe = new NioPipe();
+    private final DvbDemux demux = DvbDemux.DvbDmxSwfilter(pipe);
+    private final int[] cc = new int[0x2000];
+
+    @After
+    public void tearDown() throws IOException {
+        demux.close();
+    }
+
+    @Test
+    public void testOnlyFilteredPidsPass() throws IOException {
+        demux.setPidFilter(0x100);
+        consume(stream(188, 0x100, 0x200, 0x100, 0x1FFF, 0x100, 0x200, 0x100, 0x100));
+
+        byte[] out = readAll();
+        assertThat(out.length, is(4 * 188)); // the last waits for the next packet to confirm it
+        for (int p = 0; p < out.length; p += 188) assertThat(pid(out, p), is(0x100));
+    }
+
+    @Test
+    public void testFullMux() throws IOException {
+        demux.disablePidFilter();
+        consume(stream(188, 0x100, 0x200, 0x100, 0x1FFF, 0x100, 0x200, 0x100, 0x100));
+
+        assertThat(readAll().length, is(7 * 188)); // the last waits for the next packet to confirm it
+    }
+
+    @Test
+    public void testTimestampedPacketsAreNormalised() throws IOException {
+        demux.disablePidFilter();
+        consume(stream(192, 0x100, 0x101, 0x102, 0x103, 0x104, 0x105, 0x106, 0x107));
+
+        byte[] out = readAll();
+        assertThat(out.length, is(7 * 188));
+        for (int i = 0; i < 7; i++) {
+            assertThat(out[i * 188] & 0xFF, is(0x47));
+            assertThat(pid(out, i * 188), is(0x100 + i));
+        }
+    }
+
+    @Test
+    public void testRecordingGetsTheFullMux() throws IOException {
+        final File file = File.createTempFile("recording", ".ts");
+        try {
+            demux.setPidFilter(0x100);
+            demux.startRecording(new DvbRecording.FileNamer() {
+                @Override
+                public File getFile(long frequency, long bandwidth, int programNumber, int segment) {
+                    assertThat(programNumber, is(DvbRecording.FULL_MUX));
+                    return file;
+                }
+            }, 506_000_000L, 8_000_000L);
+            consume(stream(188, 0x100, 0x200, 0x100, 0x1FFF, 0x100, 0x200, 0x100, 0x100));
+            demux.stopRecording().close();
+
+            assertThat(readAll().length, is(4 * 188));
+            assertThat(file.length(), is(7L * 188)); // the last waits for the next packet to confirm it
+        } finally {
+            file.delete();
+            TsIndex.sidecarFor(file).delete();
+        }
+    }
+
+    private byte[] stream(int packetSize, int... pids) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int pid : pids) {
+            byte[] packet = new byte[packetSize];
+            int p = packetSize - 188; // M2TS timestamp in front
+            packet[p] = 0x47;
+            packet[p + 1] = (byte) (pid >> 8);
+            packet[p + 2] = (byte) pid;
+            packet[p + 3] = (byte) (0x10 | (cc[pid]++ & 0x0F));
+            out.write(packet, 0, packet.length);
+        }
+        return out.toByteArray();
+    }
+
+    private void consume(byte[] stream) throws IOException {
+        // split, as USB transfers don't line up with packets
+        demux.consume(stream, 100);
+        byte[] rest = new byte[stream.length - 100];
+        System.arraycopy(stream, 100, rest, 0, rest.length);
+        demux.consume(rest, rest.length);
+    }
+
+    private byte[] readAll() throws IOException {
+        pipe.getOutputStream().close();
+        InputStream in = pipe.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int read;
+        while ((read = in.read(buf)) >= 0) out.write(buf, 0, read);
+        return out.toByteArray();
+    }
+
+    private static int pid(byte[] buf, int offset) {
+        return ((buf[offset + 1] & 0x1F) << 8) | (buf[offset + 2] & 0xFF);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class FastIntFilterTest {
+    private FastIntFilter f;
+
+    @Before
+    public void setUp() {
+        f = new FastIntFilter(20);
+    }
+
+    @Test
+    public void testSimpleCase() {
+        f.setFilter(0, 3, 8, 18, 19);
+        confirmOnlyFiltered(0, 3, 8, 18, 19);
+    }
+
+    @Test
+    public void testWithReset() {
+        f.setFilter(1, 7, 8, 17);
+        confirmOnlyFiltered(1, 7, 8, 17);
+        f.setFilter(0);
+        confirmOnlyFiltered(0);
+        f.setFilter(13, 19);
+        confirmOnlyFiltered(13, 19);
+    }
+
+    @Test
+    public void testSlightlyOverSize() {
+        f.setFilter(23); // Doesn't throw exception
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testTrulyOverSize() {
+        f.setFilter(24);
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        f.setFilter(1, 7);
+        f.addFilter(8, 17);
+        confirmOnlyFiltered(1, 7, 8, 17);
+        f.removeFilter(7, 17);
+        confirmOnlyFiltered(1, 8);
+        f.removeFilter(19); // not in the set
+        confirmOnlyFiltered(1, 8);
+        f.addFilter(8, 13);
+        confirmOnlyFiltered(1, 8, 13);
+    }
+
+    @Test
+    public void testFailedUpdateLeavesSetUnchanged() {
+        f.setFilter(2, 5);
+        try {
+            f.addFilter(6, 24);
+        } catch (ArrayIndexOutOfBoundsException ignored) {
+        }
+        confirmOnlyFiltered(2, 5);
+    }
+
+    @Test
+    public void testConcurrentUpdatesAreAtomic() throws Exception {
+        // PIDs 0..7 are in every set, 8..15 alternate with 16..23 and 24..31 are never added
+        final FastIntFilter filter = new FastIntFilter(0x1fff);
+        final int[] setA = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+        final int[] setB = {0, 1, 2, 3, 4, 5, 6, 7, 16, 17, 18, 19, 20, 21, 22, 23};
+        filter.setFilter(setA);
+
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 200_000; i++) {
+                    switch (i % 4) {
+                        case 0: filter.setFilter(setB); break;
+                        case 1: filter.setFilter(setA); break;
+                        case 2: filter.removeFilter(8, 9, 10, 11, 12, 13, 14, 15); filter.addFilter(16, 17, 18, 19, 20, 21, 22, 23); break;
+                        default: filter.addFilter(8, 9, 10, 11, 12, 13, 14, 15); filter.removeFilter(16, 17, 18, 19, 20, 21, 22, 23); break;
+                    }
+                }
+                done.set(true);
+            }
+        };
+
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                long lookups = 0;
+                while (!done.get() || lookups < 100_000) {
+                    for (int pid = 0; pid < 32; pid++) {
+                        boolean filtered = filter.isFiltered(pid);
+                        lookups++;
+                        if (pid < 8 && !filtered) {
+                            failure.compareAndSet(null, "PID " + pid + " present in all sets was dropped");
+                            return;
+                        }
+                        if (pid >= 24 && filtered) {
+                            failure.compareAndSet(null, "PID " + pid + " that was never added passed");
+                            return;
+                        }
+                    }
+                }
+            }
+        };
+
+        reader.start();
+        writer.start();
+        writer.join();
+        reader.join();
+
+        assertTrue(failure.get(), failure.get() == null);
+        confirmFiltered(filter, setA);
+    }
+
+    private void confirmFiltered(FastIntFilter filter, int ... vals) {
+        for (int val : vals) assertThat(filter.isFiltered(val), is(true));
+    }
+
+    private void confirmOnlyFiltered(int ... vals) {
+        Set<Integer> set = new HashSet<>();
+        for (int val : vals) set.add(val);
+        int filteredCount = 0;
+        for (int i = 0; i < 20; i++) {
+            boolean isActuallyFiltered = set.contains(i);
+            boolean isFiltered = f.isFiltered(i);
+
+            if (isFiltered) filteredCount++;
+            assertThat(isFiltered, is(isActuallyFiltered));
+        }
+        assertThat(filteredCount, is(vals.length));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,306 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Only the ordering of reads, tunes and stream control operations is checked here, with latches
+ * rather than timings. The latencies themselves are measured by FrontendLockBenchmark.
+ * The timeouts only turn a deadlock into a failure.
+ */
+public class FrontendLockTest {
+    private final static long TIMEOUT_MS = 10_000;
+    private final static int POLLERS = 4;
+
+    private final FrontendLock frontendLock = new FrontendLock();
+    private final FrontendLock.LastValue<Integer> lastValue = new FrontendLock.LastValue<>();
+    private final AtomicInteger hardwareValue = new AtomicInteger(1);
+    private final List<String> events = new ArrayList<>();
+    private final List<Thread> pollers = new ArrayList<>();
+    private final CountDownLatch tuning = new CountDownLatch(1);
+    private final CountDownLatch finishTune = new CountDownLatch(1);
+
+    private volatile boolean polling = true;
+    private volatile boolean insideTune = false;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        polling = false;
+        finishTune.countDown();
+        for (Thread poller : pollers) poller.join();
+    }
+
+    @Test(timeout = TIMEOUT_MS)
+    public void testReadsDuringTuneReturnLastValue() throws Exception {
+        assertThat(read(), is(1));
+        assertThat(frontendLock.takeServedLastValue(), is(false));
+
+        Thread tuneThread = startBlockedTune(2);
+        tuning.await();
+
+        // the tune can't finish until we let it, so this read didn't wait for it
+        assertThat(read(), is(1));
+        assertTrue(frontendLock.isTuneInProgress());
+
+        finishTune.countDown();
+        tuneThread.join();
+        assertThat(frontendLock.isTuneInProgress(), is(false));
+        assertThat(read(), is(2));
+
+        // sticks until taken even though the last read was fresh
+        assertThat(frontendLock.takeServedLastValue(), is(true));
+        assertThat(frontendLock.takeServedLastValue(), is(false));
+    }
+
+    @Test(timeout = TIMEOUT_MS)
+    public void testFirstReadWaitsForTune() throws Exception {
+        Thread tuneThread = startBlockedTune(2);
+        tuning.await();
+
+        final AtomicInteger readValue = new AtomicInteger();
+        Thread readThread = new Thread() {
+            @Override
+            public void run() {
+                readValue.set(read());
+            }
+        };
+        readThread.start();
+
+        finishTune.countDown();
+        readThread.join();
+        tuneThread.join();
+
+        assertThat(readValue.get(), is(2));
+        assertThat(snapshot().contains("read during tune"), is(false));
+        assertThat(frontendLock.takeServedLastValue(), is(false));
+    }
+
+    /** However hard the device is polled, a tune waits for at most the one read that already started */
+    @Test(timeout = TIMEOUT_MS)
+    public void testTuneWaitsForAtMostOneReadUnderConcurrentPolling() throws Exception {
+        assertThat(read(), is(1));
+
+        final CountDownLatch polled = new CountDownLatch(POLLERS * 10);
+        for (int i = 0; i < POLLERS; i++) {
+            startPoller(new Runnable() {
+                @Override
+                public void run() {
+                    read();
+                    polled.countDown();
+                }
+            });
+        }
+        polled.await();
+
+        for (int i = 0; i < 5; i++) tune(2 + i);
+        assertThat(snapshot().contains("read during tune"), is(false));
+
+        // only hardware reads made while a tune is waiting are recorded as "pending read"
+        int pendingReads = 0;
+        for (String event : snapshot()) {
+            switch (event) {
+                case "pending read":
+                    pendingReads++;
+                    break;
+                case "tune":
+                    assertTrue("Tune waited for "+pendingReads+" reads", pendingReads <= 1);
+                    pendingReads = 0;
+                    break;
+            }
+        }
+    }
+
+    @Test(timeout = TIMEOUT_MS)
+    public void testRetryingReadDoesNotBlockTune() throws Exception {
+        assertThat(read(), is(1));
+        final CountDownLatch failed = new CountDownLatch(1);
+        final CountDownLatch tuned = new CountDownLatch(1);
+
+        // A reader that fails and backs off outside the lock until the tune is done
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    frontendLock.read(lastValue, new ThrowingCallable<Integer, Exception>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            throw new Exception("Simulated I2C failure");
+                        }
+                    });
+                } catch (Exception ignored) {
+                }
+                failed.countDown();
+                try {
+                    tuned.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        reader.start();
+
+        failed.await();
+        tune(2); // would deadlock if the back off held the lock
+        tuned.countDown();
+        reader.join();
+        assertThat(read(), is(2));
+    }
+
+    @Test(timeout = TIMEOUT_MS)
+    public void testStreamControlOvertakesRunningTune() throws Exception {
+        Thread tuneThread = startBlockedTune(2);
+        tuning.await();
+
+        // returns while the tune is still holding the lock
+        assertThat(frontendLock.streamControl(recordEvent("stale pids")), is(false));
+        assertThat(frontendLock.streamControl(recordEvent("pids")), is(false));
+        assertThat(snapshot().isEmpty(), is(true));
+
+        finishTune.countDown();
+        tuneThread.join();
+
+        // only the latest update is applied, right after the tune and before the lock is let go
+        assertThat(snapshot(), is(Arrays.asList("tune", "pids", "tune returned")));
+        assertThat(frontendLock.takeDeferredFailure(), is(nullValue()));
+    }
+
+    @Test(timeout = TIMEOUT_MS)
+    public void testStreamControlRunsRightAwayWithoutTune() throws Exception {
+        assertThat(frontendLock.streamControl(recordEvent("pids")), is(true));
+        assertThat(snapshot(), is(Collections.singletonList("pids")));
+    }
+
+    @Test(timeout = TIMEOUT_MS)
+    public void testDeferredStreamControlFailureIsKept() throws Exception {
+        Thread tuneThread = startBlockedTune(2);
+        tuning.await();
+
+        final Exception failure = new Exception("Simulated I2C failure");
+        assertThat(frontendLock.streamControl(new ThrowingRunnable<Exception>() {
+            @Override
+            public void run() throws Exception {
+                throw failure;
+            }
+        }), is(false));
+
+        finishTune.countDown();
+        tuneThread.join();
+
+        assertThat(frontendLock.takeDeferredFailure(), is((Throwable) failure));
+        assertThat(frontendLock.takeDeferredFailure(), is(nullValue()));
+    }
+
+    private int read() {
+        return frontendLock.read(lastValue, new ThrowingCallable<Integer, RuntimeException>() {
+            @Override
+            public Integer call() {
+                if (insideTune) record("read during tune");
+                if (frontendLock.isTuneInProgress()) record("pending read");
+                return hardwareValue.get();
+            }
+        });
+    }
+
+    private void tune(final int newValue) throws InterruptedException {
+        frontendLock.tune(new ThrowingRunnable<InterruptedException>() {
+            @Override
+            public void run() {
+                insideTune = true;
+                record("tune");
+                hardwareValue.set(newValue);
+                insideTune = false;
+            }
+        });
+    }
+
+    /** Tunes on its own thread, counts down tuning once inside the lock and waits for finishTune */
+    private Thread startBlockedTune(final int newValue) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    frontendLock.tune(new ThrowingRunnable<InterruptedException>() {
+                        @Override
+                        public void run() throws InterruptedException {
+                            insideTune = true;
+                            tuning.countDown();
+                            finishTune.await();
+                            record("tune");
+                            hardwareValue.set(newValue);
+                            insideTune = false;
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                record("tune returned");
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private void startPoller(final Runnable poll) {
+        Thread poller = new Thread() {
+            @Override
+            public void run() {
+                while (polling) poll.run();
+            }
+        };
+        pollers.add(poller);
+        poller.start();
+    }
+
+    private ThrowingRunnable<RuntimeException> recordEvent(final String event) {
+        return new ThrowingRunnable<RuntimeException>() {
+            @Override
+            public void run() {
+                record(event);
+            }
+        };
+    }
+
+    private void record(String event) {
+        synchronized (events) {
+            events.add(event);
+        }
+    }
+
+    private List<String> snapshot() {
+        synchronized (events) {
+            return new ArrayList<>(events);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import info.martinmarinov.drivers.PidStats;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PidStatsTableTest {
+    private final PidStatsTable table = new PidStatsTable();
+
+    @Test
+    public void testCountsPerPid() {
+        table.record(0x100, 1_000L, false, false, false);
+        table.record(0x100, 1_010L, false, true, true);
+        table.record(0x100, 1_020L, true, false, true);
+        table.record(0, 1_030L, false, false, false);
+
+        List<PidStats> stats = table.snapshot();
+        assertThat(stats.size(), is(2));
+
+        PidStats pat = stats.get(0);
+        assertThat(pat.getPid(), is(0));
+        assertThat(pat.getPackets(), is(1L));
+
+        PidStats video = stats.get(1);
+        assertThat(video.getPid(), is(0x100));
+        assertThat(video.getPackets(), is(3L));
+        assertThat(video.getBytes(), is(3L * 188));
+        assertThat(video.getCcErrors(), is(1L));
+        assertThat(video.getTeiErrors(), is(1L));
+        assertThat(video.isScrambled(), is(true));
+        assertThat(video.getLastSeenMs(), is(1_020L));
+    }
+
+    @Test
+    public void testFirstPacketIsNotAContinuityError() {
+        table.record(0x1FFE, 1_000L, false, true, false);
+
+        assertThat(table.snapshot().get(0).getCcErrors(), is(0L));
+    }
+
+    @Test
+    public void testPaging() {
+        for (int pid = 0x20; pid > 0; pid--) table.record(pid, 1_000L, false, false, false);
+
+        List<PidStats> page = table.snapshot(0x10, 4);
+        assertThat(page.size(), is(4));
+        assertThat(page.get(0).getPid(), is(0x10));
+        assertThat(page.get(3).getPid(), is(0x13));
+
+        assertThat(table.snapshot(0x1F, 4).size(), is(2));
+        assertThat(table.snapshot(0x21, 4).size(), is(0));
+    }
+
+    @Test
+    public void testReset() {
+        table.record(0x100, 1_000L, false, false, false);
+        table.record(0x100, 1_000L, false, true, false);
+        table.reset();
+
+        assertThat(table.snapshot().size(), is(0));
+
+        table.record(0x100, 2_000L, false, true, false);
+        PidStats stats = table.snapshot().get(0);
+        assertThat(stats.getPackets(), is(1L));
+        assertThat(stats.getCcErrors(), is(0L));
+    }
+}
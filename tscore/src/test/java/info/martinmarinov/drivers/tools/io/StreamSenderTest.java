@@ -0,0 +1,167 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class StreamSenderTest {
+    private final StreamingStats stats = new StreamingStats();
+    private Pipe source;
+    private Pipe sink;
+    private Thread sendThread;
+    private StreamSender sender;
+
+    @Before
+    public void setUp() throws IOException {
+        source = Pipe.open();
+        sink = Pipe.open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (sender != null) sender.close();
+        if (sendThread != null) sendThread.join();
+        sink.source().close();
+        sink.sink().close();
+    }
+
+    @Test
+    public void testLowLatencySendsRightAway() throws Exception {
+        start(StreamingMode.LOW_LATENCY, 64 * 1024);
+
+        for (int i = 0; i < 3; i++) {
+            write(188, (byte) i);
+            ByteBuffer received = read(188);
+            assertThat(received.get(187), is((byte) i));
+        }
+        awaitWrites(3);
+        assertThat(stats.getAverageWriteBytes(), is(188L));
+    }
+
+    @Test
+    public void testThroughputWaitsForTheBatch() throws Exception {
+        start(StreamingMode.throughput(1880, 60_000), 64 * 1024);
+
+        for (int i = 0; i < 9; i++) write(188, (byte) i);
+        Thread.sleep(100);
+        assertThat(stats.getWrites(), is(0L)); // not a full batch yet
+
+        write(188, (byte) 9);
+        ByteBuffer received = read(1880);
+        for (int i = 0; i < 10; i++) assertThat(received.get(i * 188), is((byte) i));
+        awaitWrites(1);
+        assertThat(stats.getBytesSent(), is(1880L));
+    }
+
+    @Test
+    public void testThroughputSendsOldData() throws Exception {
+        start(StreamingMode.throughput(64 * 1024, 50), 256 * 1024);
+
+        long startNanos = System.nanoTime();
+        write(188, (byte) 1);
+        read(188);
+        long elapsedMs = (System.nanoTime() - startNanos) / 1_000_000L;
+
+        assertTrue("Sent after " + elapsedMs + " ms", elapsedMs >= 50);
+        awaitWrites(1);
+        assertTrue(stats.getMaxFlushLatencyNanos() >= 50_000_000L);
+    }
+
+    @Test
+    public void testWrapsAroundTheRing() throws Exception {
+        start(StreamingMode.throughput(1000, 1), 4096);
+
+        final int total = 1_000_000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ByteBuffer data = ByteBuffer.allocate(777);
+                    for (int sent = 0; sent < total; ) {
+                        data.clear();
+                        while (data.hasRemaining() && sent + data.position() < total) data.put((byte) (sent + data.position()));
+                        data.flip();
+                        sent += data.remaining();
+                        while (data.hasRemaining()) source.sink().write(data);
+                    }
+                    source.sink().close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.start();
+
+        ByteBuffer received = read(total);
+        for (int i = 0; i < total; i++) assertThat(received.get(i), is((byte) i));
+        writer.join();
+        sendThread.join();
+        assertThat(stats.getBytesSent(), is((long) total));
+        assertTrue(stats.getAverageWriteBytes() > 777);
+    }
+
+    private void start(StreamingMode mode, int ringBytes) {
+        sender = new StreamSender(source.source(), mode, stats, ringBytes);
+        sendThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sender.sendTo(sink.sink());
+                } catch (IOException ignored) {
+                    // closed by the test
+                }
+            }
+        });
+        sendThread.start();
+    }
+
+    /** The counters are updated once the write returns, which may be after the data was read **/
+    private void awaitWrites(long writes) throws InterruptedException {
+        for (int i = 0; i < 100 && stats.getWrites() < writes; i++) Thread.sleep(10);
+        assertThat(stats.getWrites(), is(writes));
+    }
+
+    private void write(int length, byte value) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        while (data.hasRemaining()) data.put(value);
+        data.flip();
+        while (data.hasRemaining()) source.sink().write(data);
+    }
+
+    private ByteBuffer read(int length) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        while (data.hasRemaining()) {
+            if (sink.source().read(data) < 0) throw new IOException("Stream ended");
+        }
+        data.flip();
+        return data;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools.io;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import info.martinmarinov.usbxfer.ByteSink;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ThrottledTsSourceTest {
+    private final static int PCR_PID = 0x100;
+    private final static int PACKETS_PER_PCR = 20;
+    private final static long PCR_STEP = 27_000_000L / 100; // 10 ms
+
+    private final Sink sink = new Sink();
+    private File file;
+
+    @After
+    public void tearDown() {
+        if (file != null && !file.delete()) file.deleteOnExit();
+    }
+
+    @Test
+    public void testUnthrottledInBatches() throws Exception {
+        file = writeStream(1000, 188);
+        ThrottledTsSource source = new ThrottledTsSource(file, ThrottledTsSource.UNTHROTTLED);
+        source.open();
+        try {
+            while (sink.packets < 1000) source.readNext(sink);
+        } finally {
+            source.close();
+        }
+        assertTrue(sink.calls < 1000 / 10);
+    }
+
+    @Test
+    public void testPacedOnPcr() throws Exception {
+        file = writeStream(1000, 188);
+        ThrottledTsSource source = new ThrottledTsSource(file, 2.0);
+        source.open();
+        try {
+            source.readNext(sink);
+            long start = System.nanoTime();
+            while (sink.packets < 500) source.readNext(sink);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            // 25 PCR intervals of 10 ms at twice the speed
+            assertTrue("took " + elapsedMs + " ms", elapsedMs >= 100 && elapsedMs < 400);
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void testLoopsTimestampedFile() throws Exception {
+        file = writeStream(30, 192);
+        ThrottledTsSource source = new ThrottledTsSource(file, ThrottledTsSource.UNTHROTTLED);
+        source.open();
+        try {
+            while (sink.packets < 100) source.readNext(sink);
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void testEveryPacketPlayedOnEachLoop() throws Exception {
+        file = writeStream(30, 188);
+        ThrottledTsSource source = new ThrottledTsSource(file, ThrottledTsSource.UNTHROTTLED);
+        source.open();
+        try {
+            while (sink.loopStarts.size() < 3) source.readNext(sink);
+        } finally {
+            source.close();
+        }
+        assertThat(sink.loopStarts.get(1) - sink.loopStarts.get(0), is(30));
+        assertThat(sink.loopStarts.get(2) - sink.loopStarts.get(1), is(30));
+    }
+
+    @Test
+    public void testSeek() throws Exception {
+        file = writeStream(1000, 188);
+        ThrottledTsSource source = new ThrottledTsSource(file, ThrottledTsSource.UNTHROTTLED);
+        source.open();
+        try {
+            source.readNext(sink);
+            source.requestSeek(501 * 188);
+            source.readNext(sink);
+            assertThat(sink.firstCc, is(501 & 0x0F));
+        } finally {
+            source.close();
+        }
+    }
+
+    private static File writeStream(int packets, int packetSize) throws IOException {
+        File file = File.createTempFile("stream", ".ts");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < packets; i++) {
+                byte[] packet = new byte[packetSize];
+                int p = packetSize - 188; // M2TS timestamp in front
+                packet[p] = 0x47;
+                if (i % PACKETS_PER_PCR == 0) {
+                    long pcrBase = i / PACKETS_PER_PCR * PCR_STEP / 300;
+                    packet[p + 1] = (byte) (PCR_PID >> 8);
+                    packet[p + 2] = (byte) PCR_PID;
+                    packet[p + 3] = 0x20; // adaptation field only
+                    packet[p + 4] = (byte) 183;
+                    packet[p + 5] = 0x10; // PCR
+                    packet[p + 6] = (byte) (pcrBase >> 25);
+                    packet[p + 7] = (byte) (pcrBase >> 17);
+                    packet[p + 8] = (byte) (pcrBase >> 9);
+                    packet[p + 9] = (byte) (pcrBase >> 1);
+                    packet[p + 10] = (byte) ((pcrBase & 1) << 7);
+                } else {
+                    packet[p + 1] = 0x02;
+                    packet[p + 2] = 0x00;
+                    packet[p + 3] = (byte) (0x10 | (i & 0x0F));
+                }
+                out.write(packet);
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static class Sink implements ByteSink {
+        private int packets;
+        private int calls;
+        private int firstCc; // of the last batch
+        private final List<Integer> loopStarts = new ArrayList<>(); // packets consumed before each first packet of the file
+
+        @Override
+        public void consume(byte[] buf, int count) {
+            assertThat(count % 188, is(0));
+            for (int p = 0; p < count; p += 188) {
+                assertThat(buf[p], is((byte) 0x47));
+                if (isFirstPacket(buf, p)) loopStarts.add(packets + p / 188);
+            }
+            firstCc = buf[3] & 0x0F;
+            packets += count / 188;
+            calls++;
+        }
+
+        // the PCR packet with a zero PCR
+        private static boolean isFirstPacket(byte[] buf, int p) {
+            if (buf[p + 1] != (byte) (PCR_PID >> 8) || buf[p + 2] != (byte) PCR_PID) return false;
+            for (int i = 6; i <= 10; i++) if (buf[p + i] != 0) return false;
+            return true;
+        }
+    }
+}
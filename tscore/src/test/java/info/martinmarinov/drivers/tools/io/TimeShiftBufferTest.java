@@ -0,0 +1,151 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TimeShiftBufferTest {
+    private final static int PCR_PID = 0x100;
+    private final static int PACKETS_PER_PCR = 20; // 2 packets per ms
+    private final static int PACKETS_PER_RANDOM_ACCESS_POINT = 200; // every 100 ms
+    private final static long PCR_STEP = 27_000_000L / 100; // 10 ms
+
+    private final NioPipe pipe = new NioPipe();
+    private File directory;
+    private TimeShiftBuffer buffer;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("timeshift", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (buffer != null) buffer.close();
+        File[] files = directory.listFiles();
+        if (files != null) assertThat(files.length, is(0)); // the ring is deleted on close
+        directory.delete();
+    }
+
+    @Test
+    public void testPassesStreamThrough() throws Exception {
+        buffer = start(4 * 1024 * 1024);
+        writeStream(2000);
+
+        DataInputStream in = new DataInputStream(buffer.getInputStream());
+        for (int i = 0; i < 2000; i++) assertThat(readPacketIndex(in), is(i));
+        assertThat(in.read(), is(-1));
+        assertThat(buffer.getDroppedBytes(), is(0L));
+    }
+
+    @Test
+    public void testSeekBackAndGoLive() throws Exception {
+        buffer = start(4 * 1024 * 1024);
+        writeStream(10_000); // 5 s
+
+        DataInputStream in = new DataInputStream(buffer.getInputStream());
+        for (int i = 0; i < 8000; i++) readPacketIndex(in);
+        assertThat(buffer.getBufferedMs(), is(4990L));
+
+        // 4 s in, the index has an entry every 500 ms
+        buffer.seekBy(-1000);
+        assertThat(readPacketIndex(in), is(6000));
+        assertThat(buffer.getDelayMs(), is(1990L));
+
+        buffer.goLive();
+        assertThat(readPacketIndex(in), is(9800));
+    }
+
+    @Test
+    public void testPausedPastTheRing() throws Exception {
+        buffer = start(2 * 1024 * 1024);
+        buffer.setPaused(true);
+        writeStream(20_000); // 3.76 MB through a 2 MB ring
+        assertTrue(buffer.isPaused());
+
+        buffer.setPaused(false);
+        int first = readPacketIndex(new DataInputStream(buffer.getInputStream()));
+        assertTrue("continued from " + first, first > 20_000 - buffer.getCapacity() / 188);
+        assertThat(first % PACKETS_PER_RANDOM_ACCESS_POINT, is(0));
+    }
+
+    private TimeShiftBuffer start(long capacity) throws IOException {
+        TimeShiftBuffer buffer = new TimeShiftBuffer(directory, capacity);
+        buffer.start(pipe.getInputStream());
+        return buffer;
+    }
+
+    /** Writes the stream and waits until it is all in the ring **/
+    private void writeStream(int packets) throws Exception {
+        OutputStream out = pipe.getOutputStream();
+        for (int i = 0; i < packets; i++) {
+            byte[] packet = new byte[188];
+            packet[0] = 0x47;
+            if (i % PACKETS_PER_PCR == 0) {
+                long pcrBase = i / PACKETS_PER_PCR * PCR_STEP / 300;
+                boolean randomAccess = i % PACKETS_PER_RANDOM_ACCESS_POINT == 0;
+                packet[1] = (byte) (PCR_PID >> 8);
+                packet[2] = (byte) PCR_PID;
+                packet[3] = 0x20; // adaptation field only
+                packet[4] = (byte) 183;
+                packet[5] = (byte) (0x10 | (randomAccess ? 0x40 : 0));
+                packet[6] = (byte) (pcrBase >> 25);
+                packet[7] = (byte) (pcrBase >> 17);
+                packet[8] = (byte) (pcrBase >> 9);
+                packet[9] = (byte) (pcrBase >> 1);
+                packet[10] = (byte) ((pcrBase & 1) << 7);
+            } else {
+                packet[1] = 0x02;
+                packet[2] = 0x00;
+                packet[3] = (byte) (0x10 | (i & 0x0F));
+            }
+            // index of the packet at the end, in the payload or the stuffing of the adaptation field
+            packet[184] = (byte) (i >> 24);
+            packet[185] = (byte) (i >> 16);
+            packet[186] = (byte) (i >> 8);
+            packet[187] = (byte) i;
+            out.write(packet);
+        }
+        out.close();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (buffer.getBytesWritten() < packets * 188L && System.currentTimeMillis() < deadline) Thread.sleep(10);
+    }
+
+    private static int readPacketIndex(DataInputStream in) throws IOException {
+        byte[] packet = new byte[188];
+        in.readFully(packet);
+        assertThat(packet[0], is((byte) 0x47));
+        return ((packet[184] & 0xFF) << 24) | ((packet[185] & 0xFF) << 16) | ((packet[186] & 0xFF) << 8) | (packet[187] & 0xFF);
+    }
+}
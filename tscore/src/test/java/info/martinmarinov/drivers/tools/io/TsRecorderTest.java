@@ -0,0 +1,164 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.tools.io;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import info.martinmarinov.drivers.ts.TsIndex;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TsRecorderTest {
+    private final static int SEGMENT_SIZE = 2 * 1024 * 1024;
+
+    private final Random random = new Random(42);
+    private final List<File> segments = new ArrayList<>();
+    private final TsRecorder.SegmentNamer namer = new TsRecorder.SegmentNamer() {
+        @Override
+        public File getSegmentFile(int index) throws IOException {
+            assertThat(index, is(segments.size()));
+            File file = File.createTempFile("segment" + index, ".ts");
+            segments.add(file);
+            return file;
+        }
+    };
+
+    @After
+    public void tearDown() {
+        for (File file : segments) {
+            TsIndex.sidecarFor(file).delete();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRotatesBySize() throws Exception {
+        byte[] stream = stream(30_000);
+        TsRecorder recorder = new TsRecorder(namer, SEGMENT_SIZE, TsRecorder.NO_LIMIT);
+        int pos = 0;
+        while (pos < stream.length) {
+            int n = Math.min(stream.length - pos, 1 + random.nextInt(20_000));
+            recorder.write(stream, pos, n);
+            pos += n;
+        }
+        recorder.close();
+
+        // 5.6 MB
+        assertThat(segments.size(), is(3));
+        assertThat(recorder.getSegments(), is(3));
+        assertThat(recorder.getBytesReceived(), is((long) stream.length));
+
+        ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+        for (File segment : segments) {
+            assertTrue(segment.length() <= SEGMENT_SIZE);
+            assertThat(segment.length() % 188, is(0L));
+            assertTrue(TsIndex.sidecarFor(segment).exists());
+            append(segment, recorded);
+        }
+        assertThat(recorder.getBytesWritten(), is((long) recorded.size()));
+
+        assertTrue(Arrays.equals(stream, recorded.toByteArray()));
+    }
+
+    @Test
+    public void testSmallStreamWithoutLimits() throws Exception {
+        byte[] stream = stream(100);
+        TsRecorder recorder = new TsRecorder(namer, TsRecorder.NO_LIMIT, TsRecorder.NO_LIMIT);
+        for (int pos = 0; pos < stream.length; pos += 100) recorder.write(stream, pos, Math.min(100, stream.length - pos));
+        recorder.close();
+
+        assertThat(segments.size(), is(1));
+        assertThat(segments.get(0).length(), is(100L * 188));
+        assertThat(recorder.getStalls(), is(0L));
+    }
+
+    @Test
+    public void testOfferDropsWhenTheStorageFallsBehind() throws Exception {
+        final CountDownLatch storage = new CountDownLatch(1);
+        TsRecorder recorder = new TsRecorder(new TsRecorder.SegmentNamer() {
+            @Override
+            public File getSegmentFile(int index) throws IOException {
+                try {
+                    storage.await(); // the writer thread is stuck until released
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return namer.getSegmentFile(index);
+            }
+        }, TsRecorder.NO_LIMIT, TsRecorder.NO_LIMIT);
+
+        byte[] stream = stream(60_000); // 11 MB, more than all buffers
+        int dropped = 0;
+        for (int pos = 0; pos < stream.length; pos += 188) {
+            if (!recorder.offer(stream, pos, 188)) dropped++;
+        }
+        storage.countDown();
+        recorder.close();
+
+        assertTrue(dropped > 0);
+        assertThat(recorder.getStalls(), is(0L));
+        assertThat(recorder.getDroppedBytes(), is(dropped * 188L));
+        assertThat(recorder.getBytesReceived(), is(stream.length - dropped * 188L));
+
+        // whole packets are dropped, what made it is the start of the stream
+        assertThat(segments.get(0).length(), is(recorder.getBytesReceived()));
+        ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+        append(segments.get(0), recorded);
+        assertTrue(Arrays.equals(Arrays.copyOf(stream, recorded.size()), recorded.toByteArray()));
+    }
+
+    private byte[] stream(int packets) {
+        byte[] stream = new byte[packets * 188];
+        random.nextBytes(stream);
+        for (int i = 0; i < packets; i++) {
+            int p = i * 188;
+            stream[p] = 0x47;
+            stream[p + 1] = 0x01; // PID 0x100, so no packet looks like a PAT
+            stream[p + 2] = 0x00;
+            stream[p + 3] = (byte) (0x10 | (i & 0x0F)); // payload only
+        }
+        return stream;
+    }
+
+    private static void append(File file, ByteArrayOutputStream to) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buf)) > 0) to.write(buf, 0, read);
+        } finally {
+            in.close();
+        }
+    }
+}
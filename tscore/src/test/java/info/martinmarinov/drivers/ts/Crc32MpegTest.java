@@ -0,0 +1,51 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class Crc32MpegTest {
+
+    @Test
+    public void testCheckValue() {
+        byte[] data = "123456789".getBytes();
+        assertThat(Crc32Mpeg.compute(data, 0, data.length), is(0x0376E6E7));
+    }
+
+    @Test
+    public void testSectionWithCrcIsZero() {
+        byte[] pat = TestStreams.pat(1, 0, 1, 0x100);
+        assertThat(Crc32Mpeg.compute(pat, 0, pat.length), is(0));
+
+        pat[9] ^= 0x01;
+        assertThat(Crc32Mpeg.compute(pat, 0, pat.length) != 0, is(true));
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        byte[] data = "123456789".getBytes();
+        int crc = Crc32Mpeg.update(Crc32Mpeg.compute(data, 0, 4), data, 4, 5);
+        assertThat(crc, is(0x0376E6E7));
+    }
+}
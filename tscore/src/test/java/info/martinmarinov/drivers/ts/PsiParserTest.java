@@ -0,0 +1,213 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class PsiParserTest {
+    private final PsiParser parser = new PsiParser();
+    private final int[] cc = new int[0x2000];
+
+    private final static PsiParser.PidSelector ALL = new PsiParser.PidSelector() {
+        @Override
+        public boolean isSelected(int pid) {
+            return true;
+        }
+    };
+
+    @Test
+    public void testBuildsModel() {
+        feed(0, TestStreams.pat(0x1234, 0, 1, 0x100, 2, 0x200));
+        feed(0x100, TestStreams.pmt(1, 3, 0x101, 0x02, 0x101, 0x03, 0x102));
+        feed(0x11, TestStreams.sdt(0x1234, 0, 0x233A, 1, "Provider", "Channel One"));
+
+        ServiceModel model = parser.getModel();
+        assertThat(model.getTransportStreamId(), is(0x1234));
+        assertThat(model.getOriginalNetworkId(), is(0x233A));
+        assertThat(model.getPrograms().size(), is(2));
+
+        ServiceModel.Program one = model.getProgram(1);
+        assertThat(one.getPmtVersion(), is(3));
+        assertThat(one.getPcrPid(), is(0x101));
+        assertThat(one.getServiceName(), is("Channel One"));
+        assertThat(one.getProviderName(), is("Provider"));
+        assertThat(one.getComponents().size(), is(2));
+        assertThat(one.getComponents().get(1).getStreamType(), is(0x03));
+        assertArrayEquals(new int[] {0x100, 0x101, 0x102}, one.getPids());
+
+        // PMT of program 2 not received yet
+        assertThat(model.getProgram(2).getPmtVersion(), is(-1));
+        assertThat(model.getProgram(3), nullValue());
+    }
+
+    @Test
+    public void testServicePids() {
+        assertArrayEquals(new int[] {0, 0x11}, parser.getModel().getServicePids(1));
+
+        // the NIT PID comes from program 0, the PMTs of other programs are left out
+        feed(0, TestStreams.pat(1, 0, 0, 0x12, 1, 0x100, 2, 0x200));
+        assertThat(parser.getModel().getNitPid(), is(0x12));
+        assertArrayEquals(new int[] {0, 0x11, 0x12, 0x100}, parser.getModel().getServicePids(1));
+
+        feed(0x100, TestStreams.pmt(1, 0, 0x101, 0x02, 0x101, 0x03, 0x102, 0x06, 0x1FFF));
+        assertArrayEquals(new int[] {0, 0x11, 0x12, 0x100, 0x101, 0x102}, parser.getModel().getServicePids(1));
+
+        // a PAT without program 0 doesn't announce a NIT
+        feed(0, TestStreams.pat(1, 1, 1, 0x100, 2, 0x200));
+        assertThat(parser.getModel().getNitPid(), is(ServiceModel.NO_PID));
+        assertArrayEquals(new int[] {0, 0x11, 0x100, 0x101, 0x102}, parser.getModel().getServicePids(1));
+    }
+
+    @Test
+    public void testRepeatedTablesDontChangeModel() {
+        feed(0, TestStreams.pat(1, 0, 1, 0x100));
+        feed(0x100, TestStreams.pmt(1, 0, 0x101, 0x02, 0x101));
+        long version = parser.getModel().getVersion();
+
+        for (int i = 0; i < 10; i++) {
+            feed(0, TestStreams.pat(1, 0, 1, 0x100));
+            feed(0x100, TestStreams.pmt(1, 0, 0x101, 0x02, 0x101));
+        }
+
+        assertThat(parser.getModel().getVersion(), is(version));
+        assertThat(parser.getAssembler().getSectionsSkipped(), is(20L));
+    }
+
+    @Test
+    public void testNewVersionReplacesTable() {
+        feed(0, TestStreams.pat(1, 0, 1, 0x100, 2, 0x200));
+        feed(0x100, TestStreams.pmt(1, 0, 0x101, 0x02, 0x101));
+
+        feed(0, TestStreams.pat(1, 1, 2, 0x200, 3, 0x300));
+        feed(0x100, TestStreams.pmt(1, 1, 0x101, 0x02, 0x101)); // PID no longer tracked
+
+        ServiceModel model = parser.getModel();
+        assertThat(model.getProgram(1), nullValue());
+        assertThat(model.getProgram(3).getPmtPid(), is(0x300));
+        assertThat(parser.getAssembler().isTracked(0x100), is(false));
+
+        feed(0x300, TestStreams.pmt(3, 5, 0x301, 0x1B, 0x301));
+        assertThat(parser.getModel().getProgram(3).getComponents().get(0).getStreamType(), is(0x1B));
+    }
+
+    @Test
+    public void testPmtBeforePat() {
+        feed(0x100, TestStreams.pmt(1, 0, 0x101, 0x02, 0x101));
+        feed(0, TestStreams.pat(1, 0, 1, 0x100));
+        feed(0x100, TestStreams.pmt(1, 0, 0x101, 0x02, 0x101));
+
+        assertThat(parser.getModel().getProgram(1).getPmtVersion(), is(0));
+    }
+
+    @Test
+    public void testReset() {
+        feed(0, TestStreams.pat(1, 0, 1, 0x100));
+        parser.requestReset();
+        assertThat(parser.getModel().getPrograms().size(), is(0));
+
+        feed(0, TestStreams.pat(1, 0, 1, 0x100));
+        assertThat(parser.getModel().getPrograms().size(), is(1));
+    }
+
+    @Test
+    public void testPreRollRebuildsModel() {
+        feed(0, TestStreams.pat(1, 0, 1, 0x100, 2, 0x200));
+        feed(0x100, TestStreams.pmt(1, 0, 0x101, 0x02, 0x101, 0x03, 0x102));
+        feed(0x200, TestStreams.pmt(2, 0, 0x201, 0x02, 0x201));
+        feed(0, TestStreams.pat(1, 0, 1, 0x100, 2, 0x200));
+
+        byte[] preRoll = parser.buildPreRoll(ALL);
+        assertThat(preRoll.length, is(3 * 188));
+
+        PsiParser player = new PsiParser();
+        for (int p = 0; p < preRoll.length; p += 188) player.packet(preRoll, p);
+        assertThat(player.getModel().getPrograms().size(), is(2));
+        assertArrayEquals(new int[] {0x100, 0x101, 0x102}, player.getModel().getProgram(1).getPids());
+
+        // the next packet of each PID in the stream follows on
+        assertThat(preRoll[3] & 0x0F, is((cc[0] - 1) & 0x0F));
+        assertThat(preRoll[188 + 3] & 0x0F, is((cc[0x100] - 1) & 0x0F));
+        assertThat(preRoll[2 * 188 + 3] & 0x0F, is((cc[0x200] - 1) & 0x0F));
+    }
+
+    @Test
+    public void testPreRollOnlySelectedPids() {
+        feed(0, TestStreams.pat(1, 0, 1, 0x100, 2, 0x200));
+        feed(0x100, TestStreams.pmt(1, 0, 0x101, 0x02, 0x101));
+        feed(0x200, TestStreams.pmt(2, 0, 0x201, 0x02, 0x201));
+
+        byte[] preRoll = parser.buildPreRoll(new PsiParser.PidSelector() {
+            @Override
+            public boolean isSelected(int pid) {
+                return pid == 0x200;
+            }
+        });
+        assertThat(preRoll.length, is(188));
+        assertThat(((preRoll[1] & 0x1F) << 8) | (preRoll[2] & 0xFF), is(0x200));
+
+        parser.requestReset();
+        assertThat(parser.buildPreRoll(ALL), nullValue());
+    }
+
+    @Test
+    public void testPreRollMultiPacketPmt() {
+        int[] components = new int[2 * 60];
+        for (int i = 0; i < 60; i++) {
+            components[2 * i] = 0x06;
+            components[2 * i + 1] = 0x101 + i;
+        }
+        feed(0, TestStreams.pat(1, 0, 1, 0x100));
+        feed(0x100, TestStreams.pmt(1, 0, 0x101, components));
+
+        byte[] preRoll = parser.buildPreRoll(ALL);
+        assertThat(preRoll.length, is(3 * 188)); // PAT and a 2 packet PMT
+        assertThat(preRoll[188 + 1] & 0x40, is(0x40));
+        assertThat(preRoll[2 * 188 + 1] & 0x40, is(0));
+        assertThat(preRoll[2 * 188 + 3] & 0x0F, is((cc[0x100] - 1) & 0x0F));
+
+        PsiParser player = new PsiParser();
+        for (int p = 0; p < preRoll.length; p += 188) player.packet(preRoll, p);
+        assertThat(player.getModel().getProgram(1).getComponents().size(), is(60));
+    }
+
+    @Test
+    public void testDecodeText() {
+        byte[] latin = {'C', (byte) 0x86, 'h', (byte) 0x87, 'a', 'n'};
+        assertThat(PsiParser.decodeText(latin, 0, latin.length), is("Chan"));
+
+        byte[] utf8 = {0x15, (byte) 0xC3, (byte) 0xA9, 't', (byte) 0xC3, (byte) 0xA9};
+        assertThat(PsiParser.decodeText(utf8, 0, utf8.length), is("été"));
+
+        byte[] cyrillic = {0x01, (byte) 0xB0};
+        assertThat(PsiParser.decodeText(cyrillic, 0, cyrillic.length), is("А"));
+    }
+
+    private void feed(int pid, byte[] section) {
+        byte[] packets = TestStreams.packets(pid, cc[pid], section);
+        cc[pid] += packets.length / 188;
+        for (int p = 0; p < packets.length; p += 188) parser.packet(packets, p);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class SectionAssemblerTest {
+    private final List<byte[]> sections = new ArrayList<>();
+    private boolean wanted = true;
+
+    private final SectionAssembler assembler = new SectionAssembler(new SectionAssembler.Listener() {
+        @Override
+        public boolean isWanted(int pid, int tableId, int tableIdExtension, int version, int sectionNumber) {
+            return wanted;
+        }
+
+        @Override
+        public void onSection(int pid, byte[] buf, int length) {
+            sections.add(Arrays.copyOf(buf, length));
+        }
+    });
+
+    @Test
+    public void testSectionSpanningPackets() {
+        byte[] section = TestStreams.pmt(1, 0, 0x100, components(60));
+        assembler.addPid(0x20);
+        feed(TestStreams.packets(0x20, 0, section));
+
+        assertThat(sections.size(), is(1));
+        assertArrayEquals(section, sections.get(0));
+    }
+
+    @Test
+    public void testSeveralSectionsInAPacket() {
+        byte[] pat = TestStreams.pat(1, 0, 1, 0x100);
+        byte[] pmt = TestStreams.pmt(1, 0, 0x101, 0x02, 0x101);
+        assembler.addPid(0x20);
+        feed(TestStreams.packets(0x20, 0, pat, pmt, pat));
+
+        assertThat(sections.size(), is(3));
+        assertArrayEquals(pmt, sections.get(1));
+    }
+
+    @Test
+    public void testSectionStartingMidPacket() {
+        byte[] first = TestStreams.pmt(1, 0, 0x100, components(40));
+        byte[] second = TestStreams.pmt(2, 0, 0x200, components(40));
+        assembler.addPid(0x20);
+        feed(TestStreams.packets(0x20, 0, first, second));
+
+        assertThat(sections.size(), is(2));
+        assertArrayEquals(second, sections.get(1));
+    }
+
+    @Test
+    public void testUntrackedPidIgnored() {
+        feed(TestStreams.packets(0x20, 0, TestStreams.pat(1, 0, 1, 0x100)));
+        assertThat(sections.size(), is(0));
+    }
+
+    @Test
+    public void testLostPacketDropsSection() {
+        byte[] section = TestStreams.pmt(1, 0, 0x100, components(80));
+        byte[] packets = TestStreams.packets(0x20, 0, section);
+        assembler.addPid(0x20);
+
+        assembler.packet(packets, 0);
+        assembler.packet(packets, 2 * 188); // second packet lost
+
+        assertThat(sections.size(), is(0));
+
+        // the next section is fine
+        feed(TestStreams.packets(0x20, 3, section));
+        assertThat(sections.size(), is(1));
+    }
+
+    @Test
+    public void testDuplicatePacketIgnored() {
+        byte[] section = TestStreams.pmt(1, 0, 0x100, components(60));
+        byte[] packets = TestStreams.packets(0x20, 0, section);
+        assembler.addPid(0x20);
+
+        for (int p = 0; p < packets.length; p += 188) {
+            assembler.packet(packets, p);
+            assembler.packet(packets, p);
+        }
+
+        assertThat(sections.size(), is(1));
+    }
+
+    @Test
+    public void testCrcError() {
+        byte[] section = TestStreams.pat(1, 0, 1, 0x100);
+        section[10] ^= 0x10;
+        assembler.addPid(0);
+        feed(TestStreams.packets(0, 0, section));
+
+        assertThat(sections.size(), is(0));
+        assertThat(assembler.getCrcErrors(), is(1L));
+    }
+
+    @Test
+    public void testUnwantedSectionSkipped() {
+        wanted = false;
+        assembler.addPid(0);
+        feed(TestStreams.packets(0, 0, TestStreams.pat(1, 0, 1, 0x100), TestStreams.pat(1, 0, 1, 0x100)));
+
+        assertThat(sections.size(), is(0));
+        assertThat(assembler.getSectionsSkipped(), is(2L));
+    }
+
+    @Test
+    public void testTooShortSectionDropped() {
+        assembler.addPid(0);
+        int cc = 0;
+        for (int sectionLength : new int[] { 0, 2, 8 }) { // the header and the CRC alone take 9 bytes
+            byte[] section = TestStreams.pat(1, 0, 1, 0x100);
+            section[1] = (byte) ((section[1] & 0xF0) | (sectionLength >> 8));
+            section[2] = (byte) sectionLength;
+            feed(TestStreams.packets(0, cc++, section));
+        }
+        assertThat(sections.size(), is(0));
+
+        // the next section is fine
+        feed(TestStreams.packets(0, cc, TestStreams.pat(1, 0, 1, 0x100)));
+        assertThat(sections.size(), is(1));
+    }
+
+    private void feed(byte[] packets) {
+        for (int p = 0; p < packets.length; p += 188) assembler.packet(packets, p);
+    }
+
+    private static int[] components(int count) {
+        int[] result = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            result[i * 2] = 0x06;
+            result[i * 2 + 1] = 0x200 + i;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class SptsRemuxerTest {
+    private final PsiParser parser = new PsiParser();
+    private final SptsRemuxer remuxer = new SptsRemuxer(parser);
+    private final int[] cc = new int[0x2000];
+
+    @Test
+    public void testPassThroughWhenDisabled() {
+        byte[] pat = packets(0, TestStreams.pat(1, 0, 1, 0x100, 2, 0x200));
+        byte[] copy = pat.clone();
+
+        assertThat(process(pat, 0), is(true));
+        assertArrayEquals(copy, pat);
+    }
+
+    @Test
+    public void testPatRewrittenToSingleProgram() {
+        remuxer.setProgram(2, false, false);
+
+        byte[] pat = packets(0, TestStreams.pat(0x55, 0, 1, 0x100, 2, 0x200, 3, 0x300));
+        assertThat(process(pat, 0), is(true));
+
+        byte[] expected = TestStreams.pat(0x55, 0, 2, 0x200);
+        assertThat(pat[4], is((byte) 0)); // pointer field
+        assertArrayEquals(expected, Arrays.copyOfRange(pat, 5, 5 + expected.length));
+        assertThat(Crc32Mpeg.compute(pat, 5, expected.length), is(0));
+    }
+
+    @Test
+    public void testContinuityCountersOfReplacedTables() {
+        remuxer.setProgram(1, false, false);
+        for (int i = 0; i < 20; i++) {
+            byte[] pat = packets(0, TestStreams.pat(1, 0, 1, 0x100, 2, 0x200));
+            byte[] pmt = packets(0x100, TestStreams.pmt(1, 0, 0x101, 0x02, 0x101));
+            assertThat(process(pat, 0), is(true));
+            assertThat(process(pmt, 0), is(true));
+            assertThat(pat[3] & 0x0F, is(i & 0x0F));
+            assertThat(pmt[3] & 0x0F, is(i & 0x0F));
+        }
+    }
+
+    @Test
+    public void testPreRollContinuesCounters() {
+        remuxer.setProgram(1, false, false);
+        byte[] pat = packets(0, TestStreams.pat(1, 0, 1, 0x100, 2, 0x200));
+        byte[] pmt = packets(0x100, TestStreams.pmt(1, 0, 0x101, 0x02, 0x101));
+        process(pat, 0);
+        process(pmt, 0);
+
+        byte[] preRoll = remuxer.buildPreRoll();
+        assertThat(preRoll.length, is(2 * 188));
+        assertArrayEquals(Arrays.copyOfRange(pat, 4, 188), Arrays.copyOfRange(preRoll, 4, 188));
+        assertThat(preRoll[3] & 0x0F, is(1));
+        assertThat(preRoll[188 + 3] & 0x0F, is(1));
+
+        pat = packets(0, TestStreams.pat(1, 0, 1, 0x100, 2, 0x200));
+        process(pat, 0);
+        assertThat(pat[3] & 0x0F, is(2));
+    }
+
+    @Test
+    public void testSharedPmtPidOnlyCarriesOurPmt() {
+        remuxer.setProgram(1, false, false);
+        process(packets(0, TestStreams.pat(1, 0, 1, 0x100, 2, 0x100)), 0);
+        process(packets(0x100, TestStreams.pmt(1, 0, 0x101, 0x02, 0x101)), 0);
+        process(packets(0x100, TestStreams.pmt(2, 0, 0x201, 0x02, 0x201)), 0);
+
+        byte[] pmt = packets(0x100, TestStreams.pmt(2, 0, 0x201, 0x02, 0x201));
+        assertThat(process(pmt, 0), is(true));
+        assertThat(((pmt[5 + 3] & 0xFF) << 8) | (pmt[5 + 4] & 0xFF), is(1)); // program number of the PMT
+    }
+
+    @Test
+    public void testDropping() {
+        remuxer.setProgram(1, true, true);
+        process(packets(0, TestStreams.pat(1, 0, 1, 0x100, 2, 0x200)), 0);
+        process(packets(0x100, TestStreams.pmt(1, 0, 0x101, 0x02, 0x101, 0x03, 0x102)), 0);
+
+        assertThat(process(payloadPacket(0x101), 0), is(true));
+        assertThat(process(payloadPacket(0x102), 0), is(true));
+        assertThat(process(payloadPacket(0x201), 0), is(false));
+        assertThat(process(payloadPacket(0x1FFF), 0), is(false));
+
+        remuxer.setProgram(1, false, false);
+        assertThat(process(payloadPacket(0x201), 0), is(true));
+        assertThat(process(payloadPacket(0x1FFF), 0), is(true));
+    }
+
+    @Test
+    public void testUnknownProgram() {
+        remuxer.setProgram(7, false, false);
+        assertThat(process(packets(0, TestStreams.pat(1, 0, 1, 0x100)), 0), is(false));
+    }
+
+    // the parser sees the packet first, like in DvbDemux
+    private boolean process(byte[] buf, int offset) {
+        parser.packet(buf, offset);
+        return remuxer.process(buf, offset);
+    }
+
+    private byte[] packets(int pid, byte[] section) {
+        byte[] packets = TestStreams.packets(pid, cc[pid], section);
+        cc[pid] += packets.length / 188;
+        return packets;
+    }
+
+    private byte[] payloadPacket(int pid) {
+        byte[] packet = new byte[188];
+        packet[0] = 0x47;
+        packet[1] = (byte) (pid >> 8);
+        packet[2] = (byte) pid;
+        packet[3] = (byte) (0x10 | (cc[pid]++ & 0x0F));
+        return packet;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Builds PSI sections and the TS packets that carry them **/
+class TestStreams {
+    static byte[] section(int tableId, int tableIdExtension, int version, int sectionNumber, int lastSectionNumber, byte[] body) {
+        int sectionLength = 5 + body.length + 4;
+        byte[] section = new byte[3 + sectionLength];
+        section[0] = (byte) tableId;
+        section[1] = (byte) (0xB0 | (sectionLength >> 8));
+        section[2] = (byte) sectionLength;
+        section[3] = (byte) (tableIdExtension >> 8);
+        section[4] = (byte) tableIdExtension;
+        section[5] = (byte) (0xC1 | (version << 1));
+        section[6] = (byte) sectionNumber;
+        section[7] = (byte) lastSectionNumber;
+        System.arraycopy(body, 0, section, 8, body.length);
+        int crc = Crc32Mpeg.compute(section, 0, section.length - 4);
+        section[section.length - 4] = (byte) (crc >> 24);
+        section[section.length - 3] = (byte) (crc >> 16);
+        section[section.length - 2] = (byte) (crc >> 8);
+        section[section.length - 1] = (byte) crc;
+        return section;
+    }
+
+    static byte[] pat(int tsId, int version, int... programNumberAndPmtPid) {
+        byte[] body = new byte[programNumberAndPmtPid.length * 2];
+        for (int i = 0; i < programNumberAndPmtPid.length; i += 2) {
+            putShort(body, i * 2, programNumberAndPmtPid[i]);
+            putShort(body, i * 2 + 2, 0xE000 | programNumberAndPmtPid[i + 1]);
+        }
+        return section(0x00, tsId, version, 0, 0, body);
+    }
+
+    static byte[] pmt(int programNumber, int version, int pcrPid, int... streamTypeAndPid) {
+        byte[] body = new byte[4 + streamTypeAndPid.length / 2 * 5];
+        putShort(body, 0, 0xE000 | pcrPid);
+        putShort(body, 2, 0xF000);
+        for (int i = 0; i < streamTypeAndPid.length; i += 2) {
+            int p = 4 + i / 2 * 5;
+            body[p] = (byte) streamTypeAndPid[i];
+            putShort(body, p + 1, 0xE000 | streamTypeAndPid[i + 1]);
+            putShort(body, p + 3, 0xF000);
+        }
+        return section(0x02, programNumber, version, 0, 0, body);
+    }
+
+    static byte[] sdt(int tsId, int version, int originalNetworkId, int serviceId, String provider, String name) {
+        byte[] providerBytes = provider.getBytes();
+        byte[] nameBytes = name.getBytes();
+        int descriptorLength = 3 + providerBytes.length + nameBytes.length;
+        byte[] body = new byte[3 + 5 + 2 + descriptorLength];
+        putShort(body, 0, originalNetworkId);
+        body[2] = (byte) 0xFF;
+        putShort(body, 3, serviceId);
+        body[5] = (byte) 0xFC;
+        putShort(body, 6, 0x8000 | (2 + descriptorLength)); // running, free to air
+        body[8] = 0x48;
+        body[9] = (byte) descriptorLength;
+        body[10] = 0x01; // digital television
+        body[11] = (byte) providerBytes.length;
+        System.arraycopy(providerBytes, 0, body, 12, providerBytes.length);
+        body[12 + providerBytes.length] = (byte) nameBytes.length;
+        System.arraycopy(nameBytes, 0, body, 13 + providerBytes.length, nameBytes.length);
+        return section(0x42, tsId, version, 0, 0, body);
+    }
+
+    /** Sections packed back to back into as many packets as needed, the rest of the last packet is stuffing **/
+    static byte[] packets(int pid, int firstCc, byte[]... sections) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        List<Integer> starts = new ArrayList<>();
+        for (byte[] section : sections) {
+            starts.add(data.size());
+            data.write(section, 0, section.length);
+        }
+        byte[] stream = data.toByteArray();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int pos = 0;
+        int cc = firstCc;
+        while (pos < stream.length) {
+            byte[] packet = new byte[188];
+            int nextStart = -1;
+            for (int start : starts) {
+                if (start >= pos && start < pos + 183) {
+                    nextStart = start;
+                    break;
+                }
+            }
+            packet[0] = 0x47;
+            packet[1] = (byte) ((nextStart >= 0 ? 0x40 : 0) | (pid >> 8));
+            packet[2] = (byte) pid;
+            packet[3] = (byte) (0x10 | (cc++ & 0x0F));
+            int p = 4;
+            if (nextStart >= 0) packet[p++] = (byte) (nextStart - pos);
+            int n = Math.min(188 - p, stream.length - pos);
+            System.arraycopy(stream, pos, packet, p, n);
+            for (int i = p + n; i < 188; i++) packet[i] = (byte) 0xFF;
+            pos += n;
+            out.write(packet, 0, 188);
+        }
+        return out.toByteArray();
+    }
+
+    private static void putShort(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >> 8);
+        buf[offset + 1] = (byte) value;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TsIndexTest {
+    private final static int PCR_PID = 0x100;
+    private final static int PACKETS_PER_PCR = 20; // 2 packets per ms
+    private final static int PCRS_PER_RANDOM_ACCESS_POINT = 10; // every 100 ms
+    private final static long PCR_STEP = Pcr.HZ / 100; // 10 ms
+
+    private File file;
+
+    @After
+    public void tearDown() {
+        if (file == null) return;
+        TsIndex.sidecarFor(file).delete();
+        file.delete();
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        file = writeStream(10_000, -1);
+        TsIndex index = TsIndex.build(file);
+
+        // 5 s, an entry every 500 ms
+        assertThat(index.size(), is(10));
+        assertThat(index.getIntervalMs(), is(TsIndex.DEFAULT_INTERVAL_MS));
+        assertThat(index.getDurationMs(), is(4500L));
+
+        assertThat(index.getOffset(0), is(0L));
+        assertThat(index.getOffset(1234), is(2000L * 188));
+        assertThat(index.getOffset(1500), is(3000L * 188));
+        assertThat(index.getOffset(60_000), is(9000L * 188));
+    }
+
+    @Test
+    public void testPcrJumpIsNotPlayed() throws Exception {
+        file = writeStream(10_000, 5000);
+        TsIndex index = TsIndex.build(file);
+
+        assertThat(index.getDurationMs(), is(4500L));
+        assertThat(index.getOffset(3000), is(6000L * 188));
+    }
+
+    @Test
+    public void testLoadOrBuild() throws Exception {
+        file = writeStream(2000, -1);
+        File sidecar = TsIndex.sidecarFor(file);
+        assertThat(sidecar.exists(), is(false));
+
+        TsIndex built = TsIndex.loadOrBuild(file);
+        assertThat(sidecar.exists(), is(true));
+        assertThat(built.size(), is(2));
+
+        // a truncated last entry, eg. of a recording in progress, is ignored
+        FileOutputStream out = new FileOutputStream(sidecar, true);
+        out.write(new byte[5]);
+        out.close();
+        sidecar.setLastModified(file.lastModified() + 1000);
+        assertThat(TsIndex.loadOrBuild(file).size(), is(2));
+
+        // stale
+        sidecar.setLastModified(file.lastModified() - 1000);
+        TsIndex rebuilt = TsIndex.loadOrBuild(file);
+        assertThat(rebuilt.size(), is(2));
+        assertThat(sidecar.length(), is(12L + 2 * 12));
+    }
+
+    /** @param jumpAt packet from which on the PCR is 10 s ahead, -1 for none */
+    private static File writeStream(int packets, int jumpAt) throws IOException {
+        File file = File.createTempFile("stream", ".ts");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < packets; i++) {
+                byte[] packet = new byte[188];
+                packet[0] = 0x47;
+                if (i % PACKETS_PER_PCR == 0) {
+                    long pcr = i / PACKETS_PER_PCR * PCR_STEP;
+                    if (jumpAt >= 0 && i >= jumpAt) pcr += 10 * Pcr.HZ;
+                    long pcrBase = pcr / 300;
+                    boolean randomAccess = i % (PACKETS_PER_PCR * PCRS_PER_RANDOM_ACCESS_POINT) == 0;
+                    packet[1] = (byte) (PCR_PID >> 8);
+                    packet[2] = (byte) PCR_PID;
+                    packet[3] = 0x20; // adaptation field only
+                    packet[4] = (byte) 183;
+                    packet[5] = (byte) (0x10 | (randomAccess ? 0x40 : 0));
+                    packet[6] = (byte) (pcrBase >> 25);
+                    packet[7] = (byte) (pcrBase >> 17);
+                    packet[8] = (byte) (pcrBase >> 9);
+                    packet[9] = (byte) (pcrBase >> 1);
+                    packet[10] = (byte) ((pcrBase & 1) << 7);
+                } else {
+                    packet[1] = 0x02;
+                    packet[2] = 0x00;
+                    packet[3] = (byte) (0x10 | (i & 0x0F));
+                }
+                out.write(packet);
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
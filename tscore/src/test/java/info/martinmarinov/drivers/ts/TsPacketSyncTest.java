@@ -0,0 +1,186 @@
+/*
+ * This is an Android user space port of DVB-T Linux kernel modules.
+ *
+ * Copyright (C) 2022 by Signalware Ltd <driver at aerialtv.eu>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package info.martinmarinov.drivers.ts;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class TsPacketSyncTest {
+    private final Random random = new Random(42);
+    private final List<byte[]> received = new ArrayList<>();
+    private final List<Long> positions = new ArrayList<>();
+    private final TsPacketSync sync = new TsPacketSync(new TsPacketSync.PacketSink() {
+        @Override
+        public void packet(byte[] buf, int offset) {
+            received.add(Arrays.copyOfRange(buf, offset, offset + 188));
+            positions.add(sync.getPacketPosition());
+        }
+    });
+
+    @Test
+    public void test188WithGarbageInFront() throws Exception {
+        byte[][] packets = packets(50);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(new byte[] {0x47, 0x12, 0x47, 0x00, 0x00}); // sync bytes that don't line up
+        for (byte[] packet : packets) stream.write(packet);
+
+        feedInChunks(stream.toByteArray());
+        assertThat(sync.getPacketSize(), is(188));
+        assertThat(sync.getBytesSkipped(), is(5L));
+        assertPackets(packets, 0, 49); // the last one waits for the next sync byte
+
+        sync.flush();
+        assertPackets(packets, 0, 50);
+    }
+
+    @Test
+    public void test192Timestamped() throws Exception {
+        byte[][] packets = packets(50);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] packet : packets) {
+            stream.write(new byte[] {0x47, 0x00, 0x12, 0x34}); // timestamp, its first byte looks like a sync byte
+            stream.write(packet);
+        }
+
+        feedInChunks(stream.toByteArray());
+        assertThat(sync.getPacketSize(), is(192));
+        assertPackets(packets, 0, 49);
+    }
+
+    @Test
+    public void test204WithInvertedSync() throws Exception {
+        byte[][] packets = packets(50);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < packets.length; i++) {
+            byte[] packet = packets[i].clone();
+            if (i % 8 == 0) packet[0] = (byte) 0xB8;
+            stream.write(packet);
+            stream.write(new byte[16], 0, 16); // parity
+        }
+
+        feedInChunks(stream.toByteArray());
+        assertThat(sync.getPacketSize(), is(204));
+        assertPackets(packets, 0, 49);
+    }
+
+    @Test
+    public void testRelocksAfterLostBytes() throws Exception {
+        byte[][] packets = packets(50);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < packets.length; i++) {
+            if (i == 20) {
+                stream.write(packets[i], 0, 100); // truncated
+            } else {
+                stream.write(packets[i]);
+            }
+        }
+
+        feedInChunks(stream.toByteArray());
+        assertThat(sync.getLocks(), is(2L));
+        assertThat(sync.getLockLosses(), is(1L));
+        assertThat(received.size(), is(48)); // the truncated one is dropped
+        assertPackets(packets, 0, 20);
+        for (int i = 21; i < 49; i++) assertArrayEquals(packets[i], received.get(i - 1));
+    }
+
+    @Test
+    public void testGarbageOfAnyLength() throws Exception {
+        byte[][] packets = packets(20);
+        for (int garbage = 0; garbage < 40; garbage++) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            byte[] junk = new byte[garbage];
+            Arrays.fill(junk, (byte) 0x55);
+            if (garbage > 10) junk[garbage - 10] = (byte) 0xB8;
+            stream.write(junk);
+            for (byte[] packet : packets) stream.write(packet);
+
+            received.clear();
+            sync.reset();
+            byte[] bytes = stream.toByteArray();
+            sync.feed(bytes, 0, bytes.length);
+            assertPackets(packets, 0, 19);
+        }
+    }
+
+    @Test
+    public void testPacketPositions() throws Exception {
+        byte[][] packets = packets(50);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(new byte[7]);
+        for (byte[] packet : packets) {
+            stream.write(new byte[4]);
+            stream.write(packet);
+        }
+
+        feedInChunks(stream.toByteArray());
+        assertPackets(packets, 0, 49);
+        for (int i = 0; i < 49; i++) assertThat(positions.get(i), is(7L + i * 192 + 4));
+
+        sync.reset();
+        received.clear();
+        positions.clear();
+        feedInChunks(stream.toByteArray());
+        assertThat(positions.get(0), is(7L + 4));
+    }
+
+    @Test
+    public void testNoLockOnNoise() throws Exception {
+        byte[] noise = new byte[10000];
+        random.nextBytes(noise);
+        feedInChunks(noise);
+        assertThat(received.size(), is(0));
+        assertThat(sync.getPacketSize(), is(0));
+    }
+
+    private byte[][] packets(int count) {
+        byte[][] packets = new byte[count][188];
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(packets[i]);
+            packets[i][0] = 0x47;
+            packets[i][1] = (byte) (i >> 8);
+            packets[i][2] = (byte) i;
+        }
+        return packets;
+    }
+
+    private void feedInChunks(byte[] stream) throws Exception {
+        int pos = 0;
+        while (pos < stream.length) {
+            int n = Math.min(stream.length - pos, 1 + random.nextInt(500));
+            sync.feed(stream, pos, n);
+            pos += n;
+        }
+    }
+
+    private void assertPackets(byte[][] packets, int from, int to) {
+        assertThat(received.size() >= to, is(true));
+        for (int i = from; i < to; i++) assertArrayEquals(packets[i], received.get(i));
+    }
+}